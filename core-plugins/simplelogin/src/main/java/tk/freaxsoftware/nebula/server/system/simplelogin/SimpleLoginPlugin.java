@@ -19,9 +19,11 @@
 
 package tk.freaxsoftware.nebula.server.system.simplelogin;
 
+import java.util.Collections;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tk.freaxsoftware.extras.bus.MessageBus;
+import tk.freaxsoftware.extras.bus.Receiver;
 import tk.freaxsoftware.nebula.server.core.messages.MessagesClass;
 import tk.freaxsoftware.nebula.server.lib.api.Features;
 import tk.freaxsoftware.nebula.server.lib.api.NebulaFeature;
@@ -60,12 +62,15 @@ public class SimpleLoginPlugin implements Plugable {
     public void start() throws Exception {
         LOGGER.debug("register simple login handler");
         receiver = new SimpleLoginReceiver();
-        MessageBus.addSubscription(MessagesClass.NEBULA_INTERNAL_LOGIN_MESSAGE, receiver);
+    }
+
+    @Override
+    public Map<String, Receiver> getReceivers() {
+        return Collections.singletonMap(MessagesClass.NEBULA_INTERNAL_LOGIN_MESSAGE, receiver);
     }
 
     @Override
     public void stop() throws Exception {
-        MessageBus.removeSubscription(MessagesClass.NEBULA_INTERNAL_LOGIN_MESSAGE, receiver);
         LOGGER.debug("removed simple login handler");
     }
 
@@ -0,0 +1,102 @@
+/*
+ * This file is part of Nebula API library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.api;
+
+/**
+ * Persistent queue of background jobs. Jobs are stored on disk and resumed 
+ * after restart, so runners should continue from last checkpoint.
+ * @author Stanislav Nepochatov
+ */
+public interface JobQueue {
+    
+    /**
+     * Register runner of job type. Unfinished jobs of type are resumed at once. 
+     * Types are unregistered when owning plugin stops.
+     * @param type unique job type;
+     * @param concurrency max count of jobs of type running at once;
+     * @param runner runner of jobs;
+     */
+    void registerType(String type, int concurrency, JobRunner runner);
+    
+    /**
+     * Submit new job. Job waits in queue until its type is registered.
+     * @param type job type;
+     * @param payload job arguments;
+     * @return id of job;
+     */
+    String submit(String type, String payload);
+    
+    /**
+     * Cancel job. Queued job is cancelled at once, running job 
+     * should check {@link JobContext#isCancelled()}.
+     * @param jobId id of job;
+     * @return true if job wasn't finished yet;
+     */
+    boolean cancel(String jobId);
+    
+    /**
+     * Runner of jobs of single type.
+     */
+    @FunctionalInterface
+    interface JobRunner {
+        
+        /**
+         * Run job, may be called again for same job after restart.
+         * @param context context of job;
+         * @throws Exception on job error, job marked as failed;
+         */
+        void run(JobContext context) throws Exception;
+    }
+    
+    /**
+     * Context of running job.
+     */
+    interface JobContext {
+        
+        /**
+         * Get id of job.
+         * @return job id;
+         */
+        String getId();
+        
+        /**
+         * Get job arguments.
+         * @return payload given on submit;
+         */
+        String getPayload();
+        
+        /**
+         * Get last stored progress of job.
+         * @return checkpoint or null if job wasn't checkpointed;
+         */
+        String getCheckpoint();
+        
+        /**
+         * Store progress of job, job resumed from it after restart.
+         * @param checkpoint job progress;
+         */
+        void checkpoint(String checkpoint);
+        
+        /**
+         * Check if job cancel was requested.
+         * @return true if job should stop;
+         */
+        boolean isCancelled();
+    }
+}
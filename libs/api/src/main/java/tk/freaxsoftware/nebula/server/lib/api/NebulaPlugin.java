@@ -87,4 +87,43 @@ public @interface NebulaPlugin {
      * @return boolean flag;
      */
     boolean initLocalization() default false;
+    
+    /**
+     * Ids of plugins which should be started before this plugin.
+     * @return array of plugin ids;
+     */
+    String[] dependsOn() default {};
+    
+    /**
+     * Features which providers should be started before this plugin.
+     * @return array of features;
+     */
+    Features[] requiresFeatures() default {};
+    
+    /**
+     * Message ids which activate plugin on demand. Plugin with activation 
+     * messages isn't started on system launch, it started on first message 
+     * with one of these ids instead.
+     * @return array of message ids;
+     */
+    String[] activateOn() default {};
+    
+    /**
+     * Time without activation messages in seconds after which lazy plugin 
+     * stopped until next message. Zero disables idle stop.
+     * @return idle timeout in seconds;
+     */
+    int idleTimeout() default 0;
+    
+    /**
+     * Max count of threads of plugin executor. Zero means server default.
+     * @return count of threads;
+     */
+    int maxThreads() default 0;
+    
+    /**
+     * Max count of queued tasks of plugin executor. Zero means server default.
+     * @return count of tasks;
+     */
+    int maxQueue() default 0;
 }
@@ -18,6 +18,11 @@
  */
 package tk.freaxsoftware.nebula.server.lib.api;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import tk.freaxsoftware.extras.bus.Receiver;
+
 /**
  * Plugin main interface. Defines all lifecycle methods.
  * @author Stanislav Nepochatov
@@ -65,4 +70,64 @@ public interface Plugable {
      */
     void purge() throws Exception;
     
+    /**
+     * Stops accepting new requests before stop. Loader removes subscriptions 
+     * of plugin receivers before this call, plugin should stop its own 
+     * sources of requests. Requests in progress should be finished normally. 
+     * Called before {@link #stop()} when plugin stopped gracefully.
+     * @throws java.lang.Exception
+     */
+    default void drain() throws Exception {
+    }
+    
+    /**
+     * Gets count of own requests in progress, e.g. background tasks. Messages 
+     * to plugin receivers are counted by loader. Loader waits for zero 
+     * count during drain before calling {@link #stop()}.
+     * @return count of requests in progress;
+     */
+    default int getActiveRequests() {
+        return 0;
+    }
+    
+    /**
+     * Gets message receivers of plugin by message ids. Called after start, 
+     * loader subscribes receivers to message bus and runs them on plugin 
+     * executor, so plugin shouldn't subscribe them by itself. Subscriptions 
+     * are removed by loader before plugin stop.
+     * @return map of receivers by message ids;
+     */
+    default Map<String, Receiver> getReceivers() {
+        return Collections.emptyMap();
+    }
+    
+    /**
+     * Sets managed executor of plugin. Called before install and start. 
+     * Receivers of plugin are run on this executor, plugin should run its 
+     * background tasks on it too, its threads are limited and their 
+     * resources are accounted. Executor rejects tasks if its queue is full and it's 
+     * shut down by loader after plugin stop.
+     * @param executor plugin executor;
+     */
+    default void setExecutor(ExecutorService executor) {
+    }
+    
+    /**
+     * Sets shared scheduler of plugin timeouts. Called before install and 
+     * start. Callbacks are run on plugin executor, pending timeouts are 
+     * dropped after plugin stop.
+     * @param scheduler plugin scheduler;
+     */
+    default void setScheduler(PluginScheduler scheduler) {
+    }
+    
+    /**
+     * Sets persistent queue of background jobs. Called before install and 
+     * start. Job types registered by plugin are stopped with plugin and 
+     * their unfinished jobs are resumed on next start.
+     * @param jobQueue job queue;
+     */
+    default void setJobQueue(JobQueue jobQueue) {
+    }
+    
 }
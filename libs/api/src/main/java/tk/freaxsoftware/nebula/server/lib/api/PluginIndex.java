@@ -0,0 +1,196 @@
+/*
+ * This file is part of Nebula API library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Precomputed index of plugins inside plugin jar. Index generated during 
+ * build by {@code PluginIndexProcessor} and lets loader skip scanning of 
+ * whole jar. Every plugin line of index describes single plugin class: 
+ * {@code class|id|FEATURE:concurent,...|conflictId,...}. Index also lists 
+ * all top-level classes of module by {@code type|class} lines, so loader 
+ * may detect index which doesn't cover content of jar.
+ * @author Stanislav Nepochatov
+ */
+public final class PluginIndex {
+    
+    /**
+     * Location of index inside jar.
+     */
+    public static final String LOCATION = "META-INF/nebula/plugins.idx";
+    
+    /**
+     * Separator of index fields.
+     */
+    private static final String FIELD_SEPARATOR = "|";
+    
+    /**
+     * Separator of list values.
+     */
+    private static final String LIST_SEPARATOR = ",";
+    
+    /**
+     * Marker of top-level class line.
+     */
+    private static final String TYPE_MARKER = "type";
+    
+    /**
+     * Plugin entries.
+     */
+    private final List<Entry> entries;
+    
+    /**
+     * Names of all top-level classes of module.
+     */
+    private final Set<String> types;
+
+    /**
+     * Default constructor.
+     * @param entries plugin entries;
+     * @param types names of all top-level classes of module;
+     */
+    public PluginIndex(List<Entry> entries, Set<String> types) {
+        this.entries = entries;
+        this.types = types;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Set<String> getTypes() {
+        return types;
+    }
+    
+    /**
+     * Single plugin entry of index.
+     */
+    public static class Entry {
+        
+        /**
+         * Name of plugin class.
+         */
+        private final String className;
+        
+        /**
+         * Plugin id.
+         */
+        private final String id;
+        
+        /**
+         * Features in form {@code FEATURE:concurent}.
+         */
+        private final List<String> features;
+        
+        /**
+         * Ids of conflicting plugins.
+         */
+        private final List<String> conflicts;
+
+        public Entry(String className, String id, List<String> features, List<String> conflicts) {
+            this.className = className;
+            this.id = id;
+            this.features = features;
+            this.conflicts = conflicts;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public List<String> getFeatures() {
+            return features;
+        }
+
+        public List<String> getConflicts() {
+            return conflicts;
+        }
+    }
+    
+    /**
+     * Read index.
+     * @param stream index stream;
+     * @return index;
+     * @throws IOException on read error or broken index;
+     */
+    public static PluginIndex read(InputStream stream) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Set<String> types = new TreeSet<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\" + FIELD_SEPARATOR, -1);
+            if (fields.length == 2 && fields[0].equals(TYPE_MARKER)) {
+                types.add(fields[1]);
+                continue;
+            }
+            if (fields.length != 4) {
+                throw new IOException("Broken plugin index line: " + line);
+            }
+            entries.add(new Entry(fields[0], fields[1], splitList(fields[2]), splitList(fields[3])));
+        }
+        return new PluginIndex(entries, types);
+    }
+    
+    /**
+     * Write index.
+     * @param writer index writer;
+     * @throws IOException on write error;
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write("# Nebula plugin index\n");
+        for (String type: types) {
+            writer.write(TYPE_MARKER + FIELD_SEPARATOR + type + "\n");
+        }
+        for (Entry entry: entries) {
+            writer.write(entry.getClassName() + FIELD_SEPARATOR + entry.getId() + FIELD_SEPARATOR 
+                    + String.join(LIST_SEPARATOR, entry.getFeatures()) + FIELD_SEPARATOR 
+                    + String.join(LIST_SEPARATOR, entry.getConflicts()) + "\n");
+        }
+    }
+    
+    /**
+     * Split list field of index.
+     * @param field raw field;
+     * @return list of values;
+     */
+    private static List<String> splitList(String field) {
+        return field.isEmpty() ? Collections.emptyList() : Arrays.asList(field.split(LIST_SEPARATOR));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of Nebula API library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared scheduler of plugin timeouts. Callbacks are run on plugin executor, 
+ * timeouts of stopped plugin aren't fired. Scheduler has limited precision 
+ * (tens of milliseconds) but timeouts are cheap to create and cancel.
+ * @author Stanislav Nepochatov
+ */
+public interface PluginScheduler {
+    
+    /**
+     * Schedule single run of task.
+     * @param task task to run;
+     * @param delay delay before run;
+     * @param unit unit of delay;
+     * @return timeout handle;
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit);
+    
+    /**
+     * Schedule periodic run of task until cancel.
+     * @param task task to run;
+     * @param initialDelay delay before first run;
+     * @param period period between runs;
+     * @param unit unit of delay and period;
+     * @return timeout handle;
+     */
+    Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit);
+    
+    /**
+     * Handle of scheduled task.
+     */
+    interface Timeout {
+        
+        /**
+         * Cancel scheduled task.
+         * @return true if task was cancelled by this call;
+         */
+        boolean cancel();
+        
+        /**
+         * Check if task was cancelled.
+         * @return true if cancelled;
+         */
+        boolean isCancelled();
+        
+        /**
+         * Check if single run task was fired.
+         * @return true if fired;
+         */
+        boolean isExpired();
+    }
+}
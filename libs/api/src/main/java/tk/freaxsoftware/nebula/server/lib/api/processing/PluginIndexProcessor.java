@@ -0,0 +1,157 @@
+/*
+ * This file is part of Nebula API library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.api.processing;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaFeature;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPluginConflict;
+import tk.freaxsoftware.nebula.server.lib.api.PluginIndex;
+
+/**
+ * Annotation processor which generates plugin index of compiled module. 
+ * Registered as service, so any module compiled with Nebula API on 
+ * classpath gets index for its plugin classes. Processor runs for every 
+ * compilation and merges index of previous build, so incremental compilation 
+ * of few sources keeps plugins of untouched classes.
+ * @author Stanislav Nepochatov
+ */
+public class PluginIndexProcessor extends AbstractProcessor {
+    
+    /**
+     * Found plugins sorted by class name.
+     */
+    private final TreeMap<String, PluginIndex.Entry> entries = new TreeMap<>();
+    
+    /**
+     * Top-level classes compiled by current build.
+     */
+    private final Set<String> processed = new HashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element: roundEnv.getRootElements()) {
+            if (element instanceof TypeElement) {
+                processed.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+            }
+        }
+        for (Element element: roundEnv.getElementsAnnotatedWith(NebulaPlugin.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+            List<String> features = new ArrayList<>();
+            for (NebulaFeature feature: type.getAnnotationsByType(NebulaFeature.class)) {
+                features.add(feature.feature().name() + ":" + feature.concurent());
+            }
+            List<String> conflicts = new ArrayList<>();
+            for (NebulaPluginConflict conflict: type.getAnnotationsByType(NebulaPluginConflict.class)) {
+                conflicts.add(conflict.conflictId());
+            }
+            entries.put(className, new PluginIndex.Entry(className, type.getAnnotation(NebulaPlugin.class).id(), features, conflicts));
+        }
+        if (roundEnv.processingOver() && !processed.isEmpty()) {
+            writeIndex();
+        }
+        return false;
+    }
+    
+    /**
+     * Merge index of previous build: plugins and classes which weren't 
+     * compiled now but still exist stay in index.
+     * @param types set of top-level classes to fill;
+     */
+    private void mergePrevious(Set<String> types) {
+        PluginIndex previous;
+        try {
+            FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", PluginIndex.LOCATION);
+            try (InputStream stream = resource.openInputStream()) {
+                previous = PluginIndex.read(stream);
+            }
+        } catch (FileNotFoundException | NoSuchFileException ex) {
+            return;
+        } catch (IOException | IllegalArgumentException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Unable to read previous plugin index: " + ex.getMessage());
+            return;
+        }
+        Elements elements = processingEnv.getElementUtils();
+        for (String type: previous.getTypes()) {
+            if (!processed.contains(type) && elements.getTypeElement(type) != null) {
+                types.add(type);
+            }
+        }
+        for (PluginIndex.Entry entry: previous.getEntries()) {
+            String className = entry.getClassName();
+            int nested = className.indexOf('$');
+            String topLevel = nested < 0 ? className : className.substring(0, nested);
+            if (!processed.contains(topLevel) && !entries.containsKey(className) 
+                    && elements.getTypeElement(className.replace('$', '.')) != null) {
+                entries.put(className, entry);
+            }
+        }
+    }
+    
+    /**
+     * Write collected plugins to index resource.
+     */
+    private void writeIndex() {
+        Set<String> types = new TreeSet<>(processed);
+        mergePrevious(types);
+        try {
+            FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", PluginIndex.LOCATION);
+            try (Writer writer = resource.openWriter()) {
+                new PluginIndex(new ArrayList<>(entries.values()), types).write(writer);
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write plugin index: " + ex.getMessage());
+        }
+    }
+}
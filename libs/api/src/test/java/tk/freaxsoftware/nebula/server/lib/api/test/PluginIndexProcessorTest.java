@@ -0,0 +1,128 @@
+/*
+ * This file is part of Nebula API library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.api.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
+import tk.freaxsoftware.nebula.server.lib.api.PluginIndex;
+import tk.freaxsoftware.nebula.server.lib.api.processing.PluginIndexProcessor;
+import static org.junit.Assert.*;
+
+/**
+ * Plugin index processor test.
+ * @author Stanislav Nepochatov
+ */
+public class PluginIndexProcessorTest {
+    
+    private static final String PLUGIN = "package test;\n"
+            + "import tk.freaxsoftware.nebula.server.lib.api.*;\n"
+            + "@NebulaPlugin(id = \"%s\", name = \"Test\", type = PluginTypes.GENERIC, description = \"\", homepage = \"\", "
+            + "icon = \"\", versionCode = 1, versionName = \"1\")\n"
+            + "public class %s {}\n";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File sources;
+    
+    private File classes;
+    
+    @Before
+    public void setUp() throws IOException {
+        sources = folder.newFolder("src");
+        classes = folder.newFolder("classes");
+    }
+    
+    @Test
+    public void indexTest() throws Exception {
+        compile(source("First", String.format(PLUGIN, "first", "First")), 
+                source("Helper", "package test;\npublic class Helper { public static class Nested {} }\n"));
+        PluginIndex index = readIndex();
+        assertEquals(1, index.getEntries().size());
+        assertEquals("test.First", index.getEntries().get(0).getClassName());
+        assertEquals("first", index.getEntries().get(0).getId());
+        assertEquals(new ArrayList<>(Arrays.asList("test.First", "test.Helper")), new ArrayList<>(index.getTypes()));
+    }
+    
+    @Test
+    public void incrementalTest() throws Exception {
+        compile(source("First", String.format(PLUGIN, "first", "First")), 
+                source("Second", String.format(PLUGIN, "second", "Second")));
+        compile(source("Second", String.format(PLUGIN, "renamed", "Second")), 
+                source("Helper", "package test;\npublic class Helper {}\n"));
+        PluginIndex index = readIndex();
+        assertEquals(2, index.getEntries().size());
+        assertEquals("test.First", index.getEntries().get(0).getClassName());
+        assertEquals("renamed", index.getEntries().get(1).getId());
+        assertEquals(new ArrayList<>(Arrays.asList("test.First", "test.Helper", "test.Second")), new ArrayList<>(index.getTypes()));
+    }
+    
+    @Test
+    public void removedTest() throws Exception {
+        compile(source("First", String.format(PLUGIN, "first", "First")), 
+                source("Second", String.format(PLUGIN, "second", "Second")));
+        assertTrue(new File(classes, "test/Second.class").delete());
+        compile(source("First", String.format(PLUGIN, "first", "First")));
+        PluginIndex index = readIndex();
+        assertEquals(1, index.getEntries().size());
+        assertEquals(Collections.singleton("test.First"), index.getTypes());
+    }
+    
+    private File source(String name, String content) throws IOException {
+        File file = new File(sources, name + ".java");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+    
+    private void compile(File... files) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        String classpath = new File(NebulaPlugin.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath() 
+                + File.pathSeparator + classes.getPath();
+        try (StandardJavaFileManager manager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            Iterable<? extends JavaFileObject> units = manager.getJavaFileObjects(files);
+            List<String> options = Arrays.asList("-classpath", classpath, "-d", classes.getPath());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, manager, null, options, null, units);
+            task.setProcessors(Collections.singletonList(new PluginIndexProcessor()));
+            assertTrue(task.call());
+        }
+    }
+    
+    private PluginIndex readIndex() throws IOException {
+        try (InputStream stream = new FileInputStream(new File(classes, PluginIndex.LOCATION))) {
+            return PluginIndex.read(stream);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * This file is part of Nebula Server application.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.core.entities.codecs;
+
+import java.io.IOException;
+import java.util.List;
+import tk.freaxsoftware.nebula.server.core.entities.Group;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.EntityCodec;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordInput;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordOutput;
+
+/**
+ * Binary codec of group entity.
+ * @author Stanislav Nepochatov
+ */
+public class GroupCodec implements EntityCodec<Group> {
+
+    @Override
+    public void write(Group entity, RecordOutput out) throws IOException {
+        out.writeString(entity.getName());
+        out.writeString(entity.getDescription());
+        out.writeString(entity.getImageUrl());
+        out.writeStringList(entity.getUsers() != null ? entity.getUsers().getKeys() : null);
+        out.writeStringMap(entity.getAttrs());
+    }
+
+    @Override
+    public Group read(RecordInput in) throws IOException {
+        String name = in.readString();
+        String description = in.readString();
+        String imageUrl = in.readString();
+        List<String> users = in.readStringList();
+        return new Group(name, description, imageUrl, users.toArray(new String[users.size()]), in.readStringMap());
+    }
+    
+}
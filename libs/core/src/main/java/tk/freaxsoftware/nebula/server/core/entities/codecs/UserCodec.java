@@ -0,0 +1,64 @@
+/*
+ * This file is part of Nebula Server application.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.core.entities.codecs;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import tk.freaxsoftware.nebula.server.core.entities.User;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.EntityCodec;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordInput;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordOutput;
+
+/**
+ * Binary codec of user entity.
+ * @author Stanislav Nepochatov
+ */
+public class UserCodec implements EntityCodec<User> {
+
+    @Override
+    public void write(User entity, RecordOutput out) throws IOException {
+        out.writeString(entity.getLogin());
+        out.writeString(entity.getUsername());
+        out.writeString(entity.getDescription());
+        out.writeString(entity.getImageUrl());
+        out.writeString(entity.getEmail());
+        out.writeString(entity.getPassword());
+        out.writeNullableBoolean(entity.isActive());
+        out.writeDate(entity.getExpireDate());
+        out.writeStringList(entity.getGroups() != null ? entity.getGroups().getKeys() : null);
+        out.writeStringMap(entity.getAttrs());
+    }
+
+    @Override
+    public User read(RecordInput in) throws IOException {
+        String login = in.readString();
+        String username = in.readString();
+        String description = in.readString();
+        String imageUrl = in.readString();
+        String email = in.readString();
+        String password = in.readString();
+        Boolean active = in.readNullableBoolean();
+        Date expireDate = in.readDate();
+        List<String> groups = in.readStringList();
+        return new User(login, username, description, imageUrl, email, password, active, expireDate, 
+                groups.toArray(new String[groups.size()]), in.readStringMap());
+    }
+    
+}
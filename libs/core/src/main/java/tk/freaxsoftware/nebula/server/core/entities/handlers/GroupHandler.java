@@ -18,15 +18,23 @@
  */
 package tk.freaxsoftware.nebula.server.core.entities.handlers;
 
+import java.util.Collections;
 import java.util.List;
-import tk.freaxsoftware.extras.faststorage.storage.AbstractEntityHandler;
 import tk.freaxsoftware.nebula.server.core.entities.Group;
+import tk.freaxsoftware.nebula.server.lib.storage.IndexedEntityHandler;
+import tk.freaxsoftware.nebula.server.lib.storage.index.SearchIndex;
 
 /**
  * Group entity handler.
  * @author Stanislav Nepochatov
  */
-public class GroupHandler extends AbstractEntityHandler<Group, String> {
+public class GroupHandler extends IndexedEntityHandler<Group, String> {
+    
+    /**
+     * Search index by group name.
+     */
+    private final SearchIndex<Group> searchIndex = 
+            declareIndex(new SearchIndex<>(group -> Collections.singletonList(group.getName())));
 
     public GroupHandler(String filePath) {
         super(Group.class, Group.DEFINITION, filePath);
@@ -39,7 +47,18 @@ public class GroupHandler extends AbstractEntityHandler<Group, String> {
 
     @Override
     public List<Group> find(String query) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return find(query, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Find groups by part of name.
+     * @param query search string;
+     * @param limit max count of results;
+     * @return ranked list of groups;
+     */
+    public List<Group> find(String query, int limit) {
+        ensureIndexed();
+        return searchIndex.find(query, limit);
     }
 
     @Override
@@ -18,16 +18,31 @@
  */
 package tk.freaxsoftware.nebula.server.core.entities.handlers;
 
+import java.util.Arrays;
 import java.util.List;
-import tk.freaxsoftware.extras.faststorage.storage.AbstractEntityHandler;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import tk.freaxsoftware.nebula.server.core.entities.User;
 import tk.freaxsoftware.nebula.server.core.utils.SHAHash;
+import tk.freaxsoftware.nebula.server.lib.storage.IndexedEntityHandler;
+import tk.freaxsoftware.nebula.server.lib.storage.index.SearchIndex;
 
 /**
  * User entity handler.
  * @author Stanislav Nepochatov
  */
-public class UserHandler extends AbstractEntityHandler<User, String> {
+public class UserHandler extends IndexedEntityHandler<User, String> {
+    
+    /**
+     * Search index by login, name and email.
+     */
+    private final SearchIndex<User> searchIndex = 
+            declareIndex(new SearchIndex<>(user -> Arrays.asList(user.getLogin(), user.getUsername(), user.getEmail())));
+    
+    /**
+     * Listeners of saved or deleted users.
+     */
+    private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
 
     public UserHandler(String filePath) {
         super(User.class, User.DEFINITION, filePath);
@@ -40,7 +55,48 @@ public class UserHandler extends AbstractEntityHandler<User, String> {
 
     @Override
     public List<User> find(String query) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return find(query, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Find users by part of login, name or email.
+     * @param query search string;
+     * @param limit max count of results;
+     * @return ranked list of users;
+     */
+    public List<User> find(String query, int limit) {
+        ensureIndexed();
+        return searchIndex.find(query, limit);
+    }
+
+    @Override
+    public void save(User entity) {
+        super.save(entity);
+        notifyChanged(entity.getLogin());
+    }
+
+    @Override
+    public void delete(String key) {
+        super.delete(key);
+        notifyChanged(key);
+    }
+    
+    /**
+     * Add listener of saved or deleted users, including deactivation.
+     * @param listener consumer of user login;
+     */
+    public void addChangeListener(Consumer<String> listener) {
+        changeListeners.add(listener);
+    }
+    
+    /**
+     * Notify listeners about change of user.
+     * @param login user login;
+     */
+    private void notifyChanged(String login) {
+        for (Consumer<String> listener: changeListeners) {
+            listener.accept(login);
+        }
     }
 
     @Override
@@ -65,14 +121,7 @@ public class UserHandler extends AbstractEntityHandler<User, String> {
      * @return 
      */
     public User getUserByLogin(String login) {
-        synchronized(entitiesLock) {
-            for (User entity: entitiesStore) {
-                if (entity.getLogin().equals(login)) {
-                    return entity;
-                }
-            }
-        }
-        return null;
+        return getByKey(login);
     }
     
 }
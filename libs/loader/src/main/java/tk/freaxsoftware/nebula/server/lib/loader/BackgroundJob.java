@@ -0,0 +1,330 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.Objects;
+import tk.freaxsoftware.extras.faststorage.generic.ECSVAble;
+import tk.freaxsoftware.extras.faststorage.generic.ECSVDefinition;
+import static tk.freaxsoftware.extras.faststorage.generic.ECSVFields.*;
+import tk.freaxsoftware.extras.faststorage.reading.EntityReader;
+import tk.freaxsoftware.extras.faststorage.writing.EntityWriter;
+
+/**
+ * Stored background job of job queue.
+ * @author Stanislav Nepochatov
+ */
+public class BackgroundJob implements ECSVAble<String> {
+    
+    public final static String TYPE = "JOB";
+    
+    /**
+     * ECSV entity definition.
+     */
+    public static final ECSVDefinition DEFINITION = ECSVDefinition.createNew()
+            .addKey(String.class)
+            .addPrimitive(PR_WORD)
+            .addPrimitive(PR_WORD)
+            .addPrimitive(PR_WORD)
+            .addPrimitive(PR_INT)
+            .addPrimitive(PR_WORD)
+            .addPrimitive(PR_WORD)
+            .addPrimitive(PR_STRING)
+            .addPrimitive(PR_STRING)
+            .addPrimitive(PR_STRING);
+    
+    /**
+     * Job states.
+     */
+    public enum State {
+        
+        /**
+         * Job waits for free worker or for registration of its type.
+         */
+        QUEUED,
+        
+        /**
+         * Job is running or was interrupted by stop.
+         */
+        RUNNING,
+        
+        /**
+         * Job finished successfully.
+         */
+        DONE,
+        
+        /**
+         * Job finished with error.
+         */
+        FAILED,
+        
+        /**
+         * Job was cancelled.
+         */
+        CANCELLED;
+    }
+    
+    /**
+     * Id of job.
+     */
+    private String id;
+    
+    /**
+     * Type of job.
+     */
+    private String type;
+    
+    /**
+     * Id of plugin which submitted job.
+     */
+    private String pluginId;
+    
+    /**
+     * Current state.
+     */
+    private State state;
+    
+    /**
+     * Count of job runs.
+     */
+    private int attempts;
+    
+    /**
+     * Time of job submit.
+     */
+    private long created;
+    
+    /**
+     * Time of last state or checkpoint change.
+     */
+    private long updated;
+    
+    /**
+     * Job arguments.
+     */
+    private String payload;
+    
+    /**
+     * Last stored progress of job.
+     */
+    private String checkpoint;
+    
+    /**
+     * Error of failed job.
+     */
+    private String error;
+    
+    public BackgroundJob() {}
+
+    /**
+     * Default constructor for new job.
+     * @param id id of job;
+     * @param type type of job;
+     * @param pluginId id of plugin which submitted job;
+     * @param payload job arguments;
+     */
+    public BackgroundJob(String id, String type, String pluginId, String payload) {
+        this.id = id;
+        this.type = type;
+        this.pluginId = pluginId;
+        this.payload = payload;
+        this.state = State.QUEUED;
+        this.created = System.currentTimeMillis();
+        this.updated = created;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getPluginId() {
+        return pluginId;
+    }
+
+    public void setPluginId(String pluginId) {
+        this.pluginId = pluginId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(long updated) {
+        this.updated = updated;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public String getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(String checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+    
+    /**
+     * Check if job is finished and won't run again.
+     * @return true for done, failed or cancelled job;
+     */
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 41 * hash + Objects.hashCode(this.id);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final BackgroundJob other = (BackgroundJob) obj;
+        return Objects.equals(this.id, other.id);
+    }
+
+    @Override
+    public String toString() {
+        return "BackgroundJob{" + "id=" + id + ", type=" + type + ", pluginId=" + pluginId + ", state=" + state + ", attempts=" + attempts + '}';
+    }
+
+    @Override
+    public String getKey() {
+        return id;
+    }
+
+    @Override
+    public void setKey(String key) {
+        this.id = key;
+    }
+
+    @Override
+    public ECSVDefinition getDefinition() {
+        return DEFINITION;
+    }
+
+    @Override
+    public void readFromECSV(EntityReader<String> reader) {
+        this.id = reader.readKey();
+        this.type = reader.readWord();
+        this.pluginId = reader.readWord();
+        this.state = State.valueOf(reader.readWord());
+        this.attempts = reader.readInteger();
+        this.created = Long.parseLong(reader.readWord());
+        this.updated = Long.parseLong(reader.readWord());
+        this.payload = emptyToNull(reader.readString());
+        this.checkpoint = emptyToNull(reader.readString());
+        this.error = emptyToNull(reader.readString());
+    }
+
+    @Override
+    public void writeToECSV(EntityWriter<String> writer) {
+        writer.writeKey(id);
+        writer.writeWord(type);
+        writer.writeWord(pluginId);
+        writer.writeWord(state.name());
+        writer.writeInteger(attempts);
+        writer.writeWord(String.valueOf(created));
+        writer.writeWord(String.valueOf(updated));
+        writer.writeString(payload != null ? payload : "");
+        writer.writeString(checkpoint != null ? checkpoint : "");
+        writer.writeString(error != null ? error : "");
+    }
+    
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public void update(ECSVAble<String> updatedEntity) {
+        if (updatedEntity instanceof BackgroundJob) {
+            BackgroundJob other = (BackgroundJob) updatedEntity;
+            this.type = other.type;
+            this.pluginId = other.pluginId;
+            this.state = other.state;
+            this.attempts = other.attempts;
+            this.created = other.created;
+            this.updated = other.updated;
+            this.payload = other.payload;
+            this.checkpoint = other.checkpoint;
+            this.error = other.error;
+        }
+    }
+
+    @Override
+    public String getEntityType() {
+        return TYPE;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reader of class annotations straight from class file bytes. Used during 
+ * plugin discovery to find candidate classes without loading every class 
+ * of jar. Only class-level runtime visible annotations are read.
+ * @author Stanislav Nepochatov
+ */
+public final class ClassFileScanner {
+    
+    private static final int MAGIC = 0xCAFEBABE;
+    
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+    
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    
+    private ClassFileScanner() {}
+    
+    /**
+     * Class name with its class-level annotations.
+     */
+    public static class AnnotatedClass {
+        
+        /**
+         * Binary name of class.
+         */
+        private final String className;
+        
+        /**
+         * Binary names of annotation types.
+         */
+        private final Set<String> annotations;
+
+        public AnnotatedClass(String className, Set<String> annotations) {
+            this.className = className;
+            this.annotations = annotations;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public Set<String> getAnnotations() {
+            return annotations;
+        }
+        
+        /**
+         * Check if class marked by annotation.
+         * @param annotationClass annotation type;
+         * @return true if annotation present;
+         */
+        public boolean isAnnotatedWith(Class annotationClass) {
+            return annotations.contains(annotationClass.getName());
+        }
+    }
+    
+    /**
+     * Read class file and extract its annotations.
+     * @param stream class file stream;
+     * @return annotated class description;
+     * @throws IOException on read error or broken class file;
+     */
+    public static AnnotatedClass read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        int poolSize = in.readUnsignedShort();
+        String[] utf8 = new String[poolSize];
+        int[] classNames = new int[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skipFully(in, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skipFully(in, 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skipFully(in, 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skipFully(in, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        in.readUnsignedShort();
+        String className = utf8[classNames[in.readUnsignedShort()]].replace('/', '.');
+        in.readUnsignedShort();
+        skipFully(in, in.readUnsignedShort() * 2);
+        skipMembers(in);
+        skipMembers(in);
+        Set<String> annotations = new HashSet<>();
+        int attributesCount = in.readUnsignedShort();
+        for (int i = 0; i < attributesCount; i++) {
+            String name = utf8[in.readUnsignedShort()];
+            int length = in.readInt();
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                int count = in.readUnsignedShort();
+                for (int j = 0; j < count; j++) {
+                    String descriptor = utf8[in.readUnsignedShort()];
+                    annotations.add(descriptor.substring(1, descriptor.length() - 1).replace('/', '.'));
+                    skipElementValuePairs(in);
+                }
+            } else {
+                skipFully(in, length);
+            }
+        }
+        return new AnnotatedClass(className, annotations.isEmpty() ? Collections.emptySet() : annotations);
+    }
+    
+    /**
+     * Skip fields or methods table.
+     * @param in class file stream;
+     * @throws IOException on read error;
+     */
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            skipFully(in, 6);
+            int attributesCount = in.readUnsignedShort();
+            for (int j = 0; j < attributesCount; j++) {
+                skipFully(in, 2);
+                skipFully(in, in.readInt());
+            }
+        }
+    }
+    
+    /**
+     * Skip element-value pairs of single annotation.
+     * @param in class file stream;
+     * @throws IOException on read error;
+     */
+    private static void skipElementValuePairs(DataInputStream in) throws IOException {
+        int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            skipFully(in, 2);
+            skipElementValue(in);
+        }
+    }
+    
+    /**
+     * Skip single annotation element value.
+     * @param in class file stream;
+     * @throws IOException on read error;
+     */
+    private static void skipElementValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                skipFully(in, 4);
+                break;
+            case '@':
+                skipFully(in, 2);
+                skipElementValuePairs(in);
+                break;
+            case '[':
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue(in);
+                }
+                break;
+            default:
+                skipFully(in, 2);
+        }
+    }
+    
+    /**
+     * Skip exact count of bytes.
+     * @param in class file stream;
+     * @param length count of bytes;
+     * @throws IOException if stream ended;
+     */
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
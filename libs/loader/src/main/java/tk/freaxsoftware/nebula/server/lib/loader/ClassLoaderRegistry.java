@@ -0,0 +1,236 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owner of plugin jar class loaders. Every plugin jar has single class loader 
+ * which is closed on release. Released loaders are tracked weakly until 
+ * they are collected, so leaked loaders could be spotted.
+ * @author Stanislav Nepochatov
+ */
+public class ClassLoaderRegistry {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassLoaderRegistry.class);
+    
+    /**
+     * Live class loaders by jar file name.
+     */
+    private final Map<String, URLClassLoader> loaders = new ConcurrentHashMap<>();
+    
+    /**
+     * Released loaders which aren't collected yet.
+     */
+    private final Set<ReleasedLoader> released = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Queue of collected released loaders.
+     */
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+    
+    /**
+     * Weak reference to released loader.
+     */
+    private static class ReleasedLoader extends WeakReference<ClassLoader> {
+        
+        /**
+         * Name of jar file.
+         */
+        private final String fileName;
+
+        ReleasedLoader(ClassLoader loader, String fileName, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.fileName = fileName;
+        }
+    }
+    
+    /**
+     * Snapshot of class loaders state.
+     */
+    public static class Report {
+        
+        /**
+         * Jar names of live loaders.
+         */
+        private final List<String> liveLoaders;
+        
+        /**
+         * Jar names of released loaders which aren't collected yet.
+         */
+        private final List<String> pendingLoaders;
+        
+        /**
+         * Used metaspace in bytes, -1 if unknown.
+         */
+        private final long metaspaceUsed;
+        
+        /**
+         * Count of currently loaded classes in JVM.
+         */
+        private final int loadedClasses;
+        
+        /**
+         * Count of unloaded classes since JVM start.
+         */
+        private final long unloadedClasses;
+
+        public Report(List<String> liveLoaders, List<String> pendingLoaders, long metaspaceUsed, int loadedClasses, long unloadedClasses) {
+            this.liveLoaders = liveLoaders;
+            this.pendingLoaders = pendingLoaders;
+            this.metaspaceUsed = metaspaceUsed;
+            this.loadedClasses = loadedClasses;
+            this.unloadedClasses = unloadedClasses;
+        }
+
+        public List<String> getLiveLoaders() {
+            return liveLoaders;
+        }
+
+        public List<String> getPendingLoaders() {
+            return pendingLoaders;
+        }
+
+        public long getMetaspaceUsed() {
+            return metaspaceUsed;
+        }
+
+        public int getLoadedClasses() {
+            return loadedClasses;
+        }
+
+        public long getUnloadedClasses() {
+            return unloadedClasses;
+        }
+
+        @Override
+        public String toString() {
+            return "Plugin class loaders: live=" + liveLoaders.size() + " " + liveLoaders 
+                    + ", released but not collected=" + pendingLoaders.size() + " " + pendingLoaders 
+                    + ", metaspace used=" + (metaspaceUsed >= 0 ? (metaspaceUsed / 1024) + "K" : "unknown") 
+                    + ", loaded classes=" + loadedClasses + ", unloaded classes=" + unloadedClasses;
+        }
+    }
+    
+    /**
+     * Register class loader of jar. Previous loader of same jar is released.
+     * @param fileName name of jar file;
+     * @param loader class loader of jar;
+     */
+    public void register(String fileName, URLClassLoader loader) {
+        URLClassLoader previous = loaders.put(fileName, loader);
+        if (previous != null && previous != loader) {
+            close(fileName, previous);
+        }
+    }
+    
+    /**
+     * Get live class loader of jar.
+     * @param fileName name of jar file;
+     * @return class loader or null;
+     */
+    public URLClassLoader get(String fileName) {
+        return loaders.get(fileName);
+    }
+    
+    /**
+     * Release and close class loader of jar.
+     * @param fileName name of jar file;
+     */
+    public void release(String fileName) {
+        URLClassLoader previous = loaders.remove(fileName);
+        if (previous != null) {
+            close(fileName, previous);
+        }
+    }
+    
+    /**
+     * Close class loader which wasn't registered, like loader of jar without plugins.
+     * @param fileName name of jar file;
+     * @param loader class loader;
+     */
+    public void discard(String fileName, URLClassLoader loader) {
+        if (loader != null && loaders.get(fileName) != loader) {
+            close(fileName, loader);
+        }
+    }
+    
+    /**
+     * Build report of class loaders state.
+     * @return report;
+     */
+    public Report report() {
+        expunge();
+        List<String> pending = new ArrayList<>();
+        for (ReleasedLoader loader: released) {
+            pending.add(loader.fileName);
+        }
+        Collections.sort(pending);
+        long metaspace = -1;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                metaspace = pool.getUsage().getUsed();
+            }
+        }
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        return new Report(new ArrayList<>(new TreeSet<>(loaders.keySet())), pending, metaspace, 
+                classLoading.getLoadedClassCount(), classLoading.getUnloadedClassCount());
+    }
+    
+    /**
+     * Close loader and track it until collection.
+     * @param fileName name of jar file;
+     * @param loader class loader;
+     */
+    private void close(String fileName, URLClassLoader loader) {
+        expunge();
+        try {
+            loader.close();
+        } catch (IOException ex) {
+            LOGGER.error("Unable to close class loader of " + fileName, ex);
+        }
+        released.add(new ReleasedLoader(loader, fileName, collected));
+    }
+    
+    /**
+     * Forget released loaders which were collected.
+     */
+    private void expunge() {
+        Reference<? extends ClassLoader> reference;
+        while ((reference = collected.poll()) != null) {
+            released.remove(reference);
+        }
+    }
+}
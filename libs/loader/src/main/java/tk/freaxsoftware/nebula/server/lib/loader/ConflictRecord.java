@@ -34,6 +34,11 @@ public class ConflictRecord implements ECSVAble<String> {
     
     public final static String TYPE = "CONFLICT";
     
+    /**
+     * Separator of plugin id and conflict id in record key.
+     */
+    public final static String KEY_SEPARATOR = "|";
+    
     /**
      * ECSV entity definition.
      */
@@ -125,14 +130,28 @@ public class ConflictRecord implements ECSVAble<String> {
         return "ConflictRecord{" + "pluginId=" + pluginId + ", conflictId=" + conflictId + '}';
     }
 
+    /**
+     * Get record key. Key combines both ids so plugin may declare many conflicts.
+     * @return key of record;
+     */
     @Override
     public String getKey() {
-        return pluginId;
+        return pluginId + KEY_SEPARATOR + conflictId;
     }
 
+    /**
+     * Set ids from record key. Keys of old storage contain only plugin id.
+     * @param key key of record;
+     */
     @Override
     public void setKey(String key) {
-        //Do nothing...
+        int separator = key.indexOf(KEY_SEPARATOR);
+        if (separator >= 0) {
+            this.pluginId = key.substring(0, separator);
+            this.conflictId = key.substring(separator + KEY_SEPARATOR.length());
+        } else {
+            this.pluginId = key;
+        }
     }
 
     @Override
@@ -142,21 +161,22 @@ public class ConflictRecord implements ECSVAble<String> {
 
     @Override
     public void readFromECSV(EntityReader<String> reader) {
-        this.pluginId = reader.readKey();
+        setKey(reader.readKey());
         this.conflictId = reader.readWord();
         this.conflictDescription = reader.readString();
     }
 
     @Override
     public void writeToECSV(EntityWriter<String> writer) {
-        writer.writeKey(pluginId);
+        writer.writeKey(getKey());
         writer.writeWord(conflictId);
         writer.writeString(conflictDescription);
     }
 
     @Override
     public void update(ECSVAble<String> updatedEntity) {
-        //Do nothing...
+        ConflictRecord updatedRecord = (ConflictRecord) updatedEntity;
+        this.conflictDescription = updatedRecord.getConflictDescription();
     }
 
     @Override
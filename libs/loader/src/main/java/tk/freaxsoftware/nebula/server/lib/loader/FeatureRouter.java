@@ -0,0 +1,423 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.extras.bus.Receiver;
+import tk.freaxsoftware.nebula.server.lib.api.Features;
+
+/**
+ * Router of calls across started providers of features. Spreads calls 
+ * by routing strategy of feature. Failed idempotent call is tried on next 
+ * provider, other calls are tried again only if provider rejected them 
+ * before processing. Providers with several errors in a row are tried 
+ * last during penalty period. Messages bound to feature are delivered 
+ * by router to single provider instead of all subscribers.
+ * @author Stanislav Nepochatov
+ */
+public class FeatureRouter {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(FeatureRouter.class);
+    
+    /**
+     * Count of errors in a row which puts provider on penalty.
+     */
+    private static final int FAILURE_THRESHOLD = 3;
+    
+    /**
+     * Penalty period of failing provider in milliseconds.
+     */
+    private static final long PENALTY_PERIOD = 30000;
+    
+    /**
+     * Routing strategies.
+     */
+    public enum Strategy {
+        
+        /**
+         * Providers take calls in turn.
+         */
+        ROUND_ROBIN,
+        
+        /**
+         * Provider with less calls in progress and lower latency takes call.
+         */
+        LEAST_OUTSTANDING,
+        
+        /**
+         * First started provider takes all calls while it's healthy.
+         */
+        FAILOVER;
+    }
+    
+    /**
+     * Call to feature provider.
+     * @param <T> type of call result;
+     */
+    @FunctionalInterface
+    public interface ProviderCall<T> {
+        
+        /**
+         * Perform call on provider.
+         * @param provider feature provider;
+         * @return call result;
+         * @throws Exception on provider error;
+         */
+        T call(Provider provider) throws Exception;
+    }
+    
+    /**
+     * Started providers by features, lists replaced on change.
+     */
+    private final Map<Features, List<Provider>> providers = new EnumMap<>(Features.class);
+    
+    /**
+     * Routing strategies by features.
+     */
+    private final Map<Features, Strategy> strategies = new EnumMap<>(Features.class);
+    
+    /**
+     * Round robin positions by features.
+     */
+    private final Map<Features, AtomicInteger> cursors = new EnumMap<>(Features.class);
+    
+    /**
+     * Features by bound message ids.
+     */
+    private final Map<String, Features> messages = new ConcurrentHashMap<>();
+
+    /**
+     * Default constructor.
+     */
+    public FeatureRouter() {
+        for (Features feature: Features.values()) {
+            providers.put(feature, Collections.emptyList());
+            strategies.put(feature, Strategy.ROUND_ROBIN);
+            cursors.put(feature, new AtomicInteger());
+        }
+    }
+    
+    /**
+     * Set routing strategy of feature.
+     * @param feature feature to route;
+     * @param strategy routing strategy;
+     */
+    public synchronized void setStrategy(Features feature, Strategy strategy) {
+        strategies.put(feature, strategy);
+    }
+    
+    /**
+     * Get routing strategy of feature.
+     * @param feature feature to route;
+     * @return routing strategy;
+     */
+    public synchronized Strategy getStrategy(Features feature) {
+        return strategies.get(feature);
+    }
+    
+    /**
+     * Bind message to feature, so message is delivered to single provider of feature.
+     * @param messageId id of message;
+     * @param feature feature which providers receive message;
+     */
+    public void bindMessage(String messageId, Features feature) {
+        messages.put(messageId, feature);
+    }
+    
+    /**
+     * Get feature bound to message.
+     * @param messageId id of message;
+     * @return feature or null if message isn't routed;
+     */
+    public Features getBoundFeature(String messageId) {
+        return messages.get(messageId);
+    }
+    
+    /**
+     * Add started plugin as provider of its features. Provider of non-concurent 
+     * feature is added only if feature has no other providers.
+     * @param record plugin record with instance;
+     * @param endpoint message endpoint of plugin;
+     */
+    public synchronized void addProviders(PluginRecord record, Receiver endpoint) {
+        if (record.getFeatures() == null || record.getInstance() == null) {
+            return;
+        }
+        for (Map.Entry<Features, Boolean> entry: record.getFeatures().entrySet()) {
+            List<Provider> current = providers.get(entry.getKey());
+            boolean present = false;
+            boolean exclusive = !entry.getValue();
+            for (Provider provider: current) {
+                present |= provider.getPluginId().equals(record.getId());
+                exclusive |= !provider.isConcurent();
+            }
+            if (present) {
+                continue;
+            }
+            if (!current.isEmpty() && exclusive) {
+                LOGGER.warn("Plugin " + record.getId() + " not routed for non-concurent feature " + entry.getKey());
+                continue;
+            }
+            List<Provider> updated = new ArrayList<>(current);
+            updated.add(new Provider(record.getId(), endpoint, entry.getValue()));
+            providers.put(entry.getKey(), Collections.unmodifiableList(updated));
+        }
+    }
+    
+    /**
+     * Remove plugin from providers of all features. Calls in progress 
+     * aren't affected and still counted by removed providers.
+     * @param pluginId id of plugin;
+     * @return removed providers;
+     */
+    public synchronized List<Provider> removeProviders(String pluginId) {
+        List<Provider> removed = new ArrayList<>();
+        for (Map.Entry<Features, List<Provider>> entry: providers.entrySet()) {
+            List<Provider> updated = new ArrayList<>(entry.getValue());
+            if (updated.removeIf(provider -> provider.getPluginId().equals(pluginId) && removed.add(provider))) {
+                entry.setValue(Collections.unmodifiableList(updated));
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Get providers of feature with their counters.
+     * @param feature feature to route;
+     * @return list of providers in order of addition;
+     */
+    public synchronized List<Provider> getProviders(Features feature) {
+        return providers.get(feature);
+    }
+    
+    /**
+     * Send message to provider of feature.
+     * @param feature feature to route;
+     * @param messageId id of message;
+     * @param arguments message arguments;
+     * @param idempotent message is safe to process again by other provider;
+     * @return result of message;
+     * @throws Exception error of last tried provider;
+     */
+    public Map<String, Object> send(Features feature, String messageId, Map<String, Object> arguments, 
+            boolean idempotent) throws Exception {
+        return call(feature, idempotent, provider -> {
+            Map<String, Object> result = new HashMap<>();
+            provider.getEndpoint().receive(messageId, arguments, result);
+            return result;
+        });
+    }
+    
+    /**
+     * Perform call on provider of feature. Failed idempotent call is tried 
+     * on other providers. Other calls are tried on other providers only if 
+     * provider rejected call before processing.
+     * @param <T> type of call result;
+     * @param feature feature to route;
+     * @param idempotent call is safe to repeat on other provider;
+     * @param call call to perform;
+     * @return result of first successful call;
+     * @throws Exception error of last tried provider;
+     */
+    public <T> T call(Features feature, boolean idempotent, ProviderCall<T> call) throws Exception {
+        List<Provider> candidates = order(feature);
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("No started provider for feature " + feature);
+        }
+        Exception lastError = null;
+        for (Provider provider: candidates) {
+            provider.outstanding.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                T result = call.call(provider);
+                provider.success(System.nanoTime() - start);
+                return result;
+            } catch (Exception ex) {
+                provider.failure(System.nanoTime() - start);
+                LOGGER.warn("Provider " + provider.getPluginId() + " of feature " + feature + " failed", ex);
+                lastError = ex;
+                if (!idempotent && !(ex instanceof RejectedExecutionException)) {
+                    break;
+                }
+            } finally {
+                provider.outstanding.decrementAndGet();
+            }
+        }
+        throw lastError;
+    }
+    
+    /**
+     * Order providers of feature for call by its strategy, penalized providers go last.
+     * @param feature feature to route;
+     * @return ordered providers;
+     */
+    private List<Provider> order(Features feature) {
+        List<Provider> current;
+        Strategy strategy;
+        synchronized (this) {
+            current = providers.get(feature);
+            strategy = strategies.get(feature);
+        }
+        List<Provider> ordered = new ArrayList<>(current.size());
+        switch (strategy) {
+            case ROUND_ROBIN:
+                if (!current.isEmpty()) {
+                    int offset = Math.floorMod(cursors.get(feature).getAndIncrement(), current.size());
+                    ordered.addAll(current.subList(offset, current.size()));
+                    ordered.addAll(current.subList(0, offset));
+                }
+                break;
+            case LEAST_OUTSTANDING:
+                ordered.addAll(current);
+                ordered.sort(Comparator.comparingInt(Provider::getOutstanding).thenComparingLong(Provider::getAverageLatency));
+                break;
+            case FAILOVER:
+                ordered.addAll(current);
+                break;
+        }
+        long now = System.currentTimeMillis();
+        List<Provider> penalized = new ArrayList<>();
+        ordered.removeIf(provider -> provider.isPenalized(now) && penalized.add(provider));
+        ordered.addAll(penalized);
+        return ordered;
+    }
+    
+    /**
+     * Started provider of feature with call counters.
+     */
+    public static class Provider {
+        
+        /**
+         * Id of provider plugin.
+         */
+        private final String pluginId;
+        
+        /**
+         * Message endpoint of plugin.
+         */
+        private final Receiver endpoint;
+        
+        /**
+         * Provider allows other providers of feature.
+         */
+        private final boolean concurent;
+        
+        /**
+         * Calls in progress.
+         */
+        private final AtomicInteger outstanding = new AtomicInteger();
+        
+        /**
+         * Count of finished calls.
+         */
+        private final AtomicLong calls = new AtomicLong();
+        
+        /**
+         * Count of failed calls.
+         */
+        private final AtomicLong errors = new AtomicLong();
+        
+        /**
+         * Count of failed calls in a row.
+         */
+        private final AtomicInteger errorsInRow = new AtomicInteger();
+        
+        /**
+         * Moving average of call latency in nanoseconds.
+         */
+        private volatile long averageLatency;
+        
+        /**
+         * Time of last failed call.
+         */
+        private volatile long lastFailure;
+
+        Provider(String pluginId, Receiver endpoint, boolean concurent) {
+            this.pluginId = pluginId;
+            this.endpoint = endpoint;
+            this.concurent = concurent;
+        }
+        
+        private void success(long latency) {
+            errorsInRow.set(0);
+            finish(latency);
+        }
+        
+        private void failure(long latency) {
+            errors.incrementAndGet();
+            errorsInRow.incrementAndGet();
+            lastFailure = System.currentTimeMillis();
+            finish(latency);
+        }
+        
+        private void finish(long latency) {
+            long previous = averageLatency;
+            averageLatency = calls.getAndIncrement() == 0 ? latency : previous + (latency - previous) / 8;
+        }
+        
+        /**
+         * Check if provider failed several calls in a row recently.
+         * @param now current time;
+         * @return true if provider should be tried last;
+         */
+        public boolean isPenalized(long now) {
+            return errorsInRow.get() >= FAILURE_THRESHOLD && now - lastFailure < PENALTY_PERIOD;
+        }
+
+        public String getPluginId() {
+            return pluginId;
+        }
+
+        public Receiver getEndpoint() {
+            return endpoint;
+        }
+
+        public boolean isConcurent() {
+            return concurent;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getAverageLatency() {
+            return averageLatency;
+        }
+    }
+}
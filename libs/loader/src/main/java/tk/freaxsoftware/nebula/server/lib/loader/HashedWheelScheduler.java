@@ -0,0 +1,401 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.nebula.server.lib.api.PluginScheduler;
+
+/**
+ * Hashed timing wheel shared by all plugins. Timeouts are placed into wheel 
+ * buckets by deadline, single worker thread moves over one bucket per tick 
+ * and passes expired tasks to executors of their owners. Schedule and cancel 
+ * only enqueue timeout for worker, so both are constant time.
+ * @author Stanislav Nepochatov
+ */
+public class HashedWheelScheduler {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedWheelScheduler.class);
+    
+    /**
+     * Duration of single tick in nanoseconds.
+     */
+    private final long tickDuration;
+    
+    /**
+     * Wheel buckets, count is power of two.
+     */
+    private final Bucket[] wheel;
+    
+    /**
+     * Mask of bucket index.
+     */
+    private final int mask;
+    
+    /**
+     * New and periodic timeouts waiting for placement into wheel.
+     */
+    private final Queue<Node> pending = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Cancelled timeouts waiting for removal from wheel.
+     */
+    private final Queue<Node> cancelled = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Count of scheduled timeouts.
+     */
+    private final AtomicLong scheduled = new AtomicLong();
+    
+    /**
+     * Start time of worker in nanoseconds, deadlines are relative to it.
+     */
+    private final long startTime;
+    
+    /**
+     * Worker thread.
+     */
+    private final Thread worker;
+    
+    /**
+     * Worker should run.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Default constructor, worker started at once.
+     * @param tickDuration duration of tick in milliseconds;
+     * @param ticksPerWheel count of wheel buckets, rounded up to power of two;
+     */
+    public HashedWheelScheduler(long tickDuration, int ticksPerWheel) {
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(ticksPerWheel, 1) * 2 - 1);
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        startTime = System.nanoTime();
+        worker = new Thread(this::work, "nebula-timing-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    /**
+     * Create scheduler which runs tasks on given executor.
+     * @param owner name of owner for logging;
+     * @param executor executor of tasks;
+     * @return bound scheduler;
+     */
+    public Bound bind(String owner, Executor executor) {
+        return new Bound(owner, executor);
+    }
+    
+    /**
+     * Stop worker thread, pending timeouts are not fired.
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+    
+    /**
+     * Get count of scheduled timeouts which are not fired or cancelled yet.
+     * @return count of timeouts;
+     */
+    public long getScheduled() {
+        return scheduled.get();
+    }
+    
+    /**
+     * Add new timeout.
+     * @return timeout handle;
+     */
+    private Node add(Bound owner, Runnable task, long delay, long period, TimeUnit unit) {
+        if (!running) {
+            throw new RejectedExecutionException("Scheduler is stopped");
+        }
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+        Node node = new Node(owner, task, deadline, unit.toNanos(period));
+        scheduled.incrementAndGet();
+        pending.add(node);
+        return node;
+    }
+    
+    /**
+     * Worker loop.
+     */
+    private void work() {
+        long tick = 0;
+        while (running) {
+            long tickDeadline = tickDuration * (tick + 1);
+            long sleep = tickDeadline - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException ex) {
+                    if (!running) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            removeCancelled();
+            placePending(tick);
+            wheel[(int) (tick & mask)].expire(tickDeadline);
+            tick++;
+        }
+    }
+    
+    /**
+     * Remove cancelled timeouts from their buckets.
+     */
+    private void removeCancelled() {
+        Node node;
+        while ((node = cancelled.poll()) != null) {
+            if (node.bucket != null) {
+                node.bucket.remove(node);
+            }
+        }
+    }
+    
+    /**
+     * Place pending timeouts into buckets by deadline.
+     * @param tick current tick;
+     */
+    private void placePending(long tick) {
+        Node node;
+        while ((node = pending.poll()) != null) {
+            if (node.state.get() == Node.CANCELLED) {
+                continue;
+            }
+            long calculated = node.deadline / tickDuration;
+            node.remainingRounds = Math.max(calculated - tick, 0) / wheel.length;
+            wheel[(int) (Math.max(calculated, tick) & mask)].add(node);
+        }
+    }
+    
+    /**
+     * Scheduler bound to executor of single owner.
+     */
+    public class Bound implements PluginScheduler {
+        
+        /**
+         * Name of owner.
+         */
+        private final String owner;
+        
+        /**
+         * Executor of tasks.
+         */
+        private final Executor executor;
+        
+        /**
+         * Owner is stopped, its timeouts are dropped.
+         */
+        private volatile boolean closed;
+
+        Bound(String owner, Executor executor) {
+            this.owner = owner;
+            this.executor = executor;
+        }
+
+        @Override
+        public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+            return add(this, task, delay, 0, unit);
+        }
+
+        @Override
+        public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+            if (period <= 0) {
+                throw new IllegalArgumentException("Period should be positive");
+            }
+            return add(this, task, initialDelay, period, unit);
+        }
+        
+        /**
+         * Drop all timeouts of owner, they are removed from wheel on their deadlines.
+         */
+        public void close() {
+            closed = true;
+        }
+    }
+    
+    /**
+     * Bucket of wheel, doubly linked list of timeouts. Accessed only by worker.
+     */
+    private class Bucket {
+        
+        private Node head;
+        
+        private Node tail;
+        
+        private void add(Node node) {
+            node.bucket = this;
+            if (head == null) {
+                head = tail = node;
+            } else {
+                tail.next = node;
+                node.prev = tail;
+                tail = node;
+            }
+        }
+        
+        private Node remove(Node node) {
+            Node next = node.next;
+            if (node.prev != null) {
+                node.prev.next = next;
+            } else {
+                head = next;
+            }
+            if (next != null) {
+                next.prev = node.prev;
+            } else {
+                tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.bucket = null;
+            return next;
+        }
+        
+        /**
+         * Fire timeouts of bucket which deadline passed. Rounds are counted 
+         * down only for timeouts which have full turns left, so timeout of 
+         * last round waits for its deadline without going below zero.
+         * @param tickDeadline deadline of current tick;
+         */
+        private void expire(long tickDeadline) {
+            Node node = head;
+            while (node != null) {
+                if (node.remainingRounds > 0) {
+                    node.remainingRounds--;
+                    node = node.next;
+                } else if (node.deadline <= tickDeadline) {
+                    Node next = remove(node);
+                    node.fire();
+                    node = next;
+                } else {
+                    node = node.next;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Single timeout of wheel.
+     */
+    private class Node implements PluginScheduler.Timeout {
+        
+        private static final int WAITING = 0;
+        
+        private static final int CANCELLED = 1;
+        
+        private static final int EXPIRED = 2;
+        
+        private final Bound owner;
+        
+        private final Runnable task;
+        
+        /**
+         * Period of periodic timeout in nanoseconds, zero for single run.
+         */
+        private final long period;
+        
+        /**
+         * Deadline relative to start time of wheel in nanoseconds.
+         */
+        private long deadline;
+        
+        /**
+         * Full wheel turns left before deadline.
+         */
+        private long remainingRounds;
+        
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        
+        private Bucket bucket;
+        
+        private Node prev;
+        
+        private Node next;
+
+        Node(Bound owner, Runnable task, long deadline, long period) {
+            this.owner = owner;
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+        
+        /**
+         * Pass task to owner executor, periodic timeout placed again.
+         */
+        private void fire() {
+            if (owner.closed) {
+                if (state.compareAndSet(WAITING, CANCELLED)) {
+                    scheduled.decrementAndGet();
+                }
+                return;
+            }
+            if (period > 0) {
+                if (state.get() != WAITING) {
+                    return;
+                }
+                deadline += period;
+                pending.add(this);
+            } else if (!state.compareAndSet(WAITING, EXPIRED)) {
+                return;
+            } else {
+                scheduled.decrementAndGet();
+            }
+            try {
+                owner.executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                LOGGER.warn("Timeout of " + owner.owner + " rejected by executor");
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) {
+                return false;
+            }
+            scheduled.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+}
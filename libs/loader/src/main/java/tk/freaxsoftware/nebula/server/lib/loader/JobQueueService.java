@@ -0,0 +1,470 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.nebula.server.lib.api.JobQueue;
+import tk.freaxsoftware.nebula.server.lib.loader.storage.BackgroundJobHandler;
+
+/**
+ * Persistent queue of background jobs. Jobs stored by {@link BackgroundJobHandler} 
+ * with batched writes, but submitted jobs and checkpoints are written to disk 
+ * before return. Stored jobs are never changed, every change saves new copy 
+ * of job. Every job type runs on its own worker pool. Jobs left 
+ * queued or running on stop are resumed when their type is registered again. 
+ * Job which was running on crash of process counts failed attempt, such job 
+ * fails after max count of attempts instead of being resumed forever.
+ * @author Stanislav Nepochatov
+ */
+public class JobQueueService {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobQueueService.class);
+    
+    /**
+     * Time of waiting for running jobs on type unregister in milliseconds.
+     */
+    private static final long STOP_TIMEOUT = 1000;
+    
+    /**
+     * Default max count of job runs.
+     */
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    
+    /**
+     * Count of locks of job state changes.
+     */
+    private static final int LOCK_STRIPES = 64;
+    
+    /**
+     * Storage of jobs.
+     */
+    private final BackgroundJobHandler jobHandler;
+    
+    /**
+     * Workers of registered job types.
+     */
+    private final Map<String, TypeWorkers> types = new ConcurrentHashMap<>();
+    
+    /**
+     * Ids of jobs running in this process.
+     */
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Ids of running jobs with cancel request.
+     */
+    private final Set<String> cancelRequests = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Locks of job state changes striped by job id.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    
+    /**
+     * Max count of job runs.
+     */
+    private final int maxAttempts;
+
+    /**
+     * Default constructor.
+     * @param jobHandler storage of jobs;
+     */
+    public JobQueueService(BackgroundJobHandler jobHandler) {
+        this(jobHandler, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Constructor with limit of attempts.
+     * @param jobHandler storage of jobs;
+     * @param maxAttempts max count of job runs before job fails;
+     */
+    public JobQueueService(BackgroundJobHandler jobHandler, int maxAttempts) {
+        this.jobHandler = jobHandler;
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    /**
+     * Get job queue for plugin.
+     * @param pluginId id of plugin;
+     * @return job queue which registers types owned by plugin;
+     */
+    public JobQueue bind(String pluginId) {
+        return new JobQueue() {
+            @Override
+            public void registerType(String type, int concurrency, JobRunner runner) {
+                JobQueueService.this.registerType(pluginId, type, concurrency, runner);
+            }
+
+            @Override
+            public String submit(String type, String payload) {
+                return JobQueueService.this.submit(pluginId, type, payload);
+            }
+
+            @Override
+            public boolean cancel(String jobId) {
+                return JobQueueService.this.cancel(jobId);
+            }
+        };
+    }
+    
+    /**
+     * Register runner of job type and resume its unfinished jobs.
+     * @param owner id of owner;
+     * @param type unique job type;
+     * @param concurrency max count of jobs of type running at once;
+     * @param runner runner of jobs;
+     */
+    public synchronized void registerType(String owner, String type, int concurrency, JobQueue.JobRunner runner) {
+        if (types.containsKey(type)) {
+            throw new IllegalStateException("Job type " + type + " already registered");
+        }
+        TypeWorkers workers = new TypeWorkers(owner, type, Math.max(concurrency, 1), runner);
+        types.put(type, workers);
+        List<BackgroundJob> unfinished = new ArrayList<>();
+        for (BackgroundJob.State state: new BackgroundJob.State[] {BackgroundJob.State.RUNNING, BackgroundJob.State.QUEUED}) {
+            for (BackgroundJob job: jobHandler.getByState(state)) {
+                if (type.equals(job.getType())) {
+                    unfinished.add(job);
+                }
+            }
+        }
+        unfinished.sort(Comparator.comparingLong(BackgroundJob::getCreated));
+        for (BackgroundJob job: unfinished) {
+            workers.enqueue(job.getId());
+        }
+        LOGGER.info("Registered job type " + type + " of " + owner + ", resumed " + unfinished.size() + " jobs");
+    }
+    
+    /**
+     * Stop workers of all job types of owner. Running jobs are interrupted 
+     * and stay unfinished to be resumed on next registration.
+     * @param owner id of owner;
+     */
+    public synchronized void unregisterTypes(String owner) {
+        Iterator<TypeWorkers> iterator = types.values().iterator();
+        while (iterator.hasNext()) {
+            TypeWorkers workers = iterator.next();
+            if (workers.owner.equals(owner)) {
+                iterator.remove();
+                workers.stop();
+            }
+        }
+    }
+    
+    /**
+     * Submit new job. Returns after job written to disk.
+     * @param owner id of owner;
+     * @param type job type;
+     * @param payload job arguments;
+     * @return id of job;
+     * @throws IllegalStateException if job wasn't written;
+     */
+    public String submit(String owner, String type, String payload) {
+        BackgroundJob job = new BackgroundJob(jobHandler.getNewKey(), type, owner, payload);
+        jobHandler.create(job);
+        awaitWritten(job.getId());
+        TypeWorkers workers = types.get(type);
+        if (workers != null) {
+            workers.enqueue(job.getId());
+        } else {
+            LOGGER.info("Job " + job.getId() + " waits for registration of type " + type);
+        }
+        return job.getId();
+    }
+    
+    /**
+     * Cancel job. Check and change of state done under lock of job, 
+     * so cancel never races with start or finish of job.
+     * @param jobId id of job;
+     * @return true if job wasn't finished yet;
+     */
+    public boolean cancel(String jobId) {
+        synchronized (lockOf(jobId)) {
+            BackgroundJob job = jobHandler.getByKey(jobId);
+            if (job == null || job.isFinished()) {
+                return false;
+            }
+            if (running.contains(jobId)) {
+                cancelRequests.add(jobId);
+            } else {
+                finish(job, BackgroundJob.State.CANCELLED, null);
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Get all stored jobs.
+     * @return list of jobs;
+     */
+    public List<BackgroundJob> getJobs() {
+        return jobHandler.getAll();
+    }
+    
+    /**
+     * Write pending job changes to disk.
+     */
+    public void flush() {
+        jobHandler.flush();
+    }
+    
+    /**
+     * Delete finished jobs older than given age.
+     * @param maxAge age in milliseconds;
+     * @return count of deleted jobs;
+     */
+    public int purgeFinished(long maxAge) {
+        long border = System.currentTimeMillis() - maxAge;
+        List<String> expired = new ArrayList<>();
+        for (BackgroundJob job: jobHandler.getAll()) {
+            if (job.isFinished() && job.getUpdated() < border) {
+                expired.add(job.getId());
+            }
+        }
+        for (String jobId: expired) {
+            jobHandler.delete(jobId);
+        }
+        return expired.size();
+    }
+    
+    /**
+     * Run stored job.
+     * @param workers workers of job type;
+     * @param jobId id of job;
+     */
+    private void run(TypeWorkers workers, String jobId) {
+        BackgroundJob job;
+        synchronized (lockOf(jobId)) {
+            BackgroundJob stored = jobHandler.getByKey(jobId);
+            if (stored == null || stored.isFinished() || !running.add(jobId)) {
+                return;
+            }
+            if (stored.getAttempts() >= maxAttempts) {
+                running.remove(jobId);
+                LOGGER.error("Job " + jobId + " of type " + stored.getType() + " failed after " + stored.getAttempts() + " attempts");
+                finish(stored, BackgroundJob.State.FAILED, "Max count of attempts reached: " + stored.getAttempts());
+                return;
+            }
+            job = copy(stored);
+            job.setState(BackgroundJob.State.RUNNING);
+            job.setAttempts(job.getAttempts() + 1);
+            store(job);
+        }
+        try {
+            workers.runner.run(new Context(job));
+            complete(workers, jobId, BackgroundJob.State.DONE, null);
+        } catch (Exception ex) {
+            if (!workers.stopped) {
+                LOGGER.error("Job " + jobId + " of type " + job.getType() + " failed", ex);
+            }
+            complete(workers, jobId, BackgroundJob.State.FAILED, ex.toString());
+        } finally {
+            cancelRequests.remove(jobId);
+            running.remove(jobId);
+        }
+    }
+    
+    /**
+     * Store result of job run. Job interrupted by stop of its type stays 
+     * running to be resumed, such run isn't counted as attempt.
+     * @param workers workers of job type;
+     * @param jobId id of finished job;
+     * @param state result state;
+     * @param error error of failed job;
+     */
+    private void complete(TypeWorkers workers, String jobId, BackgroundJob.State state, String error) {
+        synchronized (lockOf(jobId)) {
+            BackgroundJob stored = jobHandler.getByKey(jobId);
+            if (stored == null) {
+                return;
+            }
+            if (cancelRequests.contains(jobId)) {
+                finish(stored, BackgroundJob.State.CANCELLED, null);
+            } else if (workers.stopped) {
+                LOGGER.info("Job " + jobId + " stopped with its type, will be resumed");
+                BackgroundJob job = copy(stored);
+                job.setAttempts(job.getAttempts() - 1);
+                store(job);
+            } else {
+                finish(stored, state, error);
+            }
+        }
+    }
+    
+    /**
+     * Store final state of job.
+     * @param stored stored job;
+     * @param state final state;
+     * @param error error of failed job;
+     */
+    private void finish(BackgroundJob stored, BackgroundJob.State state, String error) {
+        BackgroundJob job = copy(stored);
+        job.setState(state);
+        job.setError(error);
+        store(job);
+    }
+    
+    /**
+     * Save changed copy of job with update time.
+     * @param job job to save, must not be stored instance;
+     */
+    private void store(BackgroundJob job) {
+        job.setUpdated(System.currentTimeMillis());
+        jobHandler.save(job);
+    }
+    
+    /**
+     * Write pending changes and check that last change of job is on disk.
+     * @param jobId id of changed job;
+     * @throws IllegalStateException if change wasn't written;
+     */
+    private void awaitWritten(String jobId) {
+        CompletableFuture<Void> written = jobHandler.whenFlushed();
+        jobHandler.flush();
+        if (!written.isDone() || written.isCompletedExceptionally()) {
+            throw new IllegalStateException("Unable to write job " + jobId);
+        }
+    }
+    
+    /**
+     * Copy job for change, stored instance may be held by readers.
+     * @param stored stored job;
+     * @return new job with same values;
+     */
+    private static BackgroundJob copy(BackgroundJob stored) {
+        BackgroundJob job = new BackgroundJob();
+        job.setId(stored.getId());
+        job.update(stored);
+        return job;
+    }
+    
+    /**
+     * Get lock of job state changes.
+     * @param jobId id of job;
+     * @return lock object;
+     */
+    private Object lockOf(String jobId) {
+        return locks[(jobId.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+    
+    /**
+     * Workers of single job type.
+     */
+    private class TypeWorkers {
+        
+        private final String owner;
+        
+        private final JobQueue.JobRunner runner;
+        
+        private final ThreadPoolExecutor pool;
+        
+        /**
+         * Type was unregistered.
+         */
+        private volatile boolean stopped;
+
+        TypeWorkers(String owner, String type, int concurrency, JobQueue.JobRunner runner) {
+            this.owner = owner;
+            this.runner = runner;
+            AtomicInteger counter = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+                Thread thread = new Thread(task, "nebula-job-" + type + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        private void enqueue(String jobId) {
+            pool.execute(() -> run(this, jobId));
+        }
+        
+        private void stop() {
+            stopped = true;
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Context of running job, holds job as it was on start.
+     */
+    private class Context implements JobQueue.JobContext {
+        
+        private final BackgroundJob job;
+
+        Context(BackgroundJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public String getId() {
+            return job.getId();
+        }
+
+        @Override
+        public String getPayload() {
+            return job.getPayload();
+        }
+
+        @Override
+        public String getCheckpoint() {
+            BackgroundJob stored = jobHandler.getByKey(job.getId());
+            return stored != null ? stored.getCheckpoint() : job.getCheckpoint();
+        }
+
+        @Override
+        public void checkpoint(String checkpoint) {
+            synchronized (lockOf(job.getId())) {
+                BackgroundJob stored = jobHandler.getByKey(job.getId());
+                if (stored == null) {
+                    return;
+                }
+                BackgroundJob changed = copy(stored);
+                changed.setCheckpoint(checkpoint);
+                store(changed);
+            }
+            awaitWritten(job.getId());
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelRequests.contains(job.getId()) || Thread.currentThread().isInterrupted();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.extras.bus.Receiver;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
+
+/**
+ * Proxy endpoint of lazy plugin. Starts plugin on first activation message 
+ * and delivers this message only to endpoint of started plugin. Stays 
+ * subscribed while plugin is active to track idle time. Messages are 
+ * delivered under read lock, start and idle stop are done under write 
+ * lock, so message can't be lost while plugin is stopping. Failed start 
+ * isn't retried, activation messages are rejected with start error.
+ * @author Stanislav Nepochatov
+ */
+public class LazyActivator implements Receiver {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(LazyActivator.class);
+    
+    /**
+     * Lifecycle of lazy plugin performed by loader.
+     */
+    public interface Lifecycle {
+        
+        /**
+         * Start plugin and open its message endpoint. Loader marks 
+         * plugin with start error and releases it if start fails.
+         * @param record plugin record with instance;
+         * @return endpoint of started plugin;
+         * @throws Exception on plugin error;
+         */
+        PluginEndpoint start(PluginRecord record) throws Exception;
+        
+        /**
+         * Drain and stop plugin.
+         * @param record plugin record with instance;
+         * @throws Exception on plugin error;
+         */
+        void stop(PluginRecord record) throws Exception;
+    }
+    
+    /**
+     * Record of lazy plugin.
+     */
+    private final PluginRecord record;
+    
+    /**
+     * Message ids which activate plugin.
+     */
+    private final Set<String> messageIds;
+    
+    /**
+     * Time without messages before plugin stop in milliseconds, zero disables idle stop.
+     */
+    private final long idleTimeout;
+    
+    /**
+     * Lifecycle of plugin.
+     */
+    private final Lifecycle lifecycle;
+    
+    /**
+     * Lock of plugin state: read for message delivery, write for start and stop.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    /**
+     * Endpoint of started plugin, null if plugin isn't active.
+     */
+    private volatile PluginEndpoint endpoint;
+    
+    /**
+     * Activator is released and doesn't start plugin anymore.
+     */
+    private volatile boolean closed;
+    
+    /**
+     * Error of failed plugin start, null if plugin wasn't failed.
+     */
+    private volatile Exception startError;
+    
+    /**
+     * Time of last activation message.
+     */
+    private volatile long lastUsed;
+
+    /**
+     * Default constructor.
+     * @param record record of lazy plugin;
+     * @param messageIds message ids which activate plugin;
+     * @param idleTimeout time without messages before plugin stop in milliseconds;
+     * @param lifecycle lifecycle of plugin;
+     */
+    public LazyActivator(PluginRecord record, String[] messageIds, long idleTimeout, Lifecycle lifecycle) {
+        this.record = record;
+        this.messageIds = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(messageIds)));
+        this.idleTimeout = idleTimeout;
+        this.lifecycle = lifecycle;
+    }
+    
+    /**
+     * Create activator for plugin if plugin declares activation messages.
+     * @param record plugin record with instance;
+     * @param lifecycle lifecycle of plugin;
+     * @return activator or null if plugin isn't lazy;
+     */
+    public static LazyActivator forRecord(PluginRecord record, Lifecycle lifecycle) {
+        NebulaPlugin annotation = record.getInstance().getClass().getAnnotation(NebulaPlugin.class);
+        if (annotation == null || annotation.activateOn().length == 0) {
+            return null;
+        }
+        return new LazyActivator(record, annotation.activateOn(), TimeUnit.SECONDS.toMillis(annotation.idleTimeout()), lifecycle);
+    }
+
+    @Override
+    public void receive(String messageId, Map<String, Object> arguments, Map<String, Object> result) throws Exception {
+        lastUsed = System.currentTimeMillis();
+        PluginEndpoint current = acquire();
+        try {
+            if (current == null) {
+                if (startError != null) {
+                    throw new RejectedExecutionException("Plugin " + record.getId() + " failed to start", startError);
+                }
+                throw new RejectedExecutionException("Plugin " + record.getId() + " is stopping");
+            }
+            current.receive(messageId, arguments, result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Take read lock and start plugin if it isn't active yet.
+     * @return endpoint of started plugin or null if it can't be started;
+     */
+    private PluginEndpoint acquire() {
+        lock.readLock().lock();
+        if (endpoint != null || closed || startError != null) {
+            return endpoint;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            if (endpoint == null && !closed && startError == null) {
+                LOGGER.info("Activating plugin " + record.getId());
+                try {
+                    endpoint = lifecycle.start(record);
+                    lastUsed = System.currentTimeMillis();
+                } catch (Exception ex) {
+                    LOGGER.error("failed to activate plugin " + record.getId(), ex);
+                    startError = ex;
+                }
+            }
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return endpoint;
+    }
+    
+    /**
+     * Stop plugin if it had no activation messages during idle timeout. 
+     * Plugin will be started again on next activation message, messages 
+     * which arrive during stop wait for it.
+     * @param now current time;
+     */
+    public void stopIfIdle(long now) {
+        if (endpoint == null || idleTimeout <= 0 || now - lastUsed < idleTimeout) {
+            return;
+        }
+        if (!lock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            if (endpoint == null || closed || System.currentTimeMillis() - lastUsed < idleTimeout) {
+                return;
+            }
+            LOGGER.info("Stopping idle plugin " + record.getId());
+            endpoint = null;
+            lifecycle.stop(record);
+        } catch (Exception ex) {
+            LOGGER.error("failed to stop idle plugin " + record.getId(), ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Stop activation of plugin before drain. Doesn't wait for messages 
+     * in progress, they are counted by plugin endpoint.
+     */
+    public void close() {
+        closed = true;
+    }
+    
+    /**
+     * Release activator before plugin stop, waits for start or idle stop in progress.
+     * @return true if plugin is active and should be stopped by caller;
+     */
+    public boolean release() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            boolean wasActive = endpoint != null;
+            endpoint = null;
+            return wasActive;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Set<String> getMessageIds() {
+        return messageIds;
+    }
+
+    public boolean isActive() {
+        return endpoint != null;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.Date;
+
+/**
+ * Queued plugin lifecycle job. Job state updated by lifecycle executor.
+ * @author Stanislav Nepochatov
+ */
+public class LifecycleJob {
+    
+    /**
+     * Lifecycle action of job.
+     */
+    public enum Action {
+        
+        INSTALL_AND_START,
+        
+        STOP,
+        
+        UNINSTALL,
+        
+        PURGE;
+    }
+    
+    /**
+     * Job processing state.
+     */
+    public enum State {
+        
+        QUEUED,
+        
+        RUNNING,
+        
+        DONE,
+        
+        FAILED;
+    }
+    
+    /**
+     * Job id.
+     */
+    private final long id;
+    
+    /**
+     * Id of plugin.
+     */
+    private final String pluginId;
+    
+    /**
+     * Action to perform.
+     */
+    private final Action action;
+    
+    /**
+     * Time of job submission.
+     */
+    private final Date submitted;
+    
+    /**
+     * Current state of job.
+     */
+    private volatile State state = State.QUEUED;
+    
+    /**
+     * Time of job finish.
+     */
+    private volatile Date finished;
+    
+    /**
+     * Plugin status after job finish.
+     */
+    private volatile PluginStatus resultStatus;
+
+    /**
+     * Default constructor.
+     * @param id job id;
+     * @param pluginId id of plugin;
+     * @param action action to perform;
+     */
+    public LifecycleJob(long id, String pluginId, Action action) {
+        this.id = id;
+        this.pluginId = pluginId;
+        this.action = action;
+        this.submitted = new Date();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getPluginId() {
+        return pluginId;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public Date getSubmitted() {
+        return submitted;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Date getFinished() {
+        return finished;
+    }
+
+    public PluginStatus getResultStatus() {
+        return resultStatus;
+    }
+    
+    /**
+     * Mark job as running.
+     */
+    void markRunning() {
+        state = State.RUNNING;
+    }
+    
+    /**
+     * Mark job as finished.
+     * @param status plugin status after job;
+     * @param success result of job;
+     */
+    void markFinished(PluginStatus status, boolean success) {
+        resultStatus = status;
+        finished = new Date();
+        state = success ? State.DONE : State.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return "LifecycleJob{" + "id=" + id + ", pluginId=" + pluginId + ", action=" + action + ", state=" + state + ", resultStatus=" + resultStatus + '}';
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Profiler of plugin lifecycle. Keeps durations of last runs of every 
+ * lifecycle phase per plugin.
+ * @author Stanislav Nepochatov
+ */
+public class LifecycleProfiler {
+    
+    /**
+     * Profiled lifecycle phases.
+     */
+    public enum Phase {
+        
+        /**
+         * Scanning of plugin jar, shared by all plugins of jar.
+         */
+        SCAN,
+        
+        /**
+         * Creation of plugin class instance.
+         */
+        INSTANTIATE,
+        
+        /**
+         * Plugin install call.
+         */
+        INSTALL,
+        
+        /**
+         * Plugin start call.
+         */
+        START,
+        
+        /**
+         * Plugin stop call.
+         */
+        STOP;
+    }
+    
+    /**
+     * Profiled action.
+     */
+    @FunctionalInterface
+    public interface Action {
+        
+        /**
+         * Perform action.
+         * @throws Exception on action error;
+         */
+        void perform() throws Exception;
+    }
+    
+    /**
+     * Count of kept runs per phase.
+     */
+    private final int runs;
+    
+    /**
+     * Profiles by plugin id.
+     */
+    private final Map<String, PluginProfile> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * Default constructor.
+     * @param runs count of kept runs per phase;
+     */
+    public LifecycleProfiler(int runs) {
+        this.runs = runs;
+    }
+    
+    /**
+     * Perform action and record its duration, failed runs are recorded too.
+     * @param pluginId id of plugin;
+     * @param phase lifecycle phase;
+     * @param action action to perform;
+     * @throws Exception error of action;
+     */
+    public void measure(String pluginId, Phase phase, Action action) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            action.perform();
+            success = true;
+        } finally {
+            record(pluginId, phase, System.nanoTime() - start, success);
+        }
+    }
+    
+    /**
+     * Record duration of phase run.
+     * @param pluginId id of plugin;
+     * @param phase lifecycle phase;
+     * @param nanos duration in nanoseconds;
+     * @param success run finished without error;
+     */
+    public void record(String pluginId, Phase phase, long nanos, boolean success) {
+        profiles.computeIfAbsent(pluginId, PluginProfile::new).add(phase, new Run(System.currentTimeMillis(), nanos, success), runs);
+    }
+    
+    /**
+     * Get profile of plugin.
+     * @param pluginId id of plugin;
+     * @return profile or null if plugin wasn't profiled;
+     */
+    public PluginProfile getProfile(String pluginId) {
+        return profiles.get(pluginId);
+    }
+    
+    /**
+     * Get profiles of all plugins.
+     * @return map of profiles ordered by plugin id;
+     */
+    public Map<String, PluginProfile> getProfiles() {
+        return new TreeMap<>(profiles);
+    }
+
+    public int getRuns() {
+        return runs;
+    }
+    
+    /**
+     * Single run of lifecycle phase.
+     */
+    public static class Run {
+        
+        /**
+         * Time of run end.
+         */
+        private final long finished;
+        
+        /**
+         * Duration in nanoseconds.
+         */
+        private final long nanos;
+        
+        /**
+         * Run finished without error.
+         */
+        private final boolean success;
+
+        Run(long finished, long nanos, boolean success) {
+            this.finished = finished;
+            this.nanos = nanos;
+            this.success = success;
+        }
+
+        public long getFinished() {
+            return finished;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getMillis() {
+            return nanos / 1000000.0;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+    }
+    
+    /**
+     * Last runs of lifecycle phases of single plugin.
+     */
+    public static class PluginProfile {
+        
+        /**
+         * Id of plugin.
+         */
+        private final String pluginId;
+        
+        /**
+         * Last runs by phases, newest last.
+         */
+        private final Map<Phase, Deque<Run>> phases = new EnumMap<>(Phase.class);
+
+        PluginProfile(String pluginId) {
+            this.pluginId = pluginId;
+        }
+        
+        private synchronized void add(Phase phase, Run run, int limit) {
+            Deque<Run> phaseRuns = phases.computeIfAbsent(phase, key -> new ArrayDeque<>(limit));
+            if (phaseRuns.size() == limit) {
+                phaseRuns.removeFirst();
+            }
+            phaseRuns.addLast(run);
+        }
+        
+        /**
+         * Get last runs of phase.
+         * @param phase lifecycle phase;
+         * @return list of runs, newest last;
+         */
+        public synchronized List<Run> getRuns(Phase phase) {
+            Deque<Run> phaseRuns = phases.get(phase);
+            return phaseRuns != null ? new ArrayList<>(phaseRuns) : new ArrayList<>();
+        }
+        
+        /**
+         * Get last run of phase.
+         * @param phase lifecycle phase;
+         * @return run or null if phase wasn't run;
+         */
+        public synchronized Run getLast(Phase phase) {
+            Deque<Run> phaseRuns = phases.get(phase);
+            return phaseRuns != null ? phaseRuns.peekLast() : null;
+        }
+        
+        /**
+         * Get average duration of kept runs of phase.
+         * @param phase lifecycle phase;
+         * @return average in milliseconds or zero if phase wasn't run;
+         */
+        public synchronized double getAverageMillis(Phase phase) {
+            Deque<Run> phaseRuns = phases.get(phase);
+            if (phaseRuns == null || phaseRuns.isEmpty()) {
+                return 0;
+            }
+            long total = 0;
+            for (Run run: phaseRuns) {
+                total += run.getNanos();
+            }
+            return total / 1000000.0 / phaseRuns.size();
+        }
+
+        public String getPluginId() {
+            return pluginId;
+        }
+    }
+}
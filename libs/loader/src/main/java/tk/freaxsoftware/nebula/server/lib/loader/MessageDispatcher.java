@@ -0,0 +1,157 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.extras.bus.GlobalIds;
+import tk.freaxsoftware.extras.bus.MessageBus;
+import tk.freaxsoftware.extras.bus.Receiver;
+import tk.freaxsoftware.nebula.server.lib.api.Features;
+
+/**
+ * Dispatcher of message bus subscriptions of plugins. Loader keeps single 
+ * subscription per message id and delivers message to endpoints of plugins 
+ * which receive it. Message bound to feature is delivered to single provider 
+ * of feature chosen by feature router.
+ * @author Stanislav Nepochatov
+ */
+public class MessageDispatcher {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageDispatcher.class);
+    
+    /**
+     * Subscriptions by message ids.
+     */
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+    
+    /**
+     * Router of messages bound to features.
+     */
+    private final FeatureRouter router;
+
+    /**
+     * Default constructor.
+     * @param router router of messages bound to features;
+     */
+    public MessageDispatcher(FeatureRouter router) {
+        this.router = router;
+    }
+    
+    /**
+     * Subscribe plugin endpoint to message.
+     * @param messageId id of message;
+     * @param pluginId id of plugin;
+     * @param endpoint plugin endpoint;
+     */
+    public synchronized void subscribe(String messageId, String pluginId, Receiver endpoint) {
+        Subscription subscription = subscriptions.get(messageId);
+        if (subscription == null) {
+            subscription = new Subscription(messageId);
+            subscriptions.put(messageId, subscription);
+            MessageBus.addSubscription(messageId, subscription);
+        }
+        subscription.add(pluginId, endpoint);
+    }
+    
+    /**
+     * Remove all subscriptions of endpoint.
+     * @param endpoint plugin endpoint;
+     */
+    public synchronized void unsubscribe(Receiver endpoint) {
+        subscriptions.values().removeIf(subscription -> {
+            if (subscription.remove(endpoint)) {
+                MessageBus.removeSubscription(subscription.messageId, subscription);
+                return true;
+            }
+            return false;
+        });
+    }
+    
+    /**
+     * Message bus subscription of single message.
+     */
+    private class Subscription implements Receiver {
+        
+        /**
+         * Id of message.
+         */
+        private final String messageId;
+        
+        /**
+         * Endpoints by plugin ids, map replaced on change.
+         */
+        private volatile Map<String, Receiver> endpoints = Collections.emptyMap();
+
+        Subscription(String messageId) {
+            this.messageId = messageId;
+        }
+        
+        /**
+         * Add endpoint of plugin.
+         * @param pluginId id of plugin;
+         * @param endpoint plugin endpoint;
+         */
+        private void add(String pluginId, Receiver endpoint) {
+            Map<String, Receiver> updated = new LinkedHashMap<>(endpoints);
+            updated.put(pluginId, endpoint);
+            endpoints = Collections.unmodifiableMap(updated);
+        }
+        
+        /**
+         * Remove endpoint.
+         * @param endpoint plugin endpoint;
+         * @return true if no endpoints left;
+         */
+        private boolean remove(Receiver endpoint) {
+            if (endpoints.containsValue(endpoint)) {
+                Map<String, Receiver> updated = new LinkedHashMap<>(endpoints);
+                updated.values().removeIf(current -> current == endpoint);
+                endpoints = Collections.unmodifiableMap(updated);
+            }
+            return endpoints.isEmpty();
+        }
+
+        @Override
+        public void receive(String messageId, Map<String, Object> arguments, Map<String, Object> result) throws Exception {
+            Features feature = router.getBoundFeature(messageId);
+            if (feature != null) {
+                try {
+                    result.putAll(router.send(feature, messageId, arguments, false));
+                } catch (Exception ex) {
+                    LOGGER.error("Unable to route message " + messageId + " to provider of " + feature, ex);
+                    result.put(GlobalIds.GLOBAL_ERROR_MESSAGE, ex.getMessage());
+                }
+                return;
+            }
+            for (Map.Entry<String, Receiver> entry: endpoints.entrySet()) {
+                try {
+                    entry.getValue().receive(messageId, arguments, result);
+                } catch (Exception ex) {
+                    LOGGER.error("Plugin " + entry.getKey() + " failed to process message " + messageId, ex);
+                    result.put(GlobalIds.GLOBAL_ERROR_MESSAGE, ex.getMessage());
+                }
+            }
+        }
+    }
+}
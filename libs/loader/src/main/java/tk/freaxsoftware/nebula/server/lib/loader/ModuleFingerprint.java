@@ -0,0 +1,216 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.Map;
+import java.util.Objects;
+import tk.freaxsoftware.extras.faststorage.generic.ECSVAble;
+import tk.freaxsoftware.extras.faststorage.generic.ECSVDefinition;
+import static tk.freaxsoftware.extras.faststorage.generic.ECSVFields.*;
+import tk.freaxsoftware.extras.faststorage.reading.EntityReader;
+import tk.freaxsoftware.extras.faststorage.writing.EntityWriter;
+
+/**
+ * Fingerprint of plugin jar with plugin classes found inside it. 
+ * Used to skip scanning of unchanged jars.
+ * @author Stanislav Nepochatov
+ */
+public class ModuleFingerprint implements ECSVAble<String> {
+    
+    public final static String TYPE = "MODULE";
+    
+    /**
+     * ECSV entity definition.
+     */
+    public static final ECSVDefinition DEFINITION = ECSVDefinition.createNew()
+            .addKey(String.class)
+            .addPrimitive(PR_WORD)
+            .addPrimitive(PR_WORD)
+            .addPrimitive(PR_WORD)
+            .addMap(null, null);
+    
+    /**
+     * Name of jar file.
+     */
+    private String fileName;
+    
+    /**
+     * Size of jar in bytes.
+     */
+    private long size;
+    
+    /**
+     * Last modification time of jar.
+     */
+    private long modified;
+    
+    /**
+     * SHA-256 hash of jar content.
+     */
+    private String hash;
+    
+    /**
+     * Plugin classes of jar mapped to plugin ids.
+     */
+    private Map<String, String> modules;
+    
+    public ModuleFingerprint() {}
+
+    /**
+     * Default constructor.
+     * @param fileName name of jar file;
+     * @param size size of jar in bytes;
+     * @param modified last modification time of jar;
+     * @param hash hash of jar content;
+     * @param modules plugin classes mapped to plugin ids;
+     */
+    public ModuleFingerprint(String fileName, long size, long modified, String hash, Map<String, String> modules) {
+        this.fileName = fileName;
+        this.size = size;
+        this.modified = modified;
+        this.hash = hash;
+        this.modules = modules;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public void setModified(long modified) {
+        this.modified = modified;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public Map<String, String> getModules() {
+        return modules;
+    }
+
+    public void setModules(Map<String, String> modules) {
+        this.modules = modules;
+    }
+    
+    /**
+     * Check if other fingerprint describes same jar content.
+     * @param other other fingerprint;
+     * @return true if size, modification time and hash are equal;
+     */
+    public boolean matches(ModuleFingerprint other) {
+        return other != null && size == other.size && modified == other.modified 
+                && Objects.equals(hash, other.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 29 * hash + Objects.hashCode(this.fileName);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ModuleFingerprint other = (ModuleFingerprint) obj;
+        if (!Objects.equals(this.fileName, other.fileName)) {
+            return false;
+        }
+        return matches(other);
+    }
+
+    @Override
+    public String toString() {
+        return "ModuleFingerprint{" + "fileName=" + fileName + ", size=" + size + ", modified=" + modified + ", hash=" + hash + '}';
+    }
+
+    @Override
+    public String getKey() {
+        return fileName;
+    }
+
+    @Override
+    public void setKey(String key) {
+        this.fileName = key;
+    }
+
+    @Override
+    public ECSVDefinition getDefinition() {
+        return DEFINITION;
+    }
+
+    @Override
+    public void readFromECSV(EntityReader<String> reader) {
+        this.fileName = reader.readKey();
+        this.size = Long.parseLong(reader.readWord());
+        this.modified = Long.parseLong(reader.readWord());
+        this.hash = reader.readWord();
+        this.modules = reader.readMap();
+    }
+
+    @Override
+    public void writeToECSV(EntityWriter<String> writer) {
+        writer.writeKey(fileName);
+        writer.writeWord(String.valueOf(size));
+        writer.writeWord(String.valueOf(modified));
+        writer.writeWord(hash);
+        writer.writeMap(modules);
+    }
+
+    @Override
+    public void update(ECSVAble<String> updatedEntity) {
+        if (updatedEntity instanceof ModuleFingerprint) {
+            ModuleFingerprint other = (ModuleFingerprint) updatedEntity;
+            this.size = other.size;
+            this.modified = other.modified;
+            this.hash = other.hash;
+            this.modules = other.modules;
+        }
+    }
+
+    @Override
+    public String getEntityType() {
+        return TYPE;
+    }
+}
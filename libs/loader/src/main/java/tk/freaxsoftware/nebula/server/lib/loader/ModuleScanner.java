@@ -0,0 +1,565 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaFeature;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaFeatures;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPluginConflict;
+import tk.freaxsoftware.nebula.server.lib.api.Plugable;
+import tk.freaxsoftware.nebula.server.lib.api.PluginIndex;
+
+/**
+ * Concurrent scanner of plugin jars. Every jar scanned by separate fork-join 
+ * task, classes of big jars inspected by further split tasks. Plugin classes 
+ * found by reading class file annotations, so only plugin classes are loaded. 
+ * Jars with plugin index are not scanned, only indexed classes are loaded. 
+ * Jars which match stored fingerprint are not scanned at all. Results are 
+ * ordered by jar name and by plugin class name inside jar.
+ * @author Stanislav Nepochatov
+ */
+public class ModuleScanner {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModuleScanner.class);
+    
+    /**
+     * Max count of classes inspected by single task.
+     */
+    private static final int SPLIT_THRESHOLD = 64;
+    
+    /**
+     * Shared pool of scanning tasks.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("nebula-module-scanner-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+    
+    /**
+     * Plugin found during scanning with its conflicts.
+     */
+    public static class ScannedModule {
+        
+        /**
+         * Record of plugin.
+         */
+        private final PluginRecord record;
+        
+        /**
+         * Conflicts declared by plugin.
+         */
+        private final List<ConflictRecord> conflicts;
+        
+        /**
+         * Time of plugin class instantiation in nanoseconds.
+         */
+        private final long instantiateNanos;
+
+        public ScannedModule(PluginRecord record, List<ConflictRecord> conflicts) {
+            this(record, conflicts, 0);
+        }
+
+        public ScannedModule(PluginRecord record, List<ConflictRecord> conflicts, long instantiateNanos) {
+            this.record = record;
+            this.conflicts = conflicts;
+            this.instantiateNanos = instantiateNanos;
+        }
+
+        public PluginRecord getRecord() {
+            return record;
+        }
+
+        public List<ConflictRecord> getConflicts() {
+            return conflicts;
+        }
+
+        public long getInstantiateNanos() {
+            return instantiateNanos;
+        }
+    }
+    
+    /**
+     * Plugin jar scanning result.
+     */
+    public static class ScannedJar {
+        
+        /**
+         * Current fingerprint of jar.
+         */
+        private final ModuleFingerprint fingerprint;
+        
+        /**
+         * Plugins of jar ordered by class name.
+         */
+        private final List<ScannedModule> modules;
+        
+        /**
+         * Plugins were found by stored fingerprint without scanning.
+         */
+        private final boolean cached;
+        
+        /**
+         * Class loader of jar.
+         */
+        private final URLClassLoader classLoader;
+        
+        /**
+         * Time of jar scanning in nanoseconds.
+         */
+        private final long scanNanos;
+
+        public ScannedJar(ModuleFingerprint fingerprint, List<ScannedModule> modules, boolean cached, URLClassLoader classLoader, long scanNanos) {
+            this.fingerprint = fingerprint;
+            this.modules = modules;
+            this.cached = cached;
+            this.classLoader = classLoader;
+            this.scanNanos = scanNanos;
+        }
+
+        public ModuleFingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        public List<ScannedModule> getModules() {
+            return modules;
+        }
+
+        public boolean isCached() {
+            return cached;
+        }
+
+        public URLClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        public long getScanNanos() {
+            return scanNanos;
+        }
+    }
+    
+    /**
+     * Scan all jar files of plugin directory. Jars which match stored 
+     * fingerprint are not scanned, only their known plugin classes are loaded.
+     * @param path path to plugin directory;
+     * @param knownFingerprints lookup of stored fingerprints by jar file name;
+     * @return list of scanned jars ordered by file name;
+     */
+    public List<ScannedJar> scan(String path, Function<String, ModuleFingerprint> knownFingerprints) {
+        File[] modulesRaw = new File(path).listFiles(file -> file.isFile());
+        if (modulesRaw == null || modulesRaw.length == 0) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(modulesRaw);
+        List<JarTask> tasks = new ArrayList<>(modulesRaw.length);
+        for (File moduleFile: modulesRaw) {
+            tasks.add(new JarTask(moduleFile, knownFingerprints.apply(moduleFile.getName())));
+        }
+        return POOL.invoke(new RecursiveTask<List<ScannedJar>>() {
+            @Override
+            protected List<ScannedJar> compute() {
+                invokeAll(tasks);
+                List<ScannedJar> jars = new ArrayList<>();
+                for (JarTask task: tasks) {
+                    ScannedJar jar = task.join();
+                    if (jar != null) {
+                        jars.add(jar);
+                    }
+                }
+                return jars;
+            }
+        });
+    }
+    
+    /**
+     * Scan single jar file.
+     * @param moduleFile jar file;
+     * @param known stored fingerprint of jar or null;
+     * @return scanned jar or null if jar can't be read;
+     */
+    public ScannedJar scanFile(File moduleFile, ModuleFingerprint known) {
+        return POOL.invoke(new JarTask(moduleFile, known));
+    }
+    
+    /**
+     * Load single plugin of jar. Live class loader of jar is reused, so plugins 
+     * of one jar always share loader and only requested plugin is instanced. 
+     * Jar is scanned with new loader only if there is no live loader.
+     * @param moduleFile jar file;
+     * @param known stored fingerprint of jar or null;
+     * @param live live class loader of jar or null;
+     * @param pluginId id of plugin;
+     * @return scanned jar or null if plugin can't be loaded;
+     */
+    public ScannedJar loadPlugin(File moduleFile, ModuleFingerprint known, URLClassLoader live, String pluginId) {
+        if (live == null) {
+            return scanFile(moduleFile, known);
+        }
+        if (known != null && known.getModules() != null) {
+            for (Map.Entry<String, String> entry: known.getModules().entrySet()) {
+                if (entry.getValue().equals(pluginId)) {
+                    long start = System.nanoTime();
+                    ScannedModule module = loadModule(live, entry.getKey());
+                    if (module != null && module.getRecord().getId().equals(pluginId)) {
+                        return new ScannedJar(known, Collections.singletonList(module), true, live, System.nanoTime() - start);
+                    }
+                }
+            }
+        }
+        LOGGER.error("Plugin " + pluginId + " can't be loaded by live class loader of " + moduleFile.getName());
+        return null;
+    }
+    
+    /**
+     * Calculate fingerprint of jar file. Hash of stored fingerprint is reused 
+     * if jar size and modification time weren't changed, so unchanged jars 
+     * aren't read at all.
+     * @param moduleFile jar file;
+     * @param known stored fingerprint of jar or null;
+     * @return fingerprint without plugin classes;
+     * @throws IOException on read error;
+     */
+    public static ModuleFingerprint fingerprint(File moduleFile, ModuleFingerprint known) throws IOException {
+        long size = moduleFile.length();
+        long modified = moduleFile.lastModified();
+        if (known != null && known.getHash() != null && known.getSize() == size && known.getModified() == modified) {
+            return new ModuleFingerprint(moduleFile.getName(), size, modified, known.getHash(), null);
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream stream = new FileInputStream(moduleFile)) {
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte value: digest.digest()) {
+            hash.append(String.format("%02x", value));
+        }
+        return new ModuleFingerprint(moduleFile.getName(), size, modified, hash.toString(), null);
+    }
+    
+    /**
+     * Inspect single class. If class is plugin then it will be instanced.
+     * @param givenClass loaded class;
+     * @return scanned plugin or null if class is not plugin;
+     */
+    public static ScannedModule inspect(Class givenClass) {
+        NebulaPlugin plugAnnotation = null;
+        try {
+            plugAnnotation = (NebulaPlugin) givenClass.getAnnotation(NebulaPlugin.class);
+            if (plugAnnotation != null && Plugable.class.isAssignableFrom(givenClass)) {
+                long start = System.nanoTime();
+                Plugable pluginInstance = (Plugable) givenClass.newInstance();
+                long instantiateNanos = System.nanoTime() - start;
+                List<ConflictRecord> conflictRecords = new ArrayList<>();
+                NebulaPluginConflict[] conflicts = (NebulaPluginConflict[]) givenClass.getAnnotationsByType(NebulaPluginConflict.class);
+                if (conflicts != null) {
+                    for (NebulaPluginConflict conflictEntry: conflicts) {
+                        conflictRecords.add(new ConflictRecord(plugAnnotation.id(), conflictEntry));
+                    }
+                }
+                NebulaFeature[] features = (NebulaFeature[]) givenClass.getAnnotationsByType(NebulaFeature.class);
+                return new ScannedModule(new PluginRecord(plugAnnotation, features, pluginInstance), conflictRecords, instantiateNanos);
+            } else {
+                return null;
+            }
+        } catch (IllegalAccessException ex) {
+            LOGGER.error("Class " + givenClass.getName() + " doesn't have public empty constructor.", ex);
+            return plugAnnotation != null ? new ScannedModule(new PluginRecord(plugAnnotation, null, null), Collections.emptyList()) : null;
+        } catch (InstantiationException ex) {
+            LOGGER.error("Class " + givenClass.getName() + " can't be instanced as object.", ex);
+            return plugAnnotation != null ? new ScannedModule(new PluginRecord(plugAnnotation, null, null), Collections.emptyList()) : null;
+        }
+    }
+    
+    /**
+     * Task of single jar scanning.
+     */
+    private static class JarTask extends RecursiveTask<ScannedJar> {
+        
+        /**
+         * Jar file to scan.
+         */
+        private final File moduleFile;
+        
+        /**
+         * Stored fingerprint of jar, may be null.
+         */
+        private final ModuleFingerprint known;
+
+        JarTask(File moduleFile, ModuleFingerprint known) {
+            this.moduleFile = moduleFile;
+            this.known = known;
+        }
+
+        @Override
+        protected ScannedJar compute() {
+            long start = System.nanoTime();
+            ModuleFingerprint fingerprint;
+            URLClassLoader loader;
+            try {
+                fingerprint = fingerprint(moduleFile, known);
+                loader = URLClassLoader.newInstance(new URL[] {moduleFile.toURI().toURL()});
+            } catch (MalformedURLException ex) {
+                LOGGER.error("Incorrect URL for file " + moduleFile.getName() + "!", ex);
+                return null;
+            } catch (IOException ex) {
+                LOGGER.error("Can't read file " + moduleFile.getName() + "!", ex);
+                return null;
+            }
+            if (fingerprint.matches(known) && known.getModules() != null) {
+                List<ScannedModule> modules = loadKnown(loader, known.getModules());
+                if (modules != null) {
+                    fingerprint.setModules(known.getModules());
+                    return new ScannedJar(fingerprint, modules, true, loader, System.nanoTime() - start);
+                }
+                LOGGER.warn("Stored plugins of " + moduleFile.getName() + " can't be loaded, scanning jar");
+            }
+            List<ScannedModule> modules = new ArrayList<>(scanJar(loader));
+            modules.sort(Comparator.comparing(module -> module.getRecord().getClassEntryName()));
+            Map<String, String> classes = new HashMap<>();
+            for (ScannedModule module: modules) {
+                classes.put(module.getRecord().getClassEntryName(), module.getRecord().getId());
+            }
+            fingerprint.setModules(classes);
+            return new ScannedJar(fingerprint, modules, false, loader, System.nanoTime() - start);
+        }
+        
+        /**
+         * Load plugin classes stored in fingerprint.
+         * @param loader class loader of jar;
+         * @param classes plugin classes mapped to plugin ids;
+         * @return list of plugins or null if any class can't be loaded as plugin;
+         */
+        private List<ScannedModule> loadKnown(ClassLoader loader, Map<String, String> classes) {
+            List<ScannedModule> modules = new ArrayList<>();
+            for (String className: new TreeSet<>(classes.keySet())) {
+                ScannedModule module = loadModule(loader, className);
+                if (module == null) {
+                    return null;
+                }
+                modules.add(module);
+            }
+            return modules;
+        }
+        
+        /**
+         * Find plugins of jar by plugin index or by scanning all classes. 
+         * Index is trusted only if it lists exactly top-level classes of jar 
+         * and all indexed plugins are loaded as indexed.
+         * @param loader class loader of jar;
+         * @return list of plugins;
+         */
+        private List<ScannedModule> scanJar(ClassLoader loader) {
+            try (JarFile jarFile = new JarFile(moduleFile)) {
+                List<JarEntry> classEntries = new ArrayList<>();
+                Set<String> types = new TreeSet<>();
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (entry.getName().endsWith(".class")) {
+                        classEntries.add(entry);
+                        String type = topLevelType(entry.getName());
+                        if (type != null) {
+                            types.add(type);
+                        }
+                    }
+                }
+                JarEntry indexEntry = jarFile.getJarEntry(PluginIndex.LOCATION);
+                if (indexEntry != null) {
+                    PluginIndex index;
+                    try (InputStream stream = jarFile.getInputStream(indexEntry)) {
+                        index = PluginIndex.read(stream);
+                    }
+                    List<ScannedModule> modules = index.getTypes().equals(types) ? loadIndexed(loader, index.getEntries()) : null;
+                    if (modules != null) {
+                        return modules;
+                    }
+                    LOGGER.warn("Plugin index of " + moduleFile.getName() + " is stale, scanning all classes");
+                }
+                return new ClassTask(jarFile, loader, classEntries, 0, classEntries.size()).compute();
+            } catch (IOException ex) {
+                LOGGER.error("Can't read file " + moduleFile.getName() + "!", ex);
+                return Collections.emptyList();
+            }
+        }
+    }
+    
+    /**
+     * Get name of top-level class by jar entry name.
+     * @param entryName name of class entry;
+     * @return class name or null for nested classes and package/module descriptors;
+     */
+    private static String topLevelType(String entryName) {
+        String className = entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+        if (className.indexOf('$') >= 0 || className.endsWith("package-info") || className.equals("module-info")) {
+            return null;
+        }
+        return className;
+    }
+    
+    /**
+     * Load plugins listed in jar plugin index.
+     * @param loader class loader of jar;
+     * @param entries index entries;
+     * @return list of found plugins or null if index doesn't match classes;
+     */
+    private static List<ScannedModule> loadIndexed(ClassLoader loader, List<PluginIndex.Entry> entries) {
+        List<ScannedModule> modules = new ArrayList<>();
+        for (PluginIndex.Entry entry: entries) {
+            ScannedModule module = loadModule(loader, entry.getClassName());
+            if (module == null || !module.getRecord().getId().equals(entry.getId())) {
+                LOGGER.warn("Plugin index of " + entry.getClassName() + " is outdated, indexed id " + entry.getId());
+                return null;
+            }
+            modules.add(module);
+        }
+        return modules;
+    }
+    
+    /**
+     * Load and inspect single plugin class.
+     * @param loader class loader of jar;
+     * @param className name of class;
+     * @return scanned plugin or null;
+     */
+    private static ScannedModule loadModule(ClassLoader loader, String className) {
+        try {
+            ScannedModule module = inspect(loader.loadClass(className));
+            if (module != null) {
+                LOGGER.info("Loaded module " + module.getRecord().getId() + " - " + className);
+            }
+            return module;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            LOGGER.error("Can't load class " + className, ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Task of inspection of class entries range inside single jar. Class file 
+     * annotations are read from bytes, only plugin classes are loaded.
+     */
+    private static class ClassTask extends RecursiveTask<List<ScannedModule>> {
+        
+        /**
+         * Jar file to read.
+         */
+        private final JarFile jarFile;
+        
+        /**
+         * Class loader of jar.
+         */
+        private final ClassLoader loader;
+        
+        /**
+         * All class entries of jar.
+         */
+        private final List<JarEntry> classEntries;
+        
+        /**
+         * Start of range, inclusive.
+         */
+        private final int from;
+        
+        /**
+         * End of range, exclusive.
+         */
+        private final int to;
+
+        ClassTask(JarFile jarFile, ClassLoader loader, List<JarEntry> classEntries, int from, int to) {
+            this.jarFile = jarFile;
+            this.loader = loader;
+            this.classEntries = classEntries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<ScannedModule> compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                ClassTask left = new ClassTask(jarFile, loader, classEntries, from, middle);
+                ClassTask right = new ClassTask(jarFile, loader, classEntries, middle, to);
+                left.fork();
+                List<ScannedModule> modules = new ArrayList<>(right.compute());
+                modules.addAll(0, left.join());
+                return modules;
+            }
+            List<ScannedModule> modules = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                JarEntry entry = classEntries.get(i);
+                ClassFileScanner.AnnotatedClass annotated;
+                try (InputStream stream = jarFile.getInputStream(entry)) {
+                    annotated = ClassFileScanner.read(stream);
+                } catch (IOException | RuntimeException ex) {
+                    LOGGER.error("Can't read class file " + entry.getName(), ex);
+                    continue;
+                }
+                if (!annotated.isAnnotatedWith(NebulaPlugin.class)) {
+                    if (annotated.isAnnotatedWith(NebulaFeature.class) || annotated.isAnnotatedWith(NebulaFeatures.class)
+                            || annotated.isAnnotatedWith(NebulaPluginConflict.class)) {
+                        LOGGER.warn("Class " + annotated.getClassName() + " has plugin annotations but isn't marked as plugin");
+                    }
+                    continue;
+                }
+                ScannedModule module = loadModule(loader, annotated.getClassName());
+                if (module != null) {
+                    modules.add(module);
+                }
+            }
+            return modules;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import tk.freaxsoftware.extras.bus.Receiver;
+
+/**
+ * Message endpoint of started plugin. Delivers messages to plugin receivers 
+ * on plugin executor and waits for their result, so message processing 
+ * is limited and accounted by plugin executor instead of caller threads. 
+ * Endpoint counts messages in progress, so loader drains every plugin 
+ * without help of plugin itself.
+ * @author Stanislav Nepochatov
+ */
+public class PluginEndpoint implements Receiver {
+    
+    /**
+     * Id of plugin.
+     */
+    private final String pluginId;
+    
+    /**
+     * Receivers of plugin by message ids.
+     */
+    private final Map<String, Receiver> receivers;
+    
+    /**
+     * Managed executor of plugin.
+     */
+    private final PluginExecutor executor;
+    
+    /**
+     * Count of messages in progress.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    
+    /**
+     * Endpoint doesn't accept new messages.
+     */
+    private volatile boolean draining;
+
+    /**
+     * Default constructor.
+     * @param pluginId id of plugin;
+     * @param receivers receivers of plugin by message ids;
+     * @param executor managed executor of plugin;
+     */
+    public PluginEndpoint(String pluginId, Map<String, Receiver> receivers, PluginExecutor executor) {
+        this.pluginId = pluginId;
+        this.receivers = receivers;
+        this.executor = executor;
+    }
+
+    /**
+     * Deliver message to plugin receiver and wait for its result. Message sent 
+     * by plugin thread to its own plugin is processed in place.
+     * @param messageId id of message;
+     * @param arguments message arguments;
+     * @param result message result;
+     * @throws RejectedExecutionException if plugin is draining, has no receiver of message or its executor is full;
+     * @throws Exception error of receiver;
+     */
+    @Override
+    public void receive(String messageId, Map<String, Object> arguments, Map<String, Object> result) throws Exception {
+        inFlight.incrementAndGet();
+        try {
+            if (draining) {
+                throw new RejectedExecutionException("Plugin " + pluginId + " is draining");
+            }
+            deliver(messageId, arguments, result);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Run receiver of message.
+     * @param messageId id of message;
+     * @param arguments message arguments;
+     * @param result message result;
+     * @throws Exception error of receiver;
+     */
+    private void deliver(String messageId, Map<String, Object> arguments, Map<String, Object> result) throws Exception {
+        Receiver receiver = receivers.get(messageId);
+        if (receiver == null) {
+            throw new RejectedExecutionException("Plugin " + pluginId + " has no receiver of message " + messageId);
+        }
+        if (executor.ownsCurrentThread()) {
+            receiver.receive(messageId, arguments, result);
+            return;
+        }
+        Future<?> task = executor.submit(() -> {
+            receiver.receive(messageId, arguments, result);
+            return null;
+        });
+        try {
+            task.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        } catch (InterruptedException ex) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Stop accepting new messages. Counter is incremented before draining 
+     * flag is checked, so message is either rejected or counted by drain.
+     */
+    public void drain() {
+        draining = true;
+    }
+    
+    /**
+     * Get count of messages in progress.
+     * @return count of messages;
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+    
+    /**
+     * Check if plugin receives specified message.
+     * @param messageId id of message;
+     * @return true if plugin has receiver of message;
+     */
+    public boolean receives(String messageId) {
+        return receivers.containsKey(messageId);
+    }
+
+    public String getPluginId() {
+        return pluginId;
+    }
+
+    public Map<String, Receiver> getReceivers() {
+        return receivers;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Managed executor of single plugin with limited threads and queue. 
+ * Accounts CPU time and allocated bytes of its threads, totals are kept 
+ * while executor is closed and opened again.
+ * @author Stanislav Nepochatov
+ */
+public class PluginExecutor {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginExecutor.class);
+    
+    /**
+     * Time before idle thread exit in seconds.
+     */
+    private static final long KEEP_ALIVE = 60;
+    
+    /**
+     * Time of waiting for running tasks on close in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = 1000;
+    
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    
+    /**
+     * Timer which interrupts tasks of closed executors.
+     */
+    private static final ScheduledExecutorService CLOSER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nebula-plugin-closer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * Id of plugin.
+     */
+    private final String pluginId;
+    
+    /**
+     * Max count of threads.
+     */
+    private final int maxThreads;
+    
+    /**
+     * Max count of queued tasks.
+     */
+    private final int maxQueue;
+    
+    /**
+     * Live threads of executor.
+     */
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Counter of thread names.
+     */
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    
+    /**
+     * CPU time of finished threads in nanoseconds.
+     */
+    private final AtomicLong finishedCpu = new AtomicLong();
+    
+    /**
+     * Allocated bytes of finished threads.
+     */
+    private final AtomicLong finishedAllocated = new AtomicLong();
+    
+    /**
+     * Count of rejected tasks.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+    
+    /**
+     * Current thread pool, null if closed.
+     */
+    private volatile ThreadPoolExecutor pool;
+
+    /**
+     * Default constructor.
+     * @param pluginId id of plugin;
+     * @param maxThreads max count of threads;
+     * @param maxQueue max count of queued tasks;
+     */
+    public PluginExecutor(String pluginId, int maxThreads, int maxQueue) {
+        this.pluginId = pluginId;
+        this.maxThreads = maxThreads;
+        this.maxQueue = maxQueue;
+    }
+    
+    /**
+     * Get executor, thread pool created if executor was closed.
+     * @return executor service for plugin;
+     */
+    public synchronized ExecutorService open() {
+        if (pool == null) {
+            pool = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE, TimeUnit.SECONDS, 
+                    new ArrayBlockingQueue<>(maxQueue), this::newThread, (task, executor) -> {
+                        rejected.incrementAndGet();
+                        throw new RejectedExecutionException("Executor of plugin " + pluginId + " is full");
+                    });
+            pool.allowCoreThreadTimeOut(true);
+        }
+        return pool;
+    }
+    
+    /**
+     * Submit task to thread pool of opened executor.
+     * @param <T> type of task result;
+     * @param task task to run;
+     * @return future of task;
+     * @throws RejectedExecutionException if executor is closed or full;
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        ThreadPoolExecutor current = pool;
+        if (current == null) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Executor of plugin " + pluginId + " is closed");
+        }
+        return current.submit(task);
+    }
+    
+    /**
+     * Check if current thread belongs to executor.
+     * @return true if called by executor thread;
+     */
+    public boolean ownsCurrentThread() {
+        return threads.contains(Thread.currentThread());
+    }
+    
+    /**
+     * Shut down thread pool without waiting, running tasks are interrupted 
+     * in background after short wait.
+     */
+    public synchronized void close() {
+        ThreadPoolExecutor closing = pool;
+        if (closing == null) {
+            return;
+        }
+        pool = null;
+        closing.shutdown();
+        CLOSER.schedule(() -> {
+            if (!closing.isTerminated()) {
+                LOGGER.warn("Interrupting " + closing.getActiveCount() + " tasks of plugin " + pluginId);
+                closing.shutdownNow();
+            }
+        }, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Create thread which adds its resource usage to totals on exit.
+     * @param task worker of thread pool;
+     * @return new thread;
+     */
+    private Thread newThread(Runnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } finally {
+                account(Thread.currentThread());
+            }
+        }, "nebula-plugin-" + pluginId + "-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        threads.add(thread);
+        return thread;
+    }
+    
+    /**
+     * Add resource usage of finishing thread to totals.
+     * @param thread current thread;
+     */
+    private void account(Thread thread) {
+        long cpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        if (cpu > 0) {
+            finishedCpu.addAndGet(cpu);
+        }
+        long allocated = allocatedBytes(thread.getId());
+        if (allocated > 0) {
+            finishedAllocated.addAndGet(allocated);
+        }
+        threads.remove(thread);
+    }
+    
+    /**
+     * Get allocated bytes of thread if JVM supports it.
+     * @param threadId id of thread;
+     * @return allocated bytes or -1;
+     */
+    private static long allocatedBytes(long threadId) {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean extended = (com.sun.management.ThreadMXBean) THREADS;
+            if (extended.isThreadAllocatedMemorySupported() && extended.isThreadAllocatedMemoryEnabled()) {
+                return extended.getThreadAllocatedBytes(threadId);
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Get CPU time of executor threads.
+     * @return CPU time in nanoseconds;
+     */
+    public long getCpuNanos() {
+        long total = finishedCpu.get();
+        if (THREADS.isThreadCpuTimeSupported()) {
+            for (Thread thread: threads) {
+                long cpu = THREADS.getThreadCpuTime(thread.getId());
+                if (cpu > 0) {
+                    total += cpu;
+                }
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Get bytes allocated by executor threads.
+     * @return allocated bytes;
+     */
+    public long getAllocatedBytes() {
+        long total = finishedAllocated.get();
+        for (Thread thread: threads) {
+            long allocated = allocatedBytes(thread.getId());
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Get count of tasks in progress.
+     * @return count of active tasks;
+     */
+    public int getActiveTasks() {
+        ThreadPoolExecutor current = pool;
+        return current != null ? current.getActiveCount() : 0;
+    }
+    
+    /**
+     * Get count of queued tasks.
+     * @return count of queued tasks;
+     */
+    public int getQueuedTasks() {
+        ThreadPoolExecutor current = pool;
+        return current != null ? current.getQueue().size() : 0;
+    }
+
+    public String getPluginId() {
+        return pluginId;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
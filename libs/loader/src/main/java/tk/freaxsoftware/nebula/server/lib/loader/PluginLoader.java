@@ -20,22 +20,31 @@ package tk.freaxsoftware.nebula.server.lib.loader;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tk.freaxsoftware.extras.faststorage.exception.EntityProcessingException;
 import tk.freaxsoftware.extras.faststorage.ignition.FastStorageIgnition;
 import tk.freaxsoftware.extras.faststorage.storage.Handlers;
 import tk.freaxsoftware.nebula.server.lib.api.Features;
-import tk.freaxsoftware.nebula.server.lib.api.NebulaFeature;
 import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
-import tk.freaxsoftware.nebula.server.lib.api.NebulaPluginConflict;
-import tk.freaxsoftware.nebula.server.lib.api.Plugable;
+import tk.freaxsoftware.nebula.server.lib.loader.storage.BackgroundJobHandler;
 import tk.freaxsoftware.nebula.server.lib.loader.storage.ConflictRecordHandler;
+import tk.freaxsoftware.nebula.server.lib.loader.storage.ModuleFingerprintHandler;
 import tk.freaxsoftware.nebula.server.lib.loader.storage.PluginRecordHandler;
 
 /**
@@ -46,6 +55,71 @@ public class PluginLoader {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(PluginLoader.class);
     
+    /**
+     * Delay of batched write for plugin storages in milliseconds.
+     */
+    private static final long WRITE_BEHIND_DELAY = 500;
+    
+    /**
+     * Count of changed records which triggers batched write.
+     */
+    private static final int WRITE_BEHIND_BATCH = 64;
+    
+    /**
+     * Time of jar inactivity before hot reload in milliseconds.
+     */
+    private static final long RELOAD_QUIET_PERIOD = 1000;
+    
+    /**
+     * Count of finished lifecycle jobs kept for status reporting.
+     */
+    private static final int TRACKED_JOBS = 100;
+    
+    /**
+     * Period of idle check for lazy plugins in milliseconds.
+     */
+    private static final long IDLE_CHECK_PERIOD = 1000;
+    
+    /**
+     * Default max time of plugin drain before stop in milliseconds.
+     */
+    private static final long DEFAULT_DRAIN_TIMEOUT = 10000;
+    
+    /**
+     * Period of in-flight requests check during drain in milliseconds.
+     */
+    private static final long DRAIN_POLL_PERIOD = 50;
+    
+    /**
+     * Count of profiled runs kept per plugin lifecycle phase.
+     */
+    private static final int PROFILED_RUNS = 10;
+    
+    /**
+     * Default max count of threads of plugin executor.
+     */
+    private static final int DEFAULT_MAX_THREADS = 2;
+    
+    /**
+     * Default max count of queued tasks of plugin executor.
+     */
+    private static final int DEFAULT_MAX_QUEUE = 256;
+    
+    /**
+     * Tick of plugin timeouts scheduler in milliseconds.
+     */
+    private static final long SCHEDULER_TICK = 10;
+    
+    /**
+     * Count of buckets of plugin timeouts scheduler.
+     */
+    private static final int SCHEDULER_WHEEL_SIZE = 512;
+    
+    /**
+     * Age of finished background jobs before removal in milliseconds.
+     */
+    private static final long FINISHED_JOBS_RETENTION = TimeUnit.DAYS.toMillis(7);
+    
     /**
      * Records of plugins which were loaded into system.
      */
@@ -56,6 +130,158 @@ public class PluginLoader {
      */
     private ConflictRecordHandler conflictRecordHandler;
     
+    /**
+     * Fingerprints of scanned plugin jars.
+     */
+    private ModuleFingerprintHandler moduleFingerprintHandler;
+    
+    /**
+     * Persistent queue of background jobs.
+     */
+    private final JobQueueService jobQueue;
+    
+    /**
+     * Class loaders of plugin jars.
+     */
+    private final ClassLoaderRegistry classLoaders = new ClassLoaderRegistry();
+    
+    /**
+     * Executor of plugin lifecycle jobs.
+     */
+    private final ExecutorService lifecycleExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nebula-plugin-lifecycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * Proxies of lazy plugins by plugin id.
+     */
+    private final Map<String, LazyActivator> lazyPlugins = new ConcurrentHashMap<>();
+    
+    /**
+     * Lifecycle of lazy plugins started by activation messages.
+     */
+    private final LazyActivator.Lifecycle lazyLifecycle = new LazyActivator.Lifecycle() {
+        
+        @Override
+        public PluginEndpoint start(PluginRecord record) throws Exception {
+            if (draining.contains(record.getId())) {
+                throw new IllegalStateException("Plugin " + record.getId() + " is stopping");
+            }
+            try {
+                profiler.measure(record.getId(), LifecycleProfiler.Phase.START, record.getInstance()::start);
+                return openEndpoint(record);
+            } catch (Exception ex) {
+                record.setStatus(PluginStatus.START_ERROR);
+                pluginRecordHandler.save(record);
+                LazyActivator activator = lazyPlugins.remove(record.getId());
+                if (activator != null) {
+                    dispatcher.unsubscribe(activator);
+                }
+                featureRouter.removeProviders(record.getId());
+                releaseResources(record);
+                throw ex;
+            }
+        }
+
+        @Override
+        public void stop(PluginRecord record) throws Exception {
+            drainEndpoint(record);
+            awaitDrain(Collections.singletonList(record));
+            try {
+                profiler.measure(record.getId(), LifecycleProfiler.Phase.STOP, record.getInstance()::stop);
+            } finally {
+                closeEndpoint(record);
+            }
+        }
+    };
+    
+    /**
+     * Router of calls across started feature providers.
+     */
+    private final FeatureRouter featureRouter = new FeatureRouter();
+    
+    /**
+     * Profiler of plugin lifecycle phases.
+     */
+    private final LifecycleProfiler profiler = new LifecycleProfiler(PROFILED_RUNS);
+    
+    /**
+     * Managed executors of plugins by plugin id.
+     */
+    private final Map<String, PluginExecutor> executors = new ConcurrentHashMap<>();
+    
+    /**
+     * Dispatcher of message subscriptions of plugins.
+     */
+    private final MessageDispatcher dispatcher = new MessageDispatcher(featureRouter);
+    
+    /**
+     * Message endpoints of started plugins by plugin id.
+     */
+    private final Map<String, PluginEndpoint> endpoints = new ConcurrentHashMap<>();
+    
+    /**
+     * Shared scheduler of plugin timeouts.
+     */
+    private final HashedWheelScheduler scheduler = new HashedWheelScheduler(SCHEDULER_TICK, SCHEDULER_WHEEL_SIZE);
+    
+    /**
+     * Schedulers bound to plugin executors by plugin id.
+     */
+    private final Map<String, HashedWheelScheduler.Bound> schedulers = new ConcurrentHashMap<>();
+    
+    /**
+     * Default max count of threads of plugin executor.
+     */
+    private volatile int maxThreads = DEFAULT_MAX_THREADS;
+    
+    /**
+     * Default max count of queued tasks of plugin executor.
+     */
+    private volatile int maxQueue = DEFAULT_MAX_QUEUE;
+    
+    /**
+     * Executor of idle check for lazy plugins.
+     */
+    private final ScheduledExecutorService idleExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nebula-plugin-idle");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * Counter of lifecycle job ids.
+     */
+    private final AtomicLong jobCounter = new AtomicLong();
+    
+    /**
+     * Recent lifecycle jobs by id.
+     */
+    private final Map<Long, LifecycleJob> jobs = Collections.synchronizedMap(new LinkedHashMap<Long, LifecycleJob>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, LifecycleJob> eldest) {
+            return size() > TRACKED_JOBS && eldest.getValue().getState() != LifecycleJob.State.QUEUED 
+                    && eldest.getValue().getState() != LifecycleJob.State.RUNNING;
+        }
+    });
+    
+    /**
+     * Ids of plugins which are draining before stop.
+     */
+    private final Set<String> draining = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Max time of plugin drain before stop in milliseconds.
+     */
+    private volatile long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+    
+    /**
+     * Watcher of plugin directory, null if hot reload disabled.
+     */
+    private PluginWatcher watcher;
+    
     /**
      * Path of plugin directory on disk.
      */
@@ -75,6 +301,18 @@ public class PluginLoader {
         }
         pluginRecordHandler = (PluginRecordHandler) Handlers.getHandlerByClass(PluginRecord.class);
         conflictRecordHandler = (ConflictRecordHandler) Handlers.getHandlerByClass(ConflictRecord.class);
+        moduleFingerprintHandler = (ModuleFingerprintHandler) Handlers.getHandlerByClass(ModuleFingerprint.class);
+        BackgroundJobHandler jobHandler = (BackgroundJobHandler) Handlers.getHandlerByClass(BackgroundJob.class);
+        pluginRecordHandler.enableWriteBehind(WRITE_BEHIND_DELAY, WRITE_BEHIND_BATCH);
+        conflictRecordHandler.enableWriteBehind(WRITE_BEHIND_DELAY, WRITE_BEHIND_BATCH);
+        moduleFingerprintHandler.enableWriteBehind(WRITE_BEHIND_DELAY, WRITE_BEHIND_BATCH);
+        jobHandler.enableWriteBehind(WRITE_BEHIND_DELAY, WRITE_BEHIND_BATCH);
+        jobQueue = new JobQueueService(jobHandler);
+        int purged = jobQueue.purgeFinished(FINISHED_JOBS_RETENTION);
+        if (purged > 0) {
+            LOGGER.info("Removed " + purged + " finished background jobs");
+        }
+        idleExecutor.scheduleWithFixedDelay(this::stopIdlePlugins, IDLE_CHECK_PERIOD, IDLE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
     }
     
     /**
@@ -88,23 +326,47 @@ public class PluginLoader {
         } catch (ClassNotFoundException cex) {
             LOGGER.error("unable to load core sync plugin!" , cex);
         }
+        flush();
     }
     
-    public void startPlugins() {
-        List<PluginRecord> records = pluginRecordHandler.getByStatus(PluginStatus.STARTED);
-        for (PluginRecord record: records) {
-            LOGGER.info("Starting plugin " + record.getId());
-            try {
-                record.getInstance().start();
-            } catch (Exception ex) {
-                LOGGER.error("failed to start plugin " + record.getId(), ex);
+    /**
+     * Start plugins with started status concurrently in order of declared dependencies.
+     * @param timeout max time of single plugin start in milliseconds;
+     */
+    public synchronized void startPlugins(long timeout) {
+        List<PluginRecord> records = new ArrayList<>();
+        for (PluginRecord record: rejectConflicts(pluginRecordHandler.getByStatus(PluginStatus.STARTED))) {
+            if (ensureInstance(record)) {
+                attachExecutor(record);
+                LazyActivator activator = LazyActivator.forRecord(record, lazyLifecycle);
+                if (activator != null) {
+                    registerLazy(activator, record);
+                } else {
+                    records.add(record);
+                }
+            } else {
+                LOGGER.error("Plugin " + record.getId() + " has no instance to start");
                 record.setStatus(PluginStatus.START_ERROR);
                 pluginRecordHandler.save(record);
             }
         }
+        new PluginStarter(timeout, new PluginStarter.Listener() {
+            
+            @Override
+            public void started(PluginRecord record) {
+                featureRouter.addProviders(record, openEndpoint(record));
+            }
+
+            @Override
+            public void failed(PluginRecord record) {
+                pluginRecordHandler.save(record);
+                releaseResources(record);
+            }
+        }, profiler).start(records);
     }
     
     public Boolean startPluginsByFeatures(Features[] features) {
+        rejectConflicts(pluginRecordHandler.getByStatus(PluginStatus.STARTED));
         Boolean featuresStarted = true;
         for (Features feature: features) {
             LOGGER.info("processing feature: " + feature);
@@ -138,95 +400,787 @@ public class PluginLoader {
     /**
      * Loads plugins from plugin directory, fill records and conflicts lists.
      */
-    public void load() {
-        File[] modulesRaw = new File(path).listFiles();
-        if (modulesRaw != null) {
-            for (File moduleFile : modulesRaw) {
-                processModule(moduleFile.getName(), path);
+    public synchronized void load() {
+        Set<String> presentFiles = new HashSet<>();
+        int cachedCount = 0;
+        for (ModuleScanner.ScannedJar jar: new ModuleScanner().scan(path, moduleFingerprintHandler::getByFileName)) {
+            presentFiles.add(jar.getFingerprint().getFileName());
+            registerLoader(jar);
+            if (jar.isCached()) {
+                cachedCount++;
+            } else {
+                moduleFingerprintHandler.save(jar.getFingerprint());
+            }
+            for (ModuleScanner.ScannedModule module: jar.getModules()) {
+                saveModule(module);
             }
         }
+        for (ModuleFingerprint fingerprint: moduleFingerprintHandler.getAll()) {
+            if (!presentFiles.contains(fingerprint.getFileName())) {
+                moduleFingerprintHandler.delete(fingerprint.getFileName());
+            }
+        }
+        LOGGER.info("Plugin jars processed: " + presentFiles.size() + ", unchanged: " + cachedCount);
+        LOGGER.info(classLoaders.report().toString());
+        flush();
     }
     
     /**
-     * Process single file as plugin.
-     * @param fileName name of file;
-     * @param restOfPath rest of path to this file;
-     * @param classes lists of records to fill;
+     * Start watching of plugin directory. Added or changed jars will be 
+     * reloaded without restart.
      */
-    private void processModule(String fileName, String restOfPath) {
+    public synchronized void startWatching() {
+        if (watcher != null) {
+            return;
+        }
         try {
-            JarFile jarFile;
-            java.net.URLClassLoader loader;
-            loader = java.net.URLClassLoader.newInstance(new URL[] {new URL("jar:file:" + restOfPath + "/" + fileName + "!/")});
-            jarFile = new JarFile(restOfPath + "/" + fileName);
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while(entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
-                String entryName = entry.getName();
-                String className = null;
-                if(entryName.endsWith(".class")) {
-                    className = entry.getName().substring(0,entry.getName().length()-6).replace('/', '.');
+            watcher = new PluginWatcher(new File(path).toPath(), this::reloadModule, RELOAD_QUIET_PERIOD);
+            watcher.start();
+        } catch (IOException ex) {
+            LOGGER.error("Unable to watch plugin directory " + path, ex);
+        }
+    }
+    
+    /**
+     * Stop watching of plugin directory.
+     */
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ex) {
+                LOGGER.error("Unable to stop plugin directory watcher", ex);
+            }
+            watcher = null;
+        }
+    }
+    
+    /**
+     * Reload single plugin jar. Plugins of previous jar version are stopped 
+     * and their class loader closed, then new version is scanned and plugins 
+     * which were started get installed and started again. Plugins of removed 
+     * jar are marked as not present. Other plugins aren't touched.
+     * @param fileName name of jar file inside plugin directory;
+     */
+    public void reloadModule(String fileName) {
+        List<PluginRecord> stopping = new ArrayList<>();
+        synchronized (this) {
+            ModuleFingerprint previous = moduleFingerprintHandler.getByFileName(fileName);
+            File moduleFile = new File(path, fileName);
+            if (previous != null && moduleFile.isFile()) {
+                try {
+                    if (ModuleScanner.fingerprint(moduleFile, previous).matches(previous)) {
+                        return;
+                    }
+                } catch (IOException ex) {
+                    LOGGER.error("Can't read file " + fileName + "!", ex);
+                    return;
+                }
+            }
+            if (previous != null && previous.getModules() != null) {
+                for (String pluginId: previous.getModules().values()) {
+                    PluginRecord record = pluginRecordHandler.getRecordById(pluginId);
+                    if (record != null && record.getInstance() != null && record.getStatus() == PluginStatus.STARTED) {
+                        stopping.add(record);
+                    }
                 }
-                if (className != null) {
+            }
+            beginDrain(stopping);
+        }
+        awaitDrain(stopping);
+        try {
+            reloadDrained(fileName);
+        } finally {
+            for (PluginRecord record: stopping) {
+                draining.remove(record.getId());
+            }
+        }
+    }
+    
+    /**
+     * Replace plugins of jar after drain of its started plugins.
+     * @param fileName name of jar file inside plugin directory;
+     */
+    private synchronized void reloadDrained(String fileName) {
+        File moduleFile = new File(path, fileName);
+        ModuleFingerprint previous = moduleFingerprintHandler.getByFileName(fileName);
+        Map<String, String> previousModules = previous != null && previous.getModules() != null 
+                ? previous.getModules() : Collections.emptyMap();
+        LOGGER.info("Reloading plugin jar " + fileName);
+        Set<String> restart = new HashSet<>();
+        for (String pluginId: previousModules.values()) {
+            PluginRecord record = pluginRecordHandler.getRecordById(pluginId);
+            if (record != null && record.getInstance() != null) {
+                if (record.getStatus() == PluginStatus.STARTED) {
+                    restart.add(pluginId);
                     try {
-                        Class loadedClass = loader.loadClass(className);
-                        PluginRecord module = tryModuleClass(loadedClass);
-                        if (module != null) {
-                            LOGGER.info("Loaded module " + module.getId() + " - " + className);
-                            pluginRecordHandler.save(module);
-                        }
-                    } catch (ClassNotFoundException ex) {
-                        LOGGER.error("Can't load class " + className, ex);
+                        stopDrained(record);
+                    } catch (Exception ex) {
+                        LOGGER.error("failed to stop plugin " + pluginId, ex);
                     }
+                    record.setStatus(PluginStatus.STOPED);
                 }
+                record.setInstance(null);
+            }
+        }
+        classLoaders.release(fileName);
+        
+        Set<String> currentIds = new HashSet<>();
+        ModuleScanner.ScannedJar jar = moduleFile.isFile() ? new ModuleScanner().scanFile(moduleFile, null) : null;
+        if (jar != null) {
+            registerLoader(jar);
+            moduleFingerprintHandler.save(jar.getFingerprint());
+            for (ModuleScanner.ScannedModule module: jar.getModules()) {
+                currentIds.add(module.getRecord().getId());
+                saveModule(module);
+            }
+        } else if (previous != null) {
+            moduleFingerprintHandler.delete(fileName);
+        }
+        for (String pluginId: previousModules.values()) {
+            PluginRecord record = pluginRecordHandler.getRecordById(pluginId);
+            if (record != null && !currentIds.contains(pluginId)) {
+                record.setStatus(PluginStatus.NOT_PRESENT);
+                pluginRecordHandler.save(record);
+            }
+        }
+        for (String pluginId: restart) {
+            if (currentIds.contains(pluginId)) {
+                installAndStart(pluginId);
+            }
+        }
+        flush();
+    }
+    
+    /**
+     * Queue lifecycle job for plugin. Job executed in background, 
+     * its progress available by {@link #getJobs()}.
+     * @param pluginId id of plugin;
+     * @param action lifecycle action;
+     * @return queued job;
+     */
+    public LifecycleJob submit(String pluginId, LifecycleJob.Action action) {
+        LifecycleJob job = new LifecycleJob(jobCounter.incrementAndGet(), pluginId, action);
+        jobs.put(job.getId(), job);
+        lifecycleExecutor.execute(() -> {
+            job.markRunning();
+            try {
+                switch (action) {
+                    case INSTALL_AND_START:
+                        installAndStart(pluginId);
+                        break;
+                    case STOP:
+                        stopPlugin(pluginId);
+                        break;
+                    case UNINSTALL:
+                        uninstallPlugin(pluginId);
+                        break;
+                    case PURGE:
+                        purgePlugin(pluginId);
+                        break;
+                }
+                PluginRecord record = pluginRecordHandler.getRecordById(pluginId);
+                PluginStatus status = record != null ? record.getStatus() : null;
+                job.markFinished(status, status != null && !status.name().endsWith("_ERROR"));
+            } catch (RuntimeException ex) {
+                LOGGER.error("Lifecycle job failed " + job, ex);
+                job.markFinished(null, false);
+            }
+        });
+        return job;
+    }
+    
+    /**
+     * Get recent lifecycle jobs.
+     * @return list of jobs in submission order;
+     */
+    public List<LifecycleJob> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+    
+    /**
+     * Get lifecycle job by id.
+     * @param jobId id of job;
+     * @return job or null if not found;
+     */
+    public LifecycleJob getJob(long jobId) {
+        return jobs.get(jobId);
+    }
+    
+    /**
+     * Register class loader of scanned jar and record scan timings of its plugins. 
+     * Loader of jar without plugins is closed at once.
+     * @param jar scanned jar;
+     */
+    private void registerLoader(ModuleScanner.ScannedJar jar) {
+        for (ModuleScanner.ScannedModule module: jar.getModules()) {
+            String pluginId = module.getRecord().getId();
+            profiler.record(pluginId, LifecycleProfiler.Phase.SCAN, jar.getScanNanos(), true);
+            profiler.record(pluginId, LifecycleProfiler.Phase.INSTANTIATE, module.getInstantiateNanos(), 
+                    module.getRecord().getInstance() != null);
+        }
+        String fileName = jar.getFingerprint().getFileName();
+        if (jar.getModules().isEmpty()) {
+            classLoaders.release(fileName);
+            classLoaders.discard(fileName, jar.getClassLoader());
+        } else {
+            classLoaders.register(fileName, jar.getClassLoader());
+        }
+    }
+    
+    /**
+     * Set max time of plugin drain before stop.
+     * @param drainTimeout timeout in milliseconds;
+     */
+    public void setDrainTimeout(long drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+    
+    /**
+     * Drain and stop all started plugins on system shutdown. 
+     * Plugin statuses kept, so plugins will be started on next launch.
+     */
+    public void stopPlugins() {
+        List<PluginRecord> records = new ArrayList<>();
+        synchronized (this) {
+            for (PluginRecord record: pluginRecordHandler.getByStatus(PluginStatus.STARTED)) {
+                if (record.getInstance() != null) {
+                    records.add(record);
+                }
+            }
+            beginDrain(records);
+        }
+        awaitDrain(records);
+        synchronized (this) {
+            for (PluginRecord record: records) {
+                LOGGER.info("Stopping plugin " + record.getId());
+                try {
+                    stopDrained(record);
+                } catch (Exception ex) {
+                    LOGGER.error("failed to stop plugin " + record.getId(), ex);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Set default limits of plugin executors.
+     * @param maxThreads max count of threads;
+     * @param maxQueue max count of queued tasks;
+     */
+    public void setExecutorLimits(int maxThreads, int maxQueue) {
+        this.maxThreads = maxThreads;
+        this.maxQueue = maxQueue;
+    }
+    
+    /**
+     * Get managed executors of plugins with their resource usage.
+     * @return list of executors ordered by plugin id;
+     */
+    public List<PluginExecutor> getExecutors() {
+        List<PluginExecutor> list = new ArrayList<>(executors.values());
+        list.sort(Comparator.comparing(PluginExecutor::getPluginId));
+        return list;
+    }
+    
+    /**
+     * Get persistent queue of background jobs.
+     * @return job queue service;
+     */
+    public JobQueueService getJobQueue() {
+        return jobQueue;
+    }
+    
+    /**
+     * Get shared scheduler of plugin timeouts.
+     * @return timing wheel scheduler;
+     */
+    public HashedWheelScheduler getScheduler() {
+        return scheduler;
+    }
+    
+    /**
+     * Get profiler of plugin lifecycle phases.
+     * @return lifecycle profiler;
+     */
+    public LifecycleProfiler getProfiler() {
+        return profiler;
+    }
+    
+    /**
+     * Get router of calls across started feature providers.
+     * @return feature router;
+     */
+    public FeatureRouter getFeatureRouter() {
+        return featureRouter;
+    }
+    
+    /**
+     * Get report of plugin class loaders and metaspace usage.
+     * @return class loaders report;
+     */
+    public ClassLoaderRegistry.Report getClassLoaderReport() {
+        return classLoaders.report();
+    }
+    
+    /**
+     * Stop plugin. Class loader of plugin jar released if no other 
+     * plugin of jar is active, plugin will be loaded again on next start.
+     * @param pluginId id of plugin;
+     */
+    public void stopPlugin(String pluginId) {
+        drainPlugin(pluginId);
+        synchronized (this) {
+            runLifecycleStep(pluginId, PluginStatus.STOPED, PluginStatus.STOP_ERROR, this::stopDrained);
+        }
+    }
+    
+    /**
+     * Stop and uninstall plugin, releasing its class loader.
+     * @param pluginId id of plugin;
+     */
+    public void uninstallPlugin(String pluginId) {
+        drainPlugin(pluginId);
+        synchronized (this) {
+            runLifecycleStep(pluginId, PluginStatus.UNINSTALLED, PluginStatus.UNINSTALL_ERROR, record -> {
+                stopDrained(record);
+                record.getInstance().uninstall();
+            });
+        }
+    }
+    
+    /**
+     * Stop, uninstall and purge plugin data, releasing its class loader.
+     * @param pluginId id of plugin;
+     */
+    public void purgePlugin(String pluginId) {
+        drainPlugin(pluginId);
+        synchronized (this) {
+            runLifecycleStep(pluginId, PluginStatus.PURGED, PluginStatus.PURGE_ERROR, record -> {
+                stopDrained(record);
+                record.getInstance().uninstall();
+                record.getInstance().purge();
+            });
+        }
+    }
+    
+    /**
+     * Drain plugin before stopping lifecycle step. Loader monitor 
+     * isn't held while requests in progress are finished.
+     * @param pluginId id of plugin;
+     */
+    private void drainPlugin(String pluginId) {
+        List<PluginRecord> records;
+        synchronized (this) {
+            PluginRecord record = pluginRecordHandler.getRecordById(pluginId);
+            records = record != null && record.getInstance() != null 
+                    ? Collections.singletonList(record) : Collections.emptyList();
+            beginDrain(records);
+        }
+        awaitDrain(records);
+    }
+    
+    /**
+     * Plugin lifecycle step.
+     */
+    @FunctionalInterface
+    private interface LifecycleStep {
+        
+        /**
+         * Perform step on plugin with instance.
+         * @param record plugin record;
+         * @throws Exception on plugin error;
+         */
+        void perform(PluginRecord record) throws Exception;
+    }
+    
+    /**
+     * Perform stopping lifecycle step and release plugin instance.
+     * @param pluginId id of plugin;
+     * @param successStatus status after successful step;
+     * @param errorStatus status after failed step;
+     * @param step step to perform;
+     */
+    private void runLifecycleStep(String pluginId, PluginStatus successStatus, PluginStatus errorStatus, LifecycleStep step) {
+        PluginRecord record = pluginRecordHandler.getRecordById(pluginId);
+        if (record == null) {
+            LOGGER.error("Can't process plugin with id " + pluginId + "; plugin doesn't exsist!");
+            return;
+        }
+        if (record.getInstance() != null) {
+            try {
+                step.perform(record);
+                record.setStatus(successStatus);
+            } catch (Exception ex) {
+                LOGGER.error("failed to process plugin " + pluginId + " to " + successStatus, ex);
+                record.setStatus(errorStatus);
+            }
+        } else {
+            record.setStatus(successStatus);
+        }
+        draining.remove(pluginId);
+        String fileName = findModuleFile(pluginId);
+        if (fileName != null) {
+            record.setInstance(null);
+            releaseIfUnused(fileName);
+        }
+        pluginRecordHandler.save(record);
+    }
+    
+    /**
+     * Stop drained plugin instance. Lazy plugin stopped only if it was activated.
+     * @param record plugin record with instance;
+     * @throws Exception on plugin error;
+     */
+    private void stopDrained(PluginRecord record) throws Exception {
+        LazyActivator activator = lazyPlugins.remove(record.getId());
+        try {
+            if (activator == null || activator.release()) {
+                profiler.measure(record.getId(), LifecycleProfiler.Phase.STOP, record.getInstance()::stop);
+            }
+        } finally {
+            draining.remove(record.getId());
+            releaseResources(record);
+        }
+    }
+    
+    /**
+     * Close endpoint, job types, timeouts and executor of plugin which isn't running.
+     * @param record plugin record;
+     */
+    private void releaseResources(PluginRecord record) {
+        closeEndpoint(record);
+        jobQueue.unregisterTypes(record.getId());
+        HashedWheelScheduler.Bound bound = schedulers.remove(record.getId());
+        if (bound != null) {
+            bound.close();
+        }
+        PluginExecutor executor = executors.get(record.getId());
+        if (executor != null) {
+            executor.close();
+        }
+    }
+    
+    /**
+     * Give plugin its managed executor and scheduler bound to it, 
+     * limits declared by plugin override defaults.
+     * @param record plugin record with instance;
+     */
+    private void attachExecutor(PluginRecord record) {
+        PluginExecutor executor = executors.computeIfAbsent(record.getId(), pluginId -> {
+            NebulaPlugin annotation = record.getInstance().getClass().getAnnotation(NebulaPlugin.class);
+            int threads = annotation != null && annotation.maxThreads() > 0 ? annotation.maxThreads() : maxThreads;
+            int queue = annotation != null && annotation.maxQueue() > 0 ? annotation.maxQueue() : maxQueue;
+            return new PluginExecutor(pluginId, threads, queue);
+        });
+        ExecutorService service = executor.open();
+        record.getInstance().setExecutor(service);
+        HashedWheelScheduler.Bound bound = scheduler.bind(record.getId(), service);
+        HashedWheelScheduler.Bound previous = schedulers.put(record.getId(), bound);
+        if (previous != null) {
+            previous.close();
+        }
+        record.getInstance().setScheduler(bound);
+        record.getInstance().setJobQueue(jobQueue.bind(record.getId()));
+    }
+    
+    /**
+     * Open message endpoint of started plugin and subscribe its receivers.
+     * @param record plugin record with instance;
+     * @return opened endpoint;
+     */
+    private PluginEndpoint openEndpoint(PluginRecord record) {
+        PluginEndpoint endpoint = new PluginEndpoint(record.getId(), 
+                new HashMap<>(record.getInstance().getReceivers()), executors.get(record.getId()));
+        PluginEndpoint previous = endpoints.put(record.getId(), endpoint);
+        if (previous != null) {
+            dispatcher.unsubscribe(previous);
+        }
+        LazyActivator activator = lazyPlugins.get(record.getId());
+        for (String messageId: endpoint.getReceivers().keySet()) {
+            if (activator == null || !activator.getMessageIds().contains(messageId)) {
+                dispatcher.subscribe(messageId, record.getId(), endpoint);
+            }
+        }
+        return endpoint;
+    }
+    
+    /**
+     * Unsubscribe receivers of plugin and close its message endpoint.
+     * @param record plugin record;
+     */
+    private void closeEndpoint(PluginRecord record) {
+        PluginEndpoint endpoint = endpoints.remove(record.getId());
+        if (endpoint != null) {
+            dispatcher.unsubscribe(endpoint);
+        }
+    }
+    
+    /**
+     * Stop routing new requests to plugins. Lazy plugins which 
+     * weren't activated aren't drained.
+     * @param records plugin records with instances;
+     */
+    private void beginDrain(List<PluginRecord> records) {
+        for (PluginRecord record: records) {
+            draining.add(record.getId());
+            featureRouter.removeProviders(record.getId());
+            LazyActivator activator = lazyPlugins.get(record.getId());
+            if (activator != null) {
+                dispatcher.unsubscribe(activator);
+                activator.close();
+            }
+            drainEndpoint(record);
+        }
+    }
+    
+    /**
+     * Unsubscribe endpoint of started plugin and stop accepting messages by it.
+     * @param record plugin record with instance;
+     */
+    private void drainEndpoint(PluginRecord record) {
+        PluginEndpoint endpoint = endpoints.get(record.getId());
+        if (endpoint == null) {
+            return;
+        }
+        dispatcher.unsubscribe(endpoint);
+        endpoint.drain();
+        try {
+            record.getInstance().drain();
+        } catch (Exception ex) {
+            LOGGER.error("failed to drain plugin " + record.getId(), ex);
+        }
+    }
+    
+    /**
+     * Wait for requests in progress of draining plugins until drain timeout. 
+     * Shouldn't be called while holding loader monitor.
+     * @param records plugin records with instances;
+     */
+    private void awaitDrain(List<PluginRecord> records) {
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        int inFlight;
+        while ((inFlight = countInFlight(records)) > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                LOGGER.warn("Drain timeout, stopping plugins with " + inFlight + " requests in progress");
+                return;
+            }
+            try {
+                Thread.sleep(DRAIN_POLL_PERIOD);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Count requests in progress of draining plugins: messages counted 
+     * by their endpoints and own requests reported by plugins.
+     * @param records plugin records with instances;
+     * @return count of requests in progress;
+     */
+    private int countInFlight(List<PluginRecord> records) {
+        int inFlight = 0;
+        for (PluginRecord record: records) {
+            PluginEndpoint endpoint = endpoints.get(record.getId());
+            if (endpoint != null) {
+                inFlight += endpoint.getInFlight() + record.getInstance().getActiveRequests();
+            }
+        }
+        return inFlight;
+    }
+    
+    /**
+     * Subscribe proxy of lazy plugin to activation messages instead of plugin 
+     * start, proxy also routes calls to plugin as provider of its features.
+     * @param activator proxy of lazy plugin;
+     * @param record plugin record with instance;
+     */
+    private void registerLazy(LazyActivator activator, PluginRecord record) {
+        if (lazyPlugins.putIfAbsent(record.getId(), activator) == null) {
+            for (String messageId: activator.getMessageIds()) {
+                dispatcher.subscribe(messageId, record.getId(), activator);
+            }
+            featureRouter.addProviders(record, activator);
+            LOGGER.info("Plugin " + record.getId() + " waits for messages " + activator.getMessageIds());
+        }
+    }
+    
+    /**
+     * Stop lazy plugins which had no activation messages during their idle timeout.
+     */
+    private void stopIdlePlugins() {
+        long now = System.currentTimeMillis();
+        for (LazyActivator activator: lazyPlugins.values()) {
+            activator.stopIfIdle(now);
+        }
+    }
+    
+    /**
+     * Release class loader of jar if none of its plugins has instance.
+     * @param fileName name of jar file;
+     */
+    private void releaseIfUnused(String fileName) {
+        ModuleFingerprint fingerprint = moduleFingerprintHandler.getByFileName(fileName);
+        if (fingerprint != null && fingerprint.getModules() != null) {
+            for (String pluginId: fingerprint.getModules().values()) {
+                PluginRecord record = pluginRecordHandler.getRecordById(pluginId);
+                if (record != null && record.getInstance() != null) {
+                    return;
+                }
+            }
+        }
+        classLoaders.release(fileName);
+        LOGGER.info("Released class loader of " + fileName);
+    }
+    
+    /**
+     * Find jar file of plugin.
+     * @param pluginId id of plugin;
+     * @return jar file name or null for core plugins;
+     */
+    private String findModuleFile(String pluginId) {
+        for (ModuleFingerprint fingerprint: moduleFingerprintHandler.getAll()) {
+            if (fingerprint.getModules() != null && fingerprint.getModules().containsValue(pluginId)) {
+                return fingerprint.getFileName();
             }
-        } catch (java.net.MalformedURLException ex) {
-            LOGGER.error("Incorrect URL for file " + fileName + "!", ex);
-        } catch (IOException ex) {
-            LOGGER.error("Can't read file " + fileName + "!", ex);
         }
+        return null;
     }
     
     /**
-     * Process checking of single class inside jar file. If 
-     * class passes check then it will be instanced and add to records.
+     * Create plugin instance again if it was released. Live class loader of 
+     * plugin jar is reused, so started plugins of same jar keep their loader; 
+     * jar is loaded again only if no loader is live.
+     * @param record plugin record;
+     * @return true if plugin has instance;
+     */
+    private boolean ensureInstance(PluginRecord record) {
+        if (record.getInstance() != null) {
+            return true;
+        }
+        String fileName = findModuleFile(record.getId());
+        if (fileName == null) {
+            return false;
+        }
+        ModuleScanner.ScannedJar jar = new ModuleScanner().loadPlugin(new File(path, fileName), 
+                moduleFingerprintHandler.getByFileName(fileName), classLoaders.get(fileName), record.getId());
+        if (jar == null) {
+            return false;
+        }
+        registerLoader(jar);
+        for (ModuleScanner.ScannedModule module: jar.getModules()) {
+            PluginRecord jarRecord = pluginRecordHandler.getRecordById(module.getRecord().getId());
+            if (jarRecord != null && jarRecord.getInstance() == null) {
+                jarRecord.setInstance(module.getRecord().getInstance());
+            }
+        }
+        return record.getInstance() != null;
+    }
+    
+    /**
+     * Write all pending plugin and conflict records to disk. 
+     * Should be called on shutdown.
+     */
+    public void flush() {
+        pluginRecordHandler.flush();
+        conflictRecordHandler.flush();
+        moduleFingerprintHandler.flush();
+        jobQueue.flush();
+    }
+    
+    /**
+     * Process checking of single class. If class passes check 
+     * then it will be instanced and its conflicts stored.
      * @param givenClass loaded class;
      * @return plugin record with instance;
      */
     private PluginRecord tryModuleClass(Class givenClass) {
-        NebulaPlugin plugAnnotation = null;
-        try {
-            plugAnnotation = (NebulaPlugin) givenClass.getAnnotation(NebulaPlugin.class);
-            if (plugAnnotation != null && Plugable.class.isAssignableFrom(givenClass)) {
-                Plugable pluginInstance = (Plugable) givenClass.newInstance();
-                NebulaPluginConflict[] conflicts = (NebulaPluginConflict[]) givenClass.getAnnotationsByType(NebulaPluginConflict.class);
-                if (conflicts != null) {
-                    for (NebulaPluginConflict conflictEntry: conflicts) {
-                        processModuleConflicts(plugAnnotation.id(), conflictEntry);
-                    }
-                }
-                NebulaFeature[] features = (NebulaFeature[]) givenClass.getAnnotationsByType(NebulaFeature.class);
-                return new PluginRecord(plugAnnotation, features, pluginInstance);
-            } else {
-                return null;
+        ModuleScanner.ScannedModule module = ModuleScanner.inspect(givenClass);
+        if (module == null) {
+            return null;
+        }
+        profiler.record(module.getRecord().getId(), LifecycleProfiler.Phase.INSTANTIATE, module.getInstantiateNanos(), 
+                module.getRecord().getInstance() != null);
+        saveConflicts(module.getRecord().getId(), module.getConflicts());
+        return module.getRecord();
+    }
+    
+    /**
+     * Store scanned plugin and its conflicts.
+     * @param module scanned plugin;
+     */
+    private void saveModule(ModuleScanner.ScannedModule module) {
+        saveConflicts(module.getRecord().getId(), module.getConflicts());
+        pluginRecordHandler.save(module.getRecord());
+    }
+    
+    /**
+     * Store conflicts declared by plugin and drop conflicts which plugin no longer declares.
+     * @param pluginId id of plugin;
+     * @param conflicts conflict records;
+     */
+    private void saveConflicts(String pluginId, List<ConflictRecord> conflicts) {
+        for (ConflictRecord stale: conflictRecordHandler.getByPluginId(pluginId)) {
+            if (!conflicts.contains(stale)) {
+                conflictRecordHandler.delete(stale.getKey());
             }
-        } catch (IllegalAccessException ex) {
-            LOGGER.error("Class " + givenClass.getName() + " doesn't have public empty constructor.", ex);
-            return plugAnnotation != null ? new PluginRecord(plugAnnotation, null, null) : null;
-        } catch (InstantiationException ex) {
-            LOGGER.error("Class " + givenClass.getName() + " can't be instanced as object.", ex);
-            return plugAnnotation != null ? new PluginRecord(plugAnnotation, null, null) : null;
+        }
+        for (ConflictRecord conflict: conflicts) {
+            LOGGER.warn("add conflicvt record for plugin " + conflict.getPluginId() + " with conflict id " + conflict.getConflictId());
+            conflictRecordHandler.save(conflict);
         }
     }
     
     /**
-     * Process conflict annotation on plugin class.
-     * @param pluginId plugin id which marked by conflict;
-     * @param conflict annotation extracted from class;
+     * Find conflict of plugin with any started plugin.
+     * @param pluginId id of plugin to check;
+     * @return conflict record or null if plugin may be started;
      */
-    private void processModuleConflicts(String pluginId, NebulaPluginConflict conflict) {
-        LOGGER.warn("add conflicvt record for plugin " + pluginId + " with conflict id " + conflict.conflictId());
-        conflictRecordHandler.save(new ConflictRecord(pluginId, conflict));
+    private ConflictRecord findStartedConflict(String pluginId) {
+        for (Map.Entry<String, ConflictRecord> entry: conflictRecordHandler.getConflicting(pluginId).entrySet()) {
+            PluginRecord other = pluginRecordHandler.getRecordById(entry.getKey());
+            if (other != null && other.getStatus() == PluginStatus.STARTED) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Reject plugins which conflict with other plugins earlier by plugin id, 
+     * so same plugin wins on every boot regardless of storage order. 
+     * Rejected plugins get conflict error status.
+     * @param records records of plugins to start;
+     * @return records of plugins without conflicts in order of plugin id;
+     */
+    private List<PluginRecord> rejectConflicts(List<PluginRecord> records) {
+        List<PluginRecord> ordered = new ArrayList<>(records);
+        ordered.sort(Comparator.comparing(PluginRecord::getId));
+        List<PluginRecord> accepted = new ArrayList<>(records.size());
+        Set<String> acceptedIds = new HashSet<>();
+        for (PluginRecord record: ordered) {
+            ConflictRecord conflict = null;
+            for (Map.Entry<String, ConflictRecord> entry: conflictRecordHandler.getConflicting(record.getId()).entrySet()) {
+                if (acceptedIds.contains(entry.getKey())) {
+                    conflict = entry.getValue();
+                    break;
+                }
+            }
+            if (conflict != null) {
+                LOGGER.error("Plugin " + record.getId() + " won't start cause of conflict " + conflict.getPluginId() 
+                        + " -> " + conflict.getConflictId() + ": " + conflict.getConflictDescription());
+                record.setStatus(PluginStatus.CONFLICT_ERROR);
+                pluginRecordHandler.save(record);
+            } else {
+                accepted.add(record);
+                acceptedIds.add(record.getId());
+            }
+        }
+        return accepted;
     }
     
     /**
@@ -250,16 +1204,28 @@ public class PluginLoader {
      * corresponding to all successfull steps.
      * @param pluginId plugin to install and run;
      */
-    public void installAndStart(String pluginId) {
+    public synchronized void installAndStart(String pluginId) {
         PluginRecord record = pluginRecordHandler.getRecordById(pluginId);
         if (record != null) {
             LOGGER.warn("Installing plugin with id " + pluginId);
-            if (record.getStatus() != PluginStatus.INIT_ERROR) {
+            if (draining.contains(pluginId)) {
+                LOGGER.error("Plugin " + pluginId + " is stopping, can't install or start it now");
+                return;
+            }
+            ConflictRecord conflict = findStartedConflict(pluginId);
+            if (conflict != null) {
+                LOGGER.error("Plugin " + pluginId + " rejected cause of conflict " + conflict.getPluginId() 
+                        + " -> " + conflict.getConflictId() + ": " + conflict.getConflictDescription());
+                record.setStatus(PluginStatus.CONFLICT_ERROR);
+                pluginRecordHandler.save(record);
+            } else if (record.getStatus() != PluginStatus.INIT_ERROR && ensureInstance(record)) {
+                attachExecutor(record);
                 
                 //Install step
                 try {
-                    record.getInstance().install();
+                    profiler.measure(pluginId, LifecycleProfiler.Phase.INSTALL, record.getInstance()::install);
                     record.setStatus(PluginStatus.INSTALLED);
+                    pluginRecordHandler.save(record);
                 } catch (Exception ex) {
                     LOGGER.error("failed to install plugin " + pluginId, ex);
                     record.setStatus(PluginStatus.INSTALL_ERROR);
@@ -267,7 +1233,13 @@ public class PluginLoader {
                 
                 //Start step
                 try {
-                    record.getInstance().start();
+                    LazyActivator activator = LazyActivator.forRecord(record, lazyLifecycle);
+                    if (activator != null) {
+                        registerLazy(activator, record);
+                    } else {
+                        profiler.measure(pluginId, LifecycleProfiler.Phase.START, record.getInstance()::start);
+                        featureRouter.addProviders(record, openEndpoint(record));
+                    }
                     record.setStatus(PluginStatus.STARTED);
                 } catch (Exception ex) {
                     LOGGER.error("failed to start plugin " + pluginId, ex);
@@ -275,6 +1247,9 @@ public class PluginLoader {
                 }
                 
                 pluginRecordHandler.save(record);
+                if (record.getStatus() == PluginStatus.INSTALL_ERROR || record.getStatus() == PluginStatus.START_ERROR) {
+                    releaseResources(record);
+                }
             } else {
                 LOGGER.error("Pluggin unable to install or start cause initial error " + pluginId + " " + record.getStatus());
             }
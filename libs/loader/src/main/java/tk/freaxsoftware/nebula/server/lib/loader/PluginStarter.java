@@ -0,0 +1,306 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.nebula.server.lib.api.Features;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
+
+/**
+ * Concurrent starter of plugins. Plugins declare dependencies on other plugins 
+ * or on features by {@link NebulaPlugin} annotation. Independent plugins 
+ * started concurrently, dependent plugins wait for their dependencies. Plugins 
+ * in dependency cycle, plugins with failed dependencies and plugins which 
+ * don't start in time get {@link PluginStatus#START_ERROR} status. Plugin 
+ * which finishes start after timeout is stopped at once.
+ * @author Stanislav Nepochatov
+ */
+public class PluginStarter {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginStarter.class);
+    
+    /**
+     * Max time of single plugin start in milliseconds.
+     */
+    private final long timeout;
+    
+    /**
+     * Listener of start results.
+     */
+    private final Listener listener;
+    
+    /**
+     * Profiler of plugin lifecycle.
+     */
+    private final LifecycleProfiler profiler;
+
+    /**
+     * Listener of plugin start results. Called by starter threads.
+     */
+    public interface Listener {
+        
+        /**
+         * Plugin started in time. Called before start of dependent plugins.
+         * @param record plugin record;
+         */
+        void started(PluginRecord record);
+        
+        /**
+         * Plugin got {@link PluginStatus#START_ERROR} status and isn't running, 
+         * its resources should be released. Called again after stop of 
+         * plugin which finished start after timeout.
+         * @param record plugin record;
+         */
+        void failed(PluginRecord record);
+    }
+
+    /**
+     * Default constructor.
+     * @param timeout max time of single plugin start in milliseconds;
+     * @param listener listener of start results;
+     * @param profiler profiler of plugin lifecycle;
+     */
+    public PluginStarter(long timeout, Listener listener, LifecycleProfiler profiler) {
+        this.timeout = timeout;
+        this.listener = listener;
+        this.profiler = profiler;
+    }
+    
+    /**
+     * Start plugins and wait until all of them are started or failed.
+     * @param records records of plugins to start;
+     */
+    public void start(List<PluginRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        Map<String, PluginRecord> byId = new LinkedHashMap<>();
+        for (PluginRecord record: records) {
+            byId.put(record.getId(), record);
+        }
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        for (PluginRecord record: records) {
+            dependencies.put(record.getId(), resolveDependencies(record, byId));
+        }
+        Set<String> cyclic = findCycles(dependencies);
+        
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nebula-plugin-start-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nebula-plugin-start-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<String, CompletableFuture<Boolean>> results = new HashMap<>();
+            for (String pluginId: byId.keySet()) {
+                if (cyclic.contains(pluginId)) {
+                    LOGGER.error("Plugin " + pluginId + " is part of or depends on dependency cycle " + dependencies.get(pluginId));
+                    fail(byId.get(pluginId));
+                    results.put(pluginId, CompletableFuture.completedFuture(false));
+                }
+            }
+            for (String pluginId: byId.keySet()) {
+                schedule(pluginId, byId, dependencies, results, executor, timer);
+            }
+            CompletableFuture.allOf(results.values().toArray(new CompletableFuture[results.size()])).join();
+        } finally {
+            timer.shutdownNow();
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * Build start future of plugin after futures of its dependencies.
+     * @return start future of plugin;
+     */
+    private CompletableFuture<Boolean> schedule(String pluginId, Map<String, PluginRecord> byId, Map<String, Set<String>> dependencies, 
+            Map<String, CompletableFuture<Boolean>> results, ExecutorService executor, ScheduledExecutorService timer) {
+        CompletableFuture<Boolean> existing = results.get(pluginId);
+        if (existing != null) {
+            return existing;
+        }
+        List<CompletableFuture<Boolean>> waitFor = new ArrayList<>();
+        for (String dependency: dependencies.get(pluginId)) {
+            waitFor.add(schedule(dependency, byId, dependencies, results, executor, timer));
+        }
+        PluginRecord record = byId.get(pluginId);
+        CompletableFuture<Boolean> result = CompletableFuture.allOf(waitFor.toArray(new CompletableFuture[waitFor.size()]))
+                .thenCompose(ignored -> {
+                    for (CompletableFuture<Boolean> dependency: waitFor) {
+                        if (!dependency.join()) {
+                            LOGGER.error("Plugin " + pluginId + " not started, dependency failed");
+                            fail(record);
+                            return CompletableFuture.completedFuture(false);
+                        }
+                    }
+                    return startWithTimeout(record, executor, timer);
+                });
+        results.put(pluginId, result);
+        return result;
+    }
+    
+    /**
+     * Start single plugin with timeout.
+     * @param record plugin record;
+     * @return future of start result;
+     */
+    private CompletableFuture<Boolean> startWithTimeout(PluginRecord record, ExecutorService executor, ScheduledExecutorService timer) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicBoolean settled = new AtomicBoolean();
+        LOGGER.info("Starting plugin " + record.getId());
+        Future<?> task = executor.submit(() -> {
+            try {
+                profiler.measure(record.getId(), LifecycleProfiler.Phase.START, record.getInstance()::start);
+                if (settled.compareAndSet(false, true)) {
+                    listener.started(record);
+                    result.complete(true);
+                } else {
+                    LOGGER.warn("Plugin " + record.getId() + " started after timeout, stopping it");
+                    stopLate(record);
+                }
+            } catch (Exception ex) {
+                LOGGER.error("failed to start plugin " + record.getId(), ex);
+                if (settled.compareAndSet(false, true)) {
+                    fail(record);
+                    result.complete(false);
+                }
+            }
+        });
+        timer.schedule(() -> {
+            if (settled.compareAndSet(false, true)) {
+                LOGGER.error("Plugin " + record.getId() + " didn't start in " + timeout + " ms");
+                task.cancel(true);
+                fail(record);
+                result.complete(false);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        return result;
+    }
+    
+    /**
+     * Mark plugin as failed to start.
+     * @param record plugin record;
+     */
+    private void fail(PluginRecord record) {
+        record.setStatus(PluginStatus.START_ERROR);
+        listener.failed(record);
+    }
+    
+    /**
+     * Stop plugin which finished start after timeout and release its resources.
+     * @param record plugin record;
+     */
+    private void stopLate(PluginRecord record) {
+        try {
+            profiler.measure(record.getId(), LifecycleProfiler.Phase.STOP, record.getInstance()::stop);
+        } catch (Exception ex) {
+            LOGGER.error("failed to stop plugin " + record.getId(), ex);
+        }
+        listener.failed(record);
+    }
+    
+    /**
+     * Resolve declared dependencies of plugin to ids of started plugins.
+     * @param record plugin record;
+     * @param byId plugins to start by id;
+     * @return ids of dependencies;
+     */
+    private Set<String> resolveDependencies(PluginRecord record, Map<String, PluginRecord> byId) {
+        NebulaPlugin annotation = record.getInstance().getClass().getAnnotation(NebulaPlugin.class);
+        if (annotation == null) {
+            return Collections.emptySet();
+        }
+        Set<String> resolved = new LinkedHashSet<>();
+        for (String dependency: annotation.dependsOn()) {
+            if (byId.containsKey(dependency)) {
+                resolved.add(dependency);
+            } else {
+                LOGGER.warn("Plugin " + record.getId() + " depends on plugin " + dependency + " which isn't started");
+            }
+        }
+        for (Features feature: annotation.requiresFeatures()) {
+            boolean provided = false;
+            for (PluginRecord provider: byId.values()) {
+                if (provider != record && provider.getFeatures() != null && provider.getFeatures().containsKey(feature)) {
+                    resolved.add(provider.getId());
+                    provided = true;
+                }
+            }
+            if (!provided) {
+                LOGGER.warn("Plugin " + record.getId() + " requires feature " + feature + " which isn't provided by started plugins");
+            }
+        }
+        return resolved;
+    }
+    
+    /**
+     * Find plugins which belong to dependency cycles.
+     * @param dependencies dependencies of plugins;
+     * @return ids of plugins in cycles;
+     */
+    private Set<String> findCycles(Map<String, Set<String>> dependencies) {
+        Map<String, Integer> remaining = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry: dependencies.entrySet()) {
+            remaining.put(entry.getKey(), entry.getValue().size());
+            for (String dependency: entry.getValue()) {
+                dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        List<String> ready = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry: remaining.entrySet()) {
+            if (entry.getValue() == 0) {
+                ready.add(entry.getKey());
+            }
+        }
+        while (!ready.isEmpty()) {
+            String pluginId = ready.remove(ready.size() - 1);
+            remaining.remove(pluginId);
+            for (String dependent: dependents.getOrDefault(pluginId, Collections.emptyList())) {
+                int count = remaining.merge(dependent, -1, Integer::sum);
+                if (count == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        return remaining.keySet();
+    }
+}
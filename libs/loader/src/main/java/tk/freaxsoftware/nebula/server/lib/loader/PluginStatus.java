@@ -82,4 +82,24 @@ public enum PluginStatus {
      * System receivs error during plugin start.
      */
     START_ERROR,
+    
+    /**
+     * System receives error during plugin stop.
+     */
+    STOP_ERROR,
+    
+    /**
+     * System receives error during plugin uninstallation.
+     */
+    UNINSTALL_ERROR,
+    
+    /**
+     * System receives error during plugin data purge.
+     */
+    PURGE_ERROR,
+    
+    /**
+     * Plugin rejected cause it conflicts with already started plugin.
+     */
+    CONFLICT_ERROR,
 }
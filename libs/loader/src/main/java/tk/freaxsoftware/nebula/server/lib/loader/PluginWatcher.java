@@ -0,0 +1,147 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watcher of plugin directory. Reports created, changed and removed jar 
+ * files after they stay quiet for some time, so partially copied jars 
+ * are not reported.
+ * @author Stanislav Nepochatov
+ */
+public class PluginWatcher implements Closeable {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginWatcher.class);
+    
+    /**
+     * Watched plugin directory.
+     */
+    private final Path directory;
+    
+    /**
+     * Consumer of changed jar file names.
+     */
+    private final Consumer<String> listener;
+    
+    /**
+     * Time of jar inactivity before reporting in milliseconds.
+     */
+    private final long quietMillis;
+    
+    /**
+     * Watch service of directory.
+     */
+    private final WatchService watchService;
+    
+    /**
+     * Watching thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Default constructor.
+     * @param directory plugin directory;
+     * @param listener consumer of changed jar file names;
+     * @param quietMillis time of jar inactivity before reporting;
+     * @throws IOException if directory can't be watched;
+     */
+    public PluginWatcher(Path directory, Consumer<String> listener, long quietMillis) throws IOException {
+        this.directory = directory;
+        this.listener = listener;
+        this.quietMillis = quietMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, 
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.thread = new Thread(this::watch, "nebula-plugin-watcher");
+        this.thread.setDaemon(true);
+    }
+    
+    /**
+     * Start watching.
+     */
+    public void start() {
+        thread.start();
+        LOGGER.info("Watching plugin directory " + directory);
+    }
+    
+    /**
+     * Watching loop.
+     */
+    private void watch() {
+        Map<String, Long> pending = new LinkedHashMap<>();
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event: key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            LOGGER.warn("Plugin directory events lost, some changes may require restart");
+                            continue;
+                        }
+                        String fileName = ((Path) event.context()).getFileName().toString();
+                        if (fileName.endsWith(".jar")) {
+                            pending.put(fileName, System.currentTimeMillis());
+                        }
+                    }
+                    if (!key.reset()) {
+                        LOGGER.error("Plugin directory " + directory + " is no longer accessible");
+                        return;
+                    }
+                }
+                long now = System.currentTimeMillis();
+                Iterator<Map.Entry<String, Long>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, Long> entry = iterator.next();
+                    if (now - entry.getValue() >= quietMillis) {
+                        iterator.remove();
+                        try {
+                            listener.accept(entry.getKey());
+                        } catch (RuntimeException ex) {
+                            LOGGER.error("Unable to reload plugin jar " + entry.getKey(), ex);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            LOGGER.debug("Plugin watcher stopped");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import tk.freaxsoftware.nebula.server.lib.loader.BackgroundJob;
+import tk.freaxsoftware.nebula.server.lib.storage.IndexedEntityHandler;
+import tk.freaxsoftware.nebula.server.lib.storage.index.EnumIndex;
+import tk.freaxsoftware.nebula.server.lib.storage.index.SearchIndex;
+
+/**
+ * Background jobs handler.
+ * @author Stanislav Nepochatov
+ */
+public class BackgroundJobHandler extends IndexedEntityHandler<BackgroundJob, String> {
+    
+    /**
+     * Index of jobs by state.
+     */
+    private final EnumIndex<BackgroundJob, BackgroundJob.State> stateIndex = 
+            declareIndex(new EnumIndex<>(BackgroundJob.State.class, BackgroundJob::getState));
+    
+    /**
+     * Search index by job type.
+     */
+    private final SearchIndex<BackgroundJob> searchIndex = 
+            declareIndex(new SearchIndex<>(job -> Collections.singletonList(job.getType())));
+    
+    /**
+     * Last issued job id, zero until first use.
+     */
+    private final AtomicLong lastId = new AtomicLong();
+
+    public BackgroundJobHandler(String filePath) {
+        super(BackgroundJob.class, BackgroundJob.DEFINITION, filePath);
+    }
+
+    @Override
+    public String getNewKey() {
+        if (lastId.get() == 0) {
+            long max = 0;
+            for (BackgroundJob job: getAll()) {
+                try {
+                    max = Math.max(max, Long.parseLong(job.getId()));
+                } catch (NumberFormatException ex) {
+                    //Not generated id
+                }
+            }
+            lastId.compareAndSet(0, max);
+        }
+        return String.valueOf(lastId.incrementAndGet());
+    }
+
+    @Override
+    public List<BackgroundJob> find(String query) {
+        ensureIndexed();
+        return searchIndex.find(query, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public BackgroundJob getNewEntity() {
+        return new BackgroundJob();
+    }
+
+    @Override
+    public String getType() {
+        return BackgroundJob.TYPE;
+    }
+
+    @Override
+    public void onStorageCreation() {
+        //Do nothing
+    }
+    
+    /**
+     * Get jobs by state.
+     * @param state state to search;
+     * @return list of jobs with specified state;
+     */
+    public List<BackgroundJob> getByState(BackgroundJob.State state) {
+        ensureIndexed();
+        return stateIndex.get(state);
+    }
+}
@@ -18,16 +18,44 @@
  */
 package tk.freaxsoftware.nebula.server.lib.loader.storage;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import tk.freaxsoftware.extras.faststorage.storage.AbstractEntityHandler;
+import java.util.Map;
 import tk.freaxsoftware.nebula.server.lib.loader.ConflictRecord;
+import tk.freaxsoftware.nebula.server.lib.storage.IndexedEntityHandler;
+import tk.freaxsoftware.nebula.server.lib.storage.index.MultiIndex;
+import tk.freaxsoftware.nebula.server.lib.storage.index.SearchIndex;
 
 /**
  * Conflict record handler.
  * @author Stanislav Nepochatov
  */
-public class ConflictRecordHandler extends AbstractEntityHandler<ConflictRecord, String> {
+public class ConflictRecordHandler extends IndexedEntityHandler<ConflictRecord, String> {
+    
+    /**
+     * Index of conflicts by plugin which declares them.
+     */
+    private final MultiIndex<ConflictRecord, String> pluginIndex = 
+            declareIndex(MultiIndex.of(ConflictRecord::getPluginId));
+    
+    /**
+     * Index of conflicts by conflicting plugin id.
+     */
+    private final MultiIndex<ConflictRecord, String> conflictIndex = 
+            declareIndex(MultiIndex.of(ConflictRecord::getConflictId));
+    
+    /**
+     * Conflict graph: every record is an undirected edge indexed by both of its ends.
+     */
+    private final MultiIndex<ConflictRecord, String> graphIndex = 
+            declareIndex(MultiIndex.multiValued(record -> Arrays.asList(record.getPluginId(), record.getConflictId())));
+    
+    /**
+     * Search index by plugin id and conflict id.
+     */
+    private final SearchIndex<ConflictRecord> searchIndex = 
+            declareIndex(new SearchIndex<>(record -> Arrays.asList(record.getPluginId(), record.getConflictId())));
 
     public ConflictRecordHandler(String filePath) {
         super(ConflictRecord.class, ConflictRecord.DEFINITION, filePath);
@@ -40,16 +68,8 @@ public class ConflictRecordHandler extends AbstractEntityHandler<ConflictRecord,
 
     @Override
     public List<ConflictRecord> find(String query) {
-        List<ConflictRecord> list = new ArrayList<>();
-        synchronized (entitiesLock) {
-            for (ConflictRecord record: entitiesStore) {
-                if (record.getPluginId().equalsIgnoreCase(query) || record.getPluginId().contains(query)
-                        || record.getConflictId().equalsIgnoreCase(query) || record.getConflictId().contains(query)) {
-                    list.add(record);
-                }
-            }
-        }
-        return list;
+        ensureIndexed();
+        return searchIndex.find(query, Integer.MAX_VALUE);
     }
 
     @Override
@@ -67,4 +87,42 @@ public class ConflictRecordHandler extends AbstractEntityHandler<ConflictRecord,
         //Do nothing
     }
     
+    /**
+     * Get conflicts declared by specified plugin.
+     * @param pluginId id of plugin;
+     * @return list of conflict records;
+     */
+    public List<ConflictRecord> getByPluginId(String pluginId) {
+        ensureIndexed();
+        return pluginIndex.get(pluginId);
+    }
+    
+    /**
+     * Get conflicts which point to specified plugin.
+     * @param conflictId id of conflicting plugin;
+     * @return list of conflict records;
+     */
+    public List<ConflictRecord> getByConflictId(String conflictId) {
+        ensureIndexed();
+        return conflictIndex.get(conflictId);
+    }
+    
+    /**
+     * Get plugins which conflict with specified plugin in any direction. 
+     * Takes time proportional to count of conflicts of plugin.
+     * @param pluginId id of plugin;
+     * @return map of conflicting plugin ids to conflict records;
+     */
+    public Map<String, ConflictRecord> getConflicting(String pluginId) {
+        ensureIndexed();
+        Map<String, ConflictRecord> conflicting = new LinkedHashMap<>();
+        for (ConflictRecord record: graphIndex.get(pluginId)) {
+            String otherId = pluginId.equals(record.getPluginId()) ? record.getConflictId() : record.getPluginId();
+            if (!pluginId.equals(otherId)) {
+                conflicting.putIfAbsent(otherId, record);
+            }
+        }
+        return conflicting;
+    }
+    
 }
@@ -0,0 +1,77 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader.storage;
+
+import java.util.Collections;
+import java.util.List;
+import tk.freaxsoftware.nebula.server.lib.loader.ModuleFingerprint;
+import tk.freaxsoftware.nebula.server.lib.storage.IndexedEntityHandler;
+import tk.freaxsoftware.nebula.server.lib.storage.index.SearchIndex;
+
+/**
+ * Plugin jar fingerprints handler.
+ * @author Stanislav Nepochatov
+ */
+public class ModuleFingerprintHandler extends IndexedEntityHandler<ModuleFingerprint, String> {
+    
+    /**
+     * Search index by jar file name.
+     */
+    private final SearchIndex<ModuleFingerprint> searchIndex = 
+            declareIndex(new SearchIndex<>(fingerprint -> Collections.singletonList(fingerprint.getFileName())));
+
+    public ModuleFingerprintHandler(String filePath) {
+        super(ModuleFingerprint.class, ModuleFingerprint.DEFINITION, filePath);
+    }
+
+    @Override
+    public String getNewKey() {
+        throw new UnsupportedOperationException("Fingerprints are keyed by jar file name.");
+    }
+
+    @Override
+    public List<ModuleFingerprint> find(String query) {
+        ensureIndexed();
+        return searchIndex.find(query, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public ModuleFingerprint getNewEntity() {
+        return new ModuleFingerprint();
+    }
+
+    @Override
+    public String getType() {
+        return ModuleFingerprint.TYPE;
+    }
+
+    @Override
+    public void onStorageCreation() {
+        //Do nothing
+    }
+    
+    /**
+     * Get fingerprint of jar file.
+     * @param fileName name of jar file;
+     * @return fingerprint or null if jar wasn't scanned before;
+     */
+    public ModuleFingerprint getByFileName(String fileName) {
+        return getByKey(fileName);
+    }
+}
@@ -18,18 +18,38 @@
  */
 package tk.freaxsoftware.nebula.server.lib.loader.storage;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import tk.freaxsoftware.extras.faststorage.storage.AbstractEntityHandler;
 import tk.freaxsoftware.nebula.server.lib.api.Features;
 import tk.freaxsoftware.nebula.server.lib.loader.PluginRecord;
 import tk.freaxsoftware.nebula.server.lib.loader.PluginStatus;
+import tk.freaxsoftware.nebula.server.lib.storage.IndexedEntityHandler;
+import tk.freaxsoftware.nebula.server.lib.storage.index.EnumIndex;
+import tk.freaxsoftware.nebula.server.lib.storage.index.SearchIndex;
 
 /**
  * Plugin record entity handler.
  * @author Stanislav Nepochatov
  */
-public class PluginRecordHandler extends AbstractEntityHandler<PluginRecord, String> {
+public class PluginRecordHandler extends IndexedEntityHandler<PluginRecord, String> {
+    
+    /**
+     * Index of records by status.
+     */
+    private final EnumIndex<PluginRecord, PluginStatus> statusIndex = 
+            declareIndex(new EnumIndex<>(PluginStatus.class, PluginRecord::getStatus));
+    
+    /**
+     * Index of records by provided features.
+     */
+    private final EnumIndex<PluginRecord, Features> featureIndex = 
+            declareIndex(EnumIndex.multiValued(Features.class, record -> record.getFeatures() != null ? record.getFeatures().keySet() : null));
+    
+    /**
+     * Search index by plugin id.
+     */
+    private final SearchIndex<PluginRecord> searchIndex = 
+            declareIndex(new SearchIndex<>(record -> Collections.singletonList(record.getId())));
 
     public PluginRecordHandler(String filePath) {
         super(PluginRecord.class, PluginRecord.DEFINITION, filePath);
@@ -42,15 +62,8 @@ public class PluginRecordHandler extends AbstractEntityHandler<PluginRecord, Str
 
     @Override
     public List<PluginRecord> find(String query) {
-        List<PluginRecord> list = new ArrayList<>();
-        synchronized (entitiesLock) {
-            for (PluginRecord record: entitiesStore) {
-                if (record.getId().equalsIgnoreCase(query) || record.getId().contains(query)) {
-                    list.add(record);
-                }
-            }
-        }
-        return list;
+        ensureIndexed();
+        return searchIndex.find(query, Integer.MAX_VALUE);
     }
 
     @Override
@@ -63,32 +76,31 @@ public class PluginRecordHandler extends AbstractEntityHandler<PluginRecord, Str
         return PluginRecord.TYPE;
     }
 
+    @Override
+    protected PluginRecord merge(PluginRecord stored, PluginRecord entity) {
+        if (stored.getStatus() != PluginStatus.PRESENT && entity.getStatus() == PluginStatus.PRESENT) {
+            entity.setStatus(stored.getStatus());
+        }
+        return entity;
+    }
+
     /**
      * Get plugin record with specified id.
      * @param pluginId id to search;
      * @return record or null if not found;
      */
     public PluginRecord getRecordById(String pluginId) {
-        synchronized (entitiesLock) {
-            for (PluginRecord record: entitiesStore) {
-                if (record.getId().equals(pluginId)) {
-                    return record;
-                }
-            }
-        }
-        return null;
+        return getByKey(pluginId);
     }
     
+    /**
+     * Get plugin records which provide specified feature.
+     * @param feature feature to search;
+     * @return list of records with specified feature;
+     */
     public List<PluginRecord> getRecordsByFeature(Features feature) {
-        List<PluginRecord> result = new ArrayList<>();
-        synchronized (entitiesLock) {
-            for (PluginRecord record: entitiesStore) {
-                if (record.getFeatures().containsKey(feature)) {
-                    result.add(record);
-                }
-            }
-        }
-        return result;
+        ensureIndexed();
+        return featureIndex.get(feature);
     }
 
     @Override
@@ -102,14 +114,7 @@ public class PluginRecordHandler extends AbstractEntityHandler<PluginRecord, Str
      * @return list of records with specified status;
      */
     public List<PluginRecord> getByStatus(PluginStatus status) {
-        List<PluginRecord> result = new ArrayList<>();
-        synchronized(this.entitiesLock) {
-            for (PluginRecord record: entitiesStore) {
-                if (record.getStatus() == status) {
-                    result.add(record);
-                }
-            }
-        }
-        return result;
+        ensureIndexed();
+        return statusIndex.get(status);
     }
 }
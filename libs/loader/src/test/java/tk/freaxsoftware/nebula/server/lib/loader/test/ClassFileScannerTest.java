@@ -0,0 +1,211 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
+import tk.freaxsoftware.nebula.server.lib.api.PluginTypes;
+import tk.freaxsoftware.nebula.server.lib.loader.ClassFileScanner;
+
+/**
+ * Class file annotations reader unit test.
+ * @author Stanislav Nepochatov
+ */
+public class ClassFileScannerTest {
+    
+    private static final String PLUGIN_DESCRIPTOR = "L" + NebulaPlugin.class.getName().replace('.', '/') + ";";
+    
+    @NebulaPlugin(id = "compiled", name = "Compiled", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0", dependsOn = {"A", "B"})
+    private static class CompiledPlugin {
+        
+        static final long LONG_VALUE = Long.MAX_VALUE - 1;
+        
+        static final double DOUBLE_VALUE = Math.PI;
+        
+        static final String NAME = "compiled";
+    }
+    
+    private static class PlainClass {
+        
+        static final long LONG_VALUE = Long.MIN_VALUE + 1;
+        
+        static final double DOUBLE_VALUE = Math.E;
+    }
+    
+    @Test
+    public void compiledPluginTest() throws IOException {
+        ClassFileScanner.AnnotatedClass annotated = read(CompiledPlugin.class);
+        assertEquals(CompiledPlugin.class.getName(), annotated.getClassName());
+        assertTrue(annotated.isAnnotatedWith(NebulaPlugin.class));
+    }
+    
+    @Test
+    public void compiledPlainTest() throws IOException {
+        ClassFileScanner.AnnotatedClass annotated = read(PlainClass.class);
+        assertEquals(PlainClass.class.getName(), annotated.getClassName());
+        assertTrue(annotated.getAnnotations().isEmpty());
+        assertFalse(annotated.isAnnotatedWith(NebulaPlugin.class));
+    }
+    
+    @Test
+    public void constantTagsTest() throws IOException {
+        ClassFileScanner.AnnotatedClass annotated = ClassFileScanner.read(new ByteArrayInputStream(fixture(true)));
+        assertEquals("test.Fixture", annotated.getClassName());
+        assertEquals(new HashSet<>(Arrays.asList(NebulaPlugin.class.getName(), "test.Other")), annotated.getAnnotations());
+    }
+    
+    @Test
+    public void constantTagsPlainTest() throws IOException {
+        ClassFileScanner.AnnotatedClass annotated = ClassFileScanner.read(new ByteArrayInputStream(fixture(false)));
+        assertEquals("test.Fixture", annotated.getClassName());
+        assertTrue(annotated.getAnnotations().isEmpty());
+    }
+    
+    @Test(expected = IOException.class)
+    public void brokenMagicTest() throws IOException {
+        byte[] bytes = fixture(false);
+        bytes[0] = 0;
+        ClassFileScanner.read(new ByteArrayInputStream(bytes));
+    }
+    
+    @Test(expected = IOException.class)
+    public void unknownTagTest() throws IOException {
+        byte[] bytes = fixture(false);
+        bytes[10] = 99;
+        ClassFileScanner.read(new ByteArrayInputStream(bytes));
+    }
+    
+    private static ClassFileScanner.AnnotatedClass read(Class type) throws IOException {
+        try (InputStream stream = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+            return ClassFileScanner.read(stream);
+        }
+    }
+    
+    /**
+     * Build class file with constant pool tags which javac of Java 8 never 
+     * emits: dynamic constant, module and package, next to long and double 
+     * entries which take two pool slots.
+     * @param annotated add runtime visible annotations attribute;
+     * @return class file bytes;
+     */
+    private static byte[] fixture(boolean annotated) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(55);
+        out.writeShort(27);
+        utf8(out, "test/Fixture");                  //1
+        ref(out, 7, 1);                             //2 Class
+        utf8(out, "java/lang/Object");              //3
+        ref(out, 7, 3);                             //4 Class
+        out.writeByte(5);                           //5-6 Long
+        out.writeLong(Long.MAX_VALUE);
+        out.writeByte(6);                           //7-8 Double
+        out.writeDouble(Math.PI);
+        utf8(out, "value");                         //9
+        utf8(out, "I");                             //10
+        ref(out, 12, 9, 10);                        //11 NameAndType
+        ref(out, 17, 0, 11);                        //12 Dynamic
+        ref(out, 18, 0, 11);                        //13 InvokeDynamic
+        ref(out, 19, 1);                            //14 Module
+        ref(out, 20, 1);                            //15 Package
+        ref(out, 16, 10);                           //16 MethodType
+        ref(out, 9, 2, 11);                         //17 Fieldref
+        out.writeByte(15);                          //18 MethodHandle
+        out.writeByte(1);
+        out.writeShort(17);
+        utf8(out, "RuntimeVisibleAnnotations");     //19
+        utf8(out, PLUGIN_DESCRIPTOR);               //20
+        out.writeByte(3);                           //21 Integer
+        out.writeInt(42);
+        out.writeByte(4);                           //22 Float
+        out.writeFloat(1.5f);
+        ref(out, 8, 9);                             //23 String
+        utf8(out, "Ltest/Other;");                  //24
+        utf8(out, "SourceFile");                    //25
+        ref(out, 10, 2, 11);                        //26 Methodref
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(annotated ? 2 : 1);
+        out.writeShort(25);
+        out.writeInt(2);
+        out.writeShort(1);
+        if (annotated) {
+            ByteArrayOutputStream attribute = new ByteArrayOutputStream();
+            DataOutputStream annotations = new DataOutputStream(attribute);
+            annotations.writeShort(2);
+            annotations.writeShort(20);
+            annotations.writeShort(4);
+            annotations.writeShort(9);
+            annotations.writeByte('I');
+            annotations.writeShort(21);
+            annotations.writeShort(9);
+            annotations.writeByte('e');
+            annotations.writeShort(20);
+            annotations.writeShort(9);
+            annotations.writeShort(9);
+            annotations.writeByte('[');
+            annotations.writeShort(2);
+            annotations.writeByte('s');
+            annotations.writeShort(9);
+            annotations.writeByte('J');
+            annotations.writeShort(5);
+            annotations.writeShort(9);
+            annotations.writeByte('@');
+            annotations.writeShort(24);
+            annotations.writeShort(1);
+            annotations.writeShort(9);
+            annotations.writeByte('c');
+            annotations.writeShort(10);
+            annotations.writeShort(24);
+            annotations.writeShort(0);
+            out.writeShort(19);
+            out.writeInt(attribute.size());
+            attribute.writeTo(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+    
+    private static void ref(DataOutputStream out, int tag, int... indexes) throws IOException {
+        out.writeByte(tag);
+        for (int index: indexes) {
+            out.writeShort(index);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.api.PluginScheduler;
+import tk.freaxsoftware.nebula.server.lib.loader.HashedWheelScheduler;
+
+/**
+ * Hashed timing wheel unit test.
+ * @author Stanislav Nepochatov
+ */
+public class HashedWheelSchedulerTest {
+    
+    private HashedWheelScheduler scheduler;
+    
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+    
+    @Test
+    public void fireTest() throws InterruptedException {
+        scheduler = new HashedWheelScheduler(10, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+        PluginScheduler.Timeout timeout = scheduler.bind("test", Runnable::run).schedule(latch::countDown, 30, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        assertEquals(0, scheduler.getScheduled());
+    }
+    
+    @Test
+    public void cancelBeforePlacementTest() throws InterruptedException {
+        scheduler = new HashedWheelScheduler(200, 8);
+        AtomicInteger runs = new AtomicInteger();
+        PluginScheduler.Timeout timeout = scheduler.bind("test", Runnable::run).schedule(runs::incrementAndGet, 0, TimeUnit.MILLISECONDS);
+        assertEquals(1, scheduler.getScheduled());
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        Thread.sleep(500);
+        assertEquals(0, runs.get());
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, scheduler.getScheduled());
+    }
+    
+    @Test
+    public void cancelAfterPlacementTest() throws InterruptedException {
+        scheduler = new HashedWheelScheduler(10, 8);
+        AtomicInteger runs = new AtomicInteger();
+        PluginScheduler.Timeout timeout = scheduler.bind("test", Runnable::run).schedule(runs::incrementAndGet, 300, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+        assertTrue(timeout.cancel());
+        Thread.sleep(400);
+        assertEquals(0, runs.get());
+        assertFalse(timeout.isExpired());
+        assertEquals(0, scheduler.getScheduled());
+    }
+    
+    @Test
+    public void periodicTest() throws InterruptedException {
+        scheduler = new HashedWheelScheduler(10, 8);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(3);
+        PluginScheduler.Timeout timeout = scheduler.bind("test", Runnable::run).scheduleAtFixedRate(() -> {
+            runs.incrementAndGet();
+            latch.countDown();
+        }, 0, 20, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertFalse(timeout.isExpired());
+        assertEquals(1, scheduler.getScheduled());
+        assertTrue(timeout.cancel());
+        Thread.sleep(50);
+        int stopped = runs.get();
+        Thread.sleep(200);
+        assertEquals(stopped, runs.get());
+        assertEquals(0, scheduler.getScheduled());
+    }
+    
+    @Test
+    public void multiRoundTest() throws InterruptedException {
+        scheduler = new HashedWheelScheduler(10, 4);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        PluginScheduler.Timeout timeout = scheduler.bind("test", Runnable::run).schedule(latch::countDown, 250, TimeUnit.MILLISECONDS);
+        assertFalse(latch.await(150, TimeUnit.MILLISECONDS));
+        assertFalse(timeout.isExpired());
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+        assertTrue(timeout.isExpired());
+    }
+    
+    @Test
+    public void boundCloseTest() throws InterruptedException {
+        scheduler = new HashedWheelScheduler(10, 8);
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelScheduler.Bound bound = scheduler.bind("test", Runnable::run);
+        bound.schedule(runs::incrementAndGet, 100, TimeUnit.MILLISECONDS);
+        PluginScheduler.Timeout periodic = bound.scheduleAtFixedRate(runs::incrementAndGet, 100, 20, TimeUnit.MILLISECONDS);
+        assertEquals(2, scheduler.getScheduled());
+        bound.close();
+        Thread.sleep(300);
+        assertEquals(0, runs.get());
+        assertTrue(periodic.isCancelled());
+        assertEquals(0, scheduler.getScheduled());
+    }
+}
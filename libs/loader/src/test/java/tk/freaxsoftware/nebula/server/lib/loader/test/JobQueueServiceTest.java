@@ -0,0 +1,180 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.loader.BackgroundJob;
+import tk.freaxsoftware.nebula.server.lib.loader.JobQueueService;
+import tk.freaxsoftware.nebula.server.lib.loader.storage.BackgroundJobHandler;
+
+/**
+ * Persistent job queue unit test. Restart of server simulated by new 
+ * service over same job storage.
+ * @author Stanislav Nepochatov
+ */
+public class JobQueueServiceTest {
+    
+    private static final String TYPE = "TEST";
+    
+    private static final String OWNER = "test";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private BackgroundJobHandler jobHandler;
+    
+    @Before
+    public void setUp() {
+        jobHandler = new BackgroundJobHandler(new File(folder.getRoot(), "jobs.ecsv").getPath());
+        jobHandler.enableWriteBehind(TimeUnit.MINUTES.toMillis(10), Integer.MAX_VALUE);
+    }
+    
+    @Test
+    public void checkpointTest() throws InterruptedException {
+        JobQueueService service = new JobQueueService(jobHandler);
+        service.registerType(OWNER, TYPE, 1, context -> {
+            for (int i = 1; i <= 3; i++) {
+                context.checkpoint(String.valueOf(i));
+            }
+        });
+        String jobId = service.submit(OWNER, TYPE, "payload");
+        BackgroundJob job = await(jobId, BackgroundJob.State.DONE);
+        assertEquals("3", job.getCheckpoint());
+        assertEquals(1, job.getAttempts());
+    }
+    
+    @Test
+    public void resumeAfterStopTest() throws InterruptedException {
+        JobQueueService service = new JobQueueService(jobHandler);
+        CountDownLatch checkpointed = new CountDownLatch(1);
+        service.registerType(OWNER, TYPE, 1, context -> {
+            context.checkpoint("half");
+            checkpointed.countDown();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        });
+        String jobId = service.submit(OWNER, TYPE, "payload");
+        assertTrue(checkpointed.await(1, TimeUnit.SECONDS));
+        service.unregisterTypes(OWNER);
+        BackgroundJob job = jobHandler.getByKey(jobId);
+        assertEquals(BackgroundJob.State.RUNNING, job.getState());
+        assertEquals(0, job.getAttempts());
+        
+        JobQueueService restarted = new JobQueueService(jobHandler);
+        List<String> checkpoints = Collections.synchronizedList(new ArrayList<>());
+        restarted.registerType(OWNER, TYPE, 1, context -> checkpoints.add(context.getCheckpoint()));
+        job = await(jobId, BackgroundJob.State.DONE);
+        assertEquals(Collections.singletonList("half"), checkpoints);
+        assertEquals(1, job.getAttempts());
+    }
+    
+    @Test
+    public void resumeAfterCrashTest() throws InterruptedException {
+        BackgroundJob crashed = new BackgroundJob(jobHandler.getNewKey(), TYPE, OWNER, "crashed");
+        crashed.setState(BackgroundJob.State.RUNNING);
+        crashed.setAttempts(1);
+        crashed.setCheckpoint("10");
+        jobHandler.create(crashed);
+        JobQueueService service = new JobQueueService(jobHandler);
+        String queuedId = service.submit(OWNER, TYPE, "queued");
+        List<String> runs = Collections.synchronizedList(new ArrayList<>());
+        service.registerType(OWNER, TYPE, 1, context -> runs.add(context.getPayload() + ":" + context.getCheckpoint()));
+        await(crashed.getId(), BackgroundJob.State.DONE);
+        await(queuedId, BackgroundJob.State.DONE);
+        assertEquals(2, runs.size());
+        assertEquals("crashed:10", runs.get(0));
+        assertEquals("queued:null", runs.get(1));
+        assertEquals(2, jobHandler.getByKey(crashed.getId()).getAttempts());
+    }
+    
+    @Test
+    public void attemptLimitTest() throws InterruptedException {
+        BackgroundJob crashed = new BackgroundJob(jobHandler.getNewKey(), TYPE, OWNER, "crashed");
+        crashed.setState(BackgroundJob.State.RUNNING);
+        crashed.setAttempts(3);
+        jobHandler.create(crashed);
+        AtomicInteger runs = new AtomicInteger();
+        new JobQueueService(jobHandler, 3).registerType(OWNER, TYPE, 1, context -> runs.incrementAndGet());
+        BackgroundJob job = await(crashed.getId(), BackgroundJob.State.FAILED);
+        assertEquals(0, runs.get());
+        assertNotNull(job.getError());
+    }
+    
+    @Test
+    public void cancelTest() throws InterruptedException {
+        JobQueueService service = new JobQueueService(jobHandler);
+        String queuedId = service.submit(OWNER, TYPE, "queued");
+        assertTrue(service.cancel(queuedId));
+        assertFalse(service.cancel(queuedId));
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        service.registerType(OWNER, TYPE, 1, context -> {
+            runs.incrementAndGet();
+            started.countDown();
+            while (!context.isCancelled()) {
+                Thread.sleep(5);
+            }
+        });
+        String runningId = service.submit(OWNER, TYPE, "running");
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertTrue(service.cancel(runningId));
+        await(runningId, BackgroundJob.State.CANCELLED);
+        assertEquals(BackgroundJob.State.CANCELLED, jobHandler.getByKey(queuedId).getState());
+        assertEquals(1, runs.get());
+        assertFalse(service.cancel(runningId));
+    }
+    
+    @Test
+    public void persistTest() {
+        JobQueueService service = new JobQueueService(jobHandler);
+        String jobId = service.submit(OWNER, TYPE, "payload");
+        assertTrue(jobHandler.whenFlushed().isDone());
+        BackgroundJob queued = jobHandler.getByKey(jobId);
+        assertTrue(service.cancel(jobId));
+        assertEquals(BackgroundJob.State.QUEUED, queued.getState());
+        assertEquals(BackgroundJob.State.CANCELLED, jobHandler.getByKey(jobId).getState());
+    }
+    
+    /**
+     * Wait for state of job.
+     * @param jobId id of job;
+     * @param state expected state;
+     * @return job;
+     */
+    private BackgroundJob await(String jobId, BackgroundJob.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(2);
+        BackgroundJob job = jobHandler.getByKey(jobId);
+        while (job.getState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            job = jobHandler.getByKey(jobId);
+        }
+        assertEquals(state, job.getState());
+        return job;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader.test;
+
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.loader.LazyActivator;
+import tk.freaxsoftware.nebula.server.lib.loader.PluginEndpoint;
+import tk.freaxsoftware.nebula.server.lib.loader.PluginRecord;
+
+/**
+ * Lazy plugin activator unit test.
+ * @author Stanislav Nepochatov
+ */
+public class LazyActivatorTest {
+    
+    /**
+     * Failed start isn't retried and activation messages are rejected with start error.
+     * @throws Exception on test error;
+     */
+    @Test
+    public void failedStartTest() throws Exception {
+        PluginRecord record = new PluginRecord();
+        record.setId("L");
+        AtomicInteger starts = new AtomicInteger();
+        IllegalStateException error = new IllegalStateException("Start failed");
+        LazyActivator activator = new LazyActivator(record, new String[] {"L.Message"}, 0, new LazyActivator.Lifecycle() {
+            
+            @Override
+            public PluginEndpoint start(PluginRecord record) throws Exception {
+                starts.incrementAndGet();
+                throw error;
+            }
+
+            @Override
+            public void stop(PluginRecord record) throws Exception {
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            try {
+                activator.receive("L.Message", new HashMap<>(), new HashMap<>());
+                fail("Message delivered to failed plugin");
+            } catch (RejectedExecutionException ex) {
+                assertSame(error, ex.getCause());
+            }
+        }
+        assertEquals(1, starts.get());
+        assertFalse(activator.isActive());
+    }
+}
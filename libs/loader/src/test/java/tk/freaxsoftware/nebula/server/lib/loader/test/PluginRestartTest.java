@@ -0,0 +1,142 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.extras.bus.Receiver;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
+import tk.freaxsoftware.nebula.server.lib.api.Plugable;
+import tk.freaxsoftware.nebula.server.lib.loader.ClassLoaderRegistry;
+import tk.freaxsoftware.nebula.server.lib.loader.ModuleScanner;
+
+/**
+ * Restart of single plugin from jar with several plugins.
+ * @author Stanislav Nepochatov
+ */
+public class PluginRestartTest {
+    
+    private static final String PLUGIN = "package test;\n"
+            + "import tk.freaxsoftware.nebula.server.lib.api.*;\n"
+            + "@NebulaPlugin(id = \"%s\", name = \"Test\", type = PluginTypes.GENERIC, description = \"\", homepage = \"\", "
+            + "icon = \"\", versionCode = 1, versionName = \"1\")\n"
+            + "public class %s implements Plugable {\n"
+            + "    public void install() {}\n"
+            + "    public void start() {}\n"
+            + "    public void stop() {}\n"
+            + "    public void uninstall() {}\n"
+            + "    public void purge() { new Helper(); }\n"
+            + "}\n";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void restartTest() throws Exception {
+        File jarFile = buildJar();
+        ClassLoaderRegistry registry = new ClassLoaderRegistry();
+        ModuleScanner scanner = new ModuleScanner();
+        ModuleScanner.ScannedJar jar = scanner.scanFile(jarFile, null);
+        assertEquals(2, jar.getModules().size());
+        registry.register(jarFile.getName(), jar.getClassLoader());
+        Plugable first = jar.getModules().get(0).getRecord().getInstance();
+        Plugable second = jar.getModules().get(1).getRecord().getInstance();
+        assertEquals("test.First", first.getClass().getName());
+        first.start();
+        second.start();
+        
+        first.stop();
+        first = null;
+        
+        ModuleScanner.ScannedJar restarted = scanner.loadPlugin(jarFile, jar.getFingerprint(), 
+                registry.get(jarFile.getName()), "first");
+        assertNotNull(restarted);
+        assertEquals(1, restarted.getModules().size());
+        assertSame(jar.getClassLoader(), restarted.getClassLoader());
+        registry.register(jarFile.getName(), restarted.getClassLoader());
+        Plugable restartedFirst = restarted.getModules().get(0).getRecord().getInstance();
+        assertSame(second.getClass().getClassLoader(), restartedFirst.getClass().getClassLoader());
+        restartedFirst.start();
+        second.purge();
+        assertEquals(Collections.singletonList(jarFile.getName()), registry.report().getLiveLoaders());
+        assertTrue(registry.report().getPendingLoaders().isEmpty());
+        
+        registry.release(jarFile.getName());
+        ModuleScanner.ScannedJar reloaded = scanner.loadPlugin(jarFile, jar.getFingerprint(), 
+                registry.get(jarFile.getName()), "first");
+        assertNotSame(jar.getClassLoader(), reloaded.getClassLoader());
+        registry.discard(jarFile.getName(), reloaded.getClassLoader());
+    }
+    
+    /**
+     * Compile two plugins and helper class loaded only on demand into jar.
+     * @return jar file;
+     */
+    private File buildJar() throws Exception {
+        File sources = folder.newFolder("src");
+        File classes = folder.newFolder("classes");
+        List<File> files = new ArrayList<>();
+        files.add(source(sources, "First", String.format(PLUGIN, "first", "First")));
+        files.add(source(sources, "Second", String.format(PLUGIN, "second", "Second")));
+        files.add(source(sources, "Helper", "package test;\npublic class Helper {}\n"));
+        String classpath = location(NebulaPlugin.class) + File.pathSeparator + location(Receiver.class);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager manager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            assertTrue(compiler.getTask(null, manager, null, Arrays.asList("-proc:none", "-classpath", classpath, "-d", classes.getPath()), 
+                    null, manager.getJavaFileObjects(files.toArray(new File[0]))).call());
+        }
+        File jarFile = new File(folder.getRoot(), "plugins.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile))) {
+            for (String name: new String[] {"First", "Second", "Helper"}) {
+                out.putNextEntry(new JarEntry("test/" + name + ".class"));
+                out.write(Files.readAllBytes(new File(classes, "test/" + name + ".class").toPath()));
+                out.closeEntry();
+            }
+        }
+        return jarFile;
+    }
+    
+    private static File source(File directory, String name, String content) throws IOException {
+        File file = new File(directory, name + ".java");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+    
+    private static String location(Class type) throws Exception {
+        Path path = new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toPath();
+        return path.toString();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of Nebula plugin loader library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.loader.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.api.NebulaPlugin;
+import tk.freaxsoftware.nebula.server.lib.api.Plugable;
+import tk.freaxsoftware.nebula.server.lib.api.PluginTypes;
+import tk.freaxsoftware.nebula.server.lib.loader.LifecycleProfiler;
+import tk.freaxsoftware.nebula.server.lib.loader.PluginRecord;
+import tk.freaxsoftware.nebula.server.lib.loader.PluginStarter;
+import tk.freaxsoftware.nebula.server.lib.loader.PluginStatus;
+
+/**
+ * Concurrent plugin starter unit test.
+ * @author Stanislav Nepochatov
+ */
+public class PluginStarterTest {
+    
+    /**
+     * Ids of plugins in order of start.
+     */
+    private static final List<String> STARTED = Collections.synchronizedList(new ArrayList<>());
+    
+    private static abstract class TestPlugin implements Plugable {
+
+        @Override
+        public void install() throws Exception {
+        }
+
+        @Override
+        public void start() throws Exception {
+            STARTED.add(getClass().getAnnotation(NebulaPlugin.class).id());
+        }
+
+        @Override
+        public void stop() throws Exception {
+        }
+
+        @Override
+        public void uninstall() throws Exception {
+        }
+
+        @Override
+        public void purge() throws Exception {
+        }
+    }
+    
+    @NebulaPlugin(id = "A", name = "A", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0", dependsOn = "B")
+    private static class PluginA extends TestPlugin {
+    }
+    
+    @NebulaPlugin(id = "B", name = "B", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0", dependsOn = "C")
+    private static class PluginB extends TestPlugin {
+    }
+    
+    @NebulaPlugin(id = "C", name = "C", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0")
+    private static class PluginC extends TestPlugin {
+    }
+    
+    @NebulaPlugin(id = "X", name = "X", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0", dependsOn = "Y")
+    private static class PluginX extends TestPlugin {
+    }
+    
+    @NebulaPlugin(id = "Y", name = "Y", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0", dependsOn = "X")
+    private static class PluginY extends TestPlugin {
+    }
+    
+    @NebulaPlugin(id = "Z", name = "Z", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0", dependsOn = "X")
+    private static class PluginZ extends TestPlugin {
+    }
+    
+    @NebulaPlugin(id = "F", name = "F", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0")
+    private static class FailingPlugin extends TestPlugin {
+
+        @Override
+        public void start() throws Exception {
+            throw new IllegalStateException("Start failed");
+        }
+    }
+    
+    @NebulaPlugin(id = "D", name = "D", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0", dependsOn = "F")
+    private static class DependentPlugin extends TestPlugin {
+    }
+    
+    @NebulaPlugin(id = "S", name = "S", type = PluginTypes.GENERIC, description = "", homepage = "", icon = "", 
+            versionCode = 0, versionName = "0")
+    private static class SlowPlugin extends TestPlugin {
+        
+        private final CountDownLatch release = new CountDownLatch(1);
+        
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        @Override
+        public void start() throws Exception {
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    //Ignore cancel of start.
+                }
+            }
+        }
+
+        @Override
+        public void stop() throws Exception {
+            stopped.countDown();
+        }
+    }
+    
+    /**
+     * Listener which records callbacks.
+     */
+    private static class RecordingListener implements PluginStarter.Listener {
+        
+        private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+        
+        private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void started(PluginRecord record) {
+            started.add(record.getId());
+        }
+
+        @Override
+        public void failed(PluginRecord record) {
+            failed.add(record.getId());
+        }
+    }
+    
+    private static PluginRecord record(Plugable instance) {
+        PluginRecord record = new PluginRecord();
+        record.setId(instance.getClass().getAnnotation(NebulaPlugin.class).id());
+        record.setInstance(instance);
+        record.setStatus(PluginStatus.STARTED);
+        return record;
+    }
+    
+    @Test
+    public void dependencyOrderTest() {
+        STARTED.clear();
+        List<PluginRecord> records = Arrays.asList(record(new PluginA()), record(new PluginB()), record(new PluginC()));
+        RecordingListener listener = new RecordingListener();
+        new PluginStarter(1000, listener, new LifecycleProfiler(1)).start(records);
+        assertEquals(Arrays.asList("C", "B", "A"), STARTED);
+        assertEquals(Arrays.asList("C", "B", "A"), listener.started);
+        for (PluginRecord record: records) {
+            assertEquals(PluginStatus.STARTED, record.getStatus());
+        }
+    }
+    
+    @Test
+    public void cycleTest() {
+        STARTED.clear();
+        PluginRecord x = record(new PluginX());
+        PluginRecord y = record(new PluginY());
+        PluginRecord z = record(new PluginZ());
+        PluginRecord c = record(new PluginC());
+        RecordingListener listener = new RecordingListener();
+        new PluginStarter(1000, listener, new LifecycleProfiler(1)).start(Arrays.asList(x, y, z, c));
+        assertEquals(Collections.singletonList("C"), STARTED);
+        assertEquals(PluginStatus.START_ERROR, x.getStatus());
+        assertEquals(PluginStatus.START_ERROR, y.getStatus());
+        assertEquals(PluginStatus.START_ERROR, z.getStatus());
+        assertEquals(PluginStatus.STARTED, c.getStatus());
+        assertTrue(listener.failed.containsAll(Arrays.asList("X", "Y", "Z")));
+    }
+    
+    @Test
+    public void failedDependencyTest() {
+        STARTED.clear();
+        PluginRecord failing = record(new FailingPlugin());
+        PluginRecord dependent = record(new DependentPlugin());
+        RecordingListener listener = new RecordingListener();
+        new PluginStarter(1000, listener, new LifecycleProfiler(1)).start(Arrays.asList(dependent, failing));
+        assertTrue(STARTED.isEmpty());
+        assertEquals(PluginStatus.START_ERROR, failing.getStatus());
+        assertEquals(PluginStatus.START_ERROR, dependent.getStatus());
+        assertTrue(listener.started.isEmpty());
+        assertTrue(listener.failed.containsAll(Arrays.asList("F", "D")));
+    }
+    
+    @Test
+    public void lateStartTest() throws InterruptedException {
+        SlowPlugin slow = new SlowPlugin();
+        PluginRecord record = record(slow);
+        RecordingListener listener = new RecordingListener();
+        new PluginStarter(100, listener, new LifecycleProfiler(1)).start(Collections.singletonList(record));
+        assertEquals(PluginStatus.START_ERROR, record.getStatus());
+        assertEquals(Collections.singletonList("S"), listener.failed);
+        slow.release.countDown();
+        assertTrue(slow.stopped.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.started.isEmpty());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.failed.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("S", "S"), listener.failed);
+    }
+}
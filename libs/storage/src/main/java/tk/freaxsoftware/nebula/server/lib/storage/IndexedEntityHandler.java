@@ -0,0 +1,615 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.extras.faststorage.generic.ECSVAble;
+import tk.freaxsoftware.extras.faststorage.generic.ECSVDefinition;
+import tk.freaxsoftware.extras.faststorage.storage.AbstractEntityHandler;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.EntityCodec;
+import tk.freaxsoftware.nebula.server.lib.storage.index.EntityIndex;
+import tk.freaxsoftware.nebula.server.lib.storage.index.UniqueIndex;
+import tk.freaxsoftware.nebula.server.lib.storage.journal.EntityJournal;
+import tk.freaxsoftware.nebula.server.lib.storage.snapshot.EntitySnapshot;
+
+/**
+ * Entity handler with declarative secondary indexes. Subclasses declare 
+ * indexes by {@link #declareIndex(EntityIndex)}, all declared indexes are 
+ * maintained on every create, save and delete. Indexes built lazily 
+ * from entities store on first access, since storage loaded before any 
+ * handler mutation.
+ * <p>Reads don't take entities lock: {@link #getAll()} returns immutable 
+ * snapshot of store which is dropped by every mutation and rebuilt on first 
+ * read after it, index lookups are lock-free as well. Saved entity replaces 
+ * stored instance instead of updating it, since stored instance may be held 
+ * by readers (see {@link #merge(ECSVAble, ECSVAble)}). Writers are serialized 
+ * by entities lock.</p>
+ * <p>Handler may work in write-behind mode (see {@link #enableWriteBehind(long, int)}): 
+ * created and saved entities are applied to memory immediately and written 
+ * to disk in batches. Deletes are always written through.</p>
+ * <p>In journal mode (see {@link #enableJournal(EntityCodec, long)}) every change 
+ * is appended to journal file next to storage file instead of rewriting 
+ * whole storage. Journal replayed on top of storage during enabling, 
+ * folded into synced checkpoint by background compaction and into 
+ * storage file when journal disabled.</p>
+ * <p>Binary snapshot of storage may be written on clean shutdown, handler 
+ * created outside of storage ignition may be loaded from it on boot 
+ * without parsing of storage file (see {@link #loadBinarySnapshot(EntityCodec)}).</p>
+ * @author Stanislav Nepochatov
+ * @param <E> entity type;
+ * @param <K> entity key type;
+ */
+public abstract class IndexedEntityHandler<E extends ECSVAble<K>, K> extends AbstractEntityHandler<E, K> {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexedEntityHandler.class);
+    
+    /**
+     * Background thread for journal compaction of all handlers.
+     */
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nebula-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * Path to storage file.
+     */
+    private final String storagePath;
+    
+    /**
+     * All declared indexes.
+     */
+    private final List<EntityIndex<E, ?>> indexes = new ArrayList<>();
+    
+    /**
+     * Index of entities by key.
+     */
+    private final UniqueIndex<E, K> keyIndex = declareIndex(new UniqueIndex<>(entity -> entity.getKey()));
+    
+    /**
+     * Immutable copy of entities store for readers, null if store was changed 
+     * since last read.
+     */
+    private volatile List<E> snapshot = Collections.emptyList();
+    
+    /**
+     * Flag of built indexes.
+     */
+    private volatile boolean indexed = false;
+    
+    /**
+     * Write-behind queue, null if handler writes through.
+     */
+    private volatile WriteBehindQueue writeBehind;
+    
+    /**
+     * Journal of changes, null if journal mode disabled.
+     */
+    private volatile EntityJournal<E> journal;
+    
+    /**
+     * Journal size in bytes which triggers compaction.
+     */
+    private volatile long journalLimit;
+    
+    /**
+     * Flag of scheduled or running compaction.
+     */
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    public IndexedEntityHandler(Class<E> entityClass, ECSVDefinition definition, String filePath) {
+        super(entityClass, definition, filePath);
+        this.storagePath = filePath;
+    }
+    
+    /**
+     * Declare new index for this handler. Should be called during handler construction.
+     * @param <I> index type;
+     * @param index index instance;
+     * @return same index instance;
+     */
+    protected final <I extends EntityIndex<E, ?>> I declareIndex(I index) {
+        indexes.add(index);
+        return index;
+    }
+
+    /**
+     * Enable write-behind mode for this handler.
+     * @param delayMillis delay between first change and flush in milliseconds;
+     * @param maxPending count of pending changes which triggers flush;
+     */
+    public synchronized void enableWriteBehind(long delayMillis, int maxPending) {
+        if (writeBehind == null) {
+            writeBehind = new WriteBehindQueue(getType(), delayMillis, maxPending, this::writeStore);
+        }
+    }
+    
+    /**
+     * Enable journal mode for this handler. Should be called after storage loading. 
+     * Existing journal replayed on top of loaded entities and compacted in background. 
+     * Indexes and readers snapshot rebuilt once after replay.
+     * @param codec binary codec of entities;
+     * @param limit journal size in bytes which triggers compaction;
+     * @throws IOException on journal reading error;
+     */
+    public synchronized void enableJournal(EntityCodec<E> codec, long limit) throws IOException {
+        if (journal != null) {
+            return;
+        }
+        EntityJournal<E> newJournal = new EntityJournal<>(storagePath, codec);
+        int replayed;
+        synchronized (entitiesLock) {
+            Map<K, E> entities = new LinkedHashMap<>();
+            for (E entity: entitiesStore) {
+                entities.put(entity.getKey(), entity);
+            }
+            replayed = newJournal.open(new EntityJournal.Replayer<E>() {
+                @Override
+                public void apply(byte operation, E entity) {
+                    if (operation == EntityJournal.OP_DELETE) {
+                        entities.remove(entity.getKey());
+                    } else {
+                        entities.put(entity.getKey(), entity);
+                    }
+                }
+
+                @Override
+                public void reset() {
+                    entities.clear();
+                }
+            });
+            if (replayed > 0 || newJournal.hasCheckpoint()) {
+                rebuild(entities.values());
+            } else {
+                ensureIndexed();
+            }
+        }
+        journalLimit = limit;
+        journal = newJournal;
+        if (replayed > 0) {
+            LOGGER.info("Replayed " + replayed + " journal records of " + getType());
+            scheduleCompaction();
+        }
+    }
+    
+    /**
+     * Load entities from binary snapshot of storage instead of storage file. 
+     * Snapshot is used only if storage file wasn't changed since snapshot 
+     * writing. Should be called on handler which wasn't loaded by storage 
+     * ignition, before enabling journal.
+     * @param codec binary codec of entities;
+     * @return true if entities were loaded from snapshot;
+     */
+    public boolean loadBinarySnapshot(EntityCodec<E> codec) {
+        List<E> entities;
+        try {
+            EntitySnapshot<E> binarySnapshot = EntitySnapshot.open(storagePath, codec);
+            if (binarySnapshot == null) {
+                return false;
+            }
+            entities = binarySnapshot.readAll();
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Unable to read snapshot of " + getType() + ", using storage file", ex);
+            return false;
+        }
+        synchronized (entitiesLock) {
+            rebuild(entities);
+        }
+        LOGGER.info("Loaded " + entities.size() + " entities of " + getType() + " from snapshot");
+        return true;
+    }
+    
+    /**
+     * Write binary snapshot of storage. Should be called on clean shutdown 
+     * after journal disabling, so snapshot is stamped by final storage file.
+     * @param codec binary codec of entities;
+     */
+    public void writeBinarySnapshot(EntityCodec<E> codec) {
+        flush();
+        try {
+            EntitySnapshot.write(storagePath, codec, getAll());
+        } catch (IOException ex) {
+            LOGGER.error("Unable to write snapshot of " + getType(), ex);
+        }
+    }
+    
+    /**
+     * Fold journal into storage file right now and close journal. 
+     * Handler turns back to write-through mode.
+     */
+    public synchronized void disableJournal() {
+        EntityJournal<E> current = journal;
+        if (current != null) {
+            compactJournal();
+            journal = null;
+            try {
+                if (current.hasCheckpoint() && writeStore()) {
+                    syncStore();
+                    current.dropCheckpoint();
+                }
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.error("Unable to fold journal checkpoint of " + getType(), ex);
+            }
+            try {
+                current.close();
+            } catch (IOException ex) {
+                LOGGER.error("Unable to close journal of " + getType(), ex);
+            }
+        }
+    }
+    
+    /**
+     * Write all deferred changes to disk. Returns after data written. 
+     * Does nothing if handler writes through.
+     */
+    public void flush() {
+        WriteBehindQueue queue = writeBehind;
+        if (queue != null) {
+            queue.flush();
+        }
+    }
+    
+    /**
+     * Get future which completes when all current changes are written to disk.
+     * @return flush future;
+     */
+    public CompletableFuture<Void> whenFlushed() {
+        WriteBehindQueue queue = writeBehind;
+        return queue != null ? queue.whenFlushed() : CompletableFuture.completedFuture(null);
+    }
+    
+    /**
+     * Flush deferred changes and turn back to write-through mode.
+     */
+    public synchronized void disableWriteBehind() {
+        if (writeBehind != null) {
+            WriteBehindQueue queue = writeBehind;
+            writeBehind = null;
+            queue.close();
+        }
+    }
+
+    @Override
+    public void create(E entity) {
+        ensureIndexed();
+        EntityJournal<E> currentJournal = journal;
+        if (currentJournal != null) {
+            appendJournal(currentJournal, EntityJournal.OP_PUT, applyPut(entity));
+            return;
+        }
+        WriteBehindQueue queue = writeBehind;
+        if (queue != null) {
+            putDeferred(entity, queue);
+            return;
+        }
+        synchronized (entitiesLock) {
+            super.create(entity);
+            reindex(entity);
+            snapshot = null;
+        }
+    }
+
+    @Override
+    public void save(E entity) {
+        ensureIndexed();
+        EntityJournal<E> currentJournal = journal;
+        if (currentJournal != null) {
+            appendJournal(currentJournal, EntityJournal.OP_PUT, applyPut(entity));
+            return;
+        }
+        WriteBehindQueue queue = writeBehind;
+        if (queue != null) {
+            putDeferred(entity, queue);
+            return;
+        }
+        applyPut(entity);
+        if (!writeStore()) {
+            throw new IllegalStateException("Unable to write storage of " + getType());
+        }
+    }
+
+    @Override
+    public void delete(K key) {
+        ensureIndexed();
+        EntityJournal<E> currentJournal = journal;
+        if (currentJournal != null) {
+            E deleted = applyDelete(key);
+            if (deleted != null) {
+                appendJournal(currentJournal, EntityJournal.OP_DELETE, deleted);
+            }
+            return;
+        }
+        flush();
+        synchronized (entitiesLock) {
+            E stored = keyIndex.get(key);
+            super.delete(key);
+            if (stored != null) {
+                for (EntityIndex<E, ?> index: indexes) {
+                    index.unindex(stored);
+                }
+            }
+            snapshot = null;
+        }
+    }
+
+    @Override
+    public List<E> getAll() {
+        ensureIndexed();
+        List<E> current = snapshot;
+        if (current == null) {
+            synchronized (entitiesLock) {
+                current = snapshot;
+                if (current == null) {
+                    current = Collections.unmodifiableList(new ArrayList<>(entitiesStore));
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Get entity by it's key.
+     * @param key entity key;
+     * @return entity or null if not found;
+     */
+    public E getByKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        ensureIndexed();
+        return keyIndex.get(key);
+    }
+    
+    /**
+     * Refresh values of entity in all indexes.
+     * @param entity stored entity;
+     */
+    protected void reindex(E entity) {
+        for (EntityIndex<E, ?> index: indexes) {
+            index.index(entity);
+        }
+    }
+    
+    /**
+     * Get instance which replaces stored entity on save. Stored instance 
+     * may be held by readers and must not be changed. By default saved 
+     * entity replaces stored one as is; handlers which entities merge state 
+     * during update should override it.
+     * @param stored currently stored instance;
+     * @param entity saved entity;
+     * @return new stored instance;
+     */
+    protected E merge(E stored, E entity) {
+        return entity;
+    }
+    
+    /**
+     * Apply created or saved entity to memory and queue it for writing.
+     * @param entity entity to store;
+     * @param queue write-behind queue;
+     */
+    private void putDeferred(E entity, WriteBehindQueue queue) {
+        applyPut(entity);
+        queue.markDirty();
+    }
+    
+    /**
+     * Apply created or saved entity to memory without writing it.
+     * @param entity entity to store;
+     * @return stored instance of entity;
+     */
+    private E applyPut(E entity) {
+        synchronized (entitiesLock) {
+            E stored = keyIndex.get(entity.getKey());
+            E replacement = entity;
+            if (stored == null) {
+                entitiesStore.add(entity);
+            } else if (stored != entity) {
+                replacement = merge(stored, entity);
+                for (int i = 0; i < entitiesStore.size(); i++) {
+                    if (entitiesStore.get(i) == stored) {
+                        entitiesStore.set(i, replacement);
+                        break;
+                    }
+                }
+                for (EntityIndex<E, ?> index: indexes) {
+                    index.unindex(stored);
+                }
+            }
+            reindex(replacement);
+            snapshot = null;
+            return replacement;
+        }
+    }
+    
+    /**
+     * Remove entity from memory without writing storage.
+     * @param key key of entity;
+     * @return removed entity or null if not found;
+     */
+    private E applyDelete(K key) {
+        E stored;
+        synchronized (entitiesLock) {
+            stored = keyIndex.get(key);
+            if (stored != null) {
+                Iterator<E> iterator = entitiesStore.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next() == stored) {
+                        iterator.remove();
+                        break;
+                    }
+                }
+                for (EntityIndex<E, ?> index: indexes) {
+                    index.unindex(stored);
+                }
+                snapshot = null;
+            }
+        }
+        return stored;
+    }
+    
+    /**
+     * Write whole store to storage file. Base handler rewrites whole storage 
+     * file on every save, so saving any stored entity persists all changes 
+     * made in memory at once. Empty store can't be written by base handler, 
+     * so storage file is replaced by empty file.
+     * @return true if storage was written;
+     */
+    private boolean writeStore() {
+        List<E> current = getAll();
+        if (!current.isEmpty()) {
+            super.save(current.get(0));
+            return true;
+        }
+        File storage = new File(storagePath);
+        File temp = new File(storagePath + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.getFD().sync();
+            }
+            Files.move(temp.toPath(), storage.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error("Unable to write empty storage of " + getType(), ex);
+            return false;
+        }
+    }
+    
+    /**
+     * Append record to journal and trigger compaction if journal grew too big.
+     * @param currentJournal journal instance;
+     * @param operation journal operation;
+     * @param entity changed entity;
+     */
+    private void appendJournal(EntityJournal<E> currentJournal, byte operation, E entity) {
+        try {
+            currentJournal.append(operation, entity);
+        } catch (IOException ex) {
+            LOGGER.error("Unable to append journal of " + getType(), ex);
+            throw new RuntimeException("Unable to write change of " + getType(), ex);
+        }
+        if (currentJournal.size() > journalLimit) {
+            scheduleCompaction();
+        }
+    }
+    
+    /**
+     * Schedule journal compaction if it wasn't scheduled yet.
+     */
+    private void scheduleCompaction() {
+        if (compacting.compareAndSet(false, true)) {
+            COMPACTOR.execute(() -> {
+                try {
+                    compactJournal();
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Fold journal into checkpoint: rotate journal, write full state of storage 
+     * into checkpoint and drop rotated journal. Changes made during compaction 
+     * stay in new journal. Storage file itself rewritten only when journal disabled.
+     */
+    private synchronized void compactJournal() {
+        EntityJournal<E> current = journal;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.rotate();
+            current.checkpoint(getAll());
+            current.dropRotated();
+            LOGGER.debug("Compacted journal of " + getType());
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.error("Unable to compact journal of " + getType(), ex);
+        }
+    }
+    
+    /**
+     * Force storage file written by base handler to disk.
+     * @throws IOException on sync error;
+     */
+    private void syncStore() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(storagePath), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+    
+    /**
+     * Replace entities store by specified entities and rebuild all indexes 
+     * and readers snapshot. Should be called under entities lock.
+     * @param entities new content of store;
+     */
+    private void rebuild(Collection<E> entities) {
+        List<E> content = new ArrayList<>(entities);
+        entitiesStore.clear();
+        entitiesStore.addAll(content);
+        for (EntityIndex<E, ?> index: indexes) {
+            index.clear();
+        }
+        for (E entity: entitiesStore) {
+            reindex(entity);
+        }
+        snapshot = Collections.unmodifiableList(new ArrayList<>(entitiesStore));
+        indexed = true;
+    }
+    
+    /**
+     * Build indexes from entities store if they wasn't built yet. 
+     * Should be called by subclasses before any index lookup.
+     */
+    protected final void ensureIndexed() {
+        if (!indexed) {
+            synchronized (entitiesLock) {
+                if (!indexed) {
+                    for (E entity: entitiesStore) {
+                        reindex(entity);
+                    }
+                    snapshot = Collections.unmodifiableList(new ArrayList<>(entitiesStore));
+                    indexed = true;
+                }
+            }
+        }
+    }
+}
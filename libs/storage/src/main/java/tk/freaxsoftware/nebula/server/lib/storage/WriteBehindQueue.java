@@ -0,0 +1,203 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind queue which coalesces storage changes and flushes them 
+ * in single write after short delay or when count of pending changes 
+ * reaches threshold. Failed flush keeps changes pending and retried 
+ * after delay.
+ * @author Stanislav Nepochatov
+ */
+public class WriteBehindQueue {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+    
+    /**
+     * Name of queue for logging.
+     */
+    private final String name;
+    
+    /**
+     * Delay between first pending change and flush in milliseconds.
+     */
+    private final long delayMillis;
+    
+    /**
+     * Count of pending changes which triggers flush immediately.
+     */
+    private final int maxPending;
+    
+    /**
+     * Storage writer which persists all pending changes at once and 
+     * returns true if data was written.
+     */
+    private final BooleanSupplier writer;
+    
+    /**
+     * Timer thread of this queue.
+     */
+    private final ScheduledExecutorService executor;
+    
+    /**
+     * Lock which serializes flushes, so flush returns only after data written.
+     */
+    private final Object flushLock = new Object();
+    
+    /**
+     * Count of changes since last flush.
+     */
+    private int pending = 0;
+    
+    /**
+     * Scheduled flush task.
+     */
+    private ScheduledFuture<?> scheduled;
+    
+    /**
+     * Future which completes after next flush.
+     */
+    private CompletableFuture<Void> flushed = new CompletableFuture<>();
+
+    /**
+     * Default constructor.
+     * @param name name of queue;
+     * @param delayMillis delay before flush in milliseconds;
+     * @param maxPending count of pending changes which triggers flush;
+     * @param writer storage writer;
+     */
+    public WriteBehindQueue(String name, long delayMillis, int maxPending, BooleanSupplier writer) {
+        this.name = name;
+        this.delayMillis = delayMillis;
+        this.maxPending = maxPending;
+        this.writer = writer;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nebula-write-behind-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Register single pending change.
+     * @return future which completes when change written to disk;
+     */
+    public synchronized CompletableFuture<Void> markDirty() {
+        pending++;
+        if (pending >= maxPending) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            scheduled = executor.schedule(this::flush, 0, TimeUnit.MILLISECONDS);
+        } else if (scheduled == null) {
+            scheduled = executor.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        return flushed;
+    }
+    
+    /**
+     * Get future which completes when all currently pending changes written to disk.
+     * @return flush future;
+     */
+    public synchronized CompletableFuture<Void> whenFlushed() {
+        return pending == 0 ? CompletableFuture.completedFuture(null) : flushed;
+    }
+    
+    /**
+     * Write all pending changes right now. Returns after write attempt, 
+     * changes of failed attempt stay pending.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            CompletableFuture<Void> done;
+            int count;
+            synchronized (this) {
+                if (pending == 0) {
+                    return;
+                }
+                count = pending;
+                pending = 0;
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                    scheduled = null;
+                }
+                done = flushed;
+                flushed = new CompletableFuture<>();
+            }
+            boolean written;
+            try {
+                written = writer.getAsBoolean();
+                if (!written) {
+                    LOGGER.error("Unable to flush changes of " + name + ": storage wasn't written");
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.error("Unable to flush changes of " + name, ex);
+                written = false;
+            }
+            if (written) {
+                LOGGER.debug("Flushed " + count + " changes of " + name);
+                done.complete(null);
+            } else {
+                retry(count, done);
+            }
+        }
+    }
+    
+    /**
+     * Return changes of failed flush back to queue and schedule another attempt. 
+     * Waiters of failed flush are completed by next successful flush.
+     * @param count count of changes which weren't written;
+     * @param done future of failed flush;
+     */
+    private synchronized void retry(int count, CompletableFuture<Void> done) {
+        pending += count;
+        flushed.whenComplete((result, error) -> {
+            if (error != null) {
+                done.completeExceptionally(error);
+            } else {
+                done.complete(null);
+            }
+        });
+        if (scheduled == null) {
+            try {
+                scheduled = executor.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                LOGGER.error("Unable to retry flush of " + name + ", queue is closed");
+            }
+        }
+    }
+    
+    /**
+     * Flush pending changes and stop timer thread.
+     */
+    public void close() {
+        flush();
+        executor.shutdown();
+    }
+}
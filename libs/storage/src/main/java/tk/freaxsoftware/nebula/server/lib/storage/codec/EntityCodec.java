@@ -0,0 +1,46 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.codec;
+
+import java.io.IOException;
+
+/**
+ * Binary codec of single entity. Used by storage journal and binary 
+ * snapshots since they don't depend on ECSV text format.
+ * @author Stanislav Nepochatov
+ * @param <E> entity type;
+ */
+public interface EntityCodec<E> {
+    
+    /**
+     * Write entity fields to record.
+     * @param entity entity to write;
+     * @param out record output;
+     * @throws IOException on write error;
+     */
+    void write(E entity, RecordOutput out) throws IOException;
+    
+    /**
+     * Read entity from record.
+     * @param in record input;
+     * @return new entity instance;
+     * @throws IOException on read error;
+     */
+    E read(RecordInput in) throws IOException;
+}
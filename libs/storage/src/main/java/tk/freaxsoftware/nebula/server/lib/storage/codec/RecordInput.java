@@ -0,0 +1,97 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Input of binary entity record.
+ * @author Stanislav Nepochatov
+ * @see RecordOutput
+ */
+public interface RecordInput {
+    
+    /**
+     * Read nullable string.
+     * @return string or null;
+     * @throws IOException on read error;
+     */
+    String readString() throws IOException;
+    
+    int readInt() throws IOException;
+    
+    long readLong() throws IOException;
+    
+    boolean readBoolean() throws IOException;
+    
+    /**
+     * Read nullable boolean.
+     * @return boolean or null;
+     * @throws IOException on read error;
+     */
+    default Boolean readNullableBoolean() throws IOException {
+        return readBoolean() ? readBoolean() : null;
+    }
+    
+    /**
+     * Read nullable date.
+     * @return date or null;
+     * @throws IOException on read error;
+     */
+    default Date readDate() throws IOException {
+        long time = readLong();
+        return time != Long.MIN_VALUE ? new Date(time) : null;
+    }
+    
+    /**
+     * Read list of strings.
+     * @return list (may be empty);
+     * @throws IOException on read error;
+     */
+    default List<String> readStringList() throws IOException {
+        int size = readInt();
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+    
+    /**
+     * Read nullable map of strings.
+     * @return map or null;
+     * @throws IOException on read error;
+     */
+    default Map<String, String> readStringMap() throws IOException {
+        int size = readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            values.put(readString(), readString());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.codec;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Output of binary entity record.
+ * @author Stanislav Nepochatov
+ */
+public interface RecordOutput {
+    
+    /**
+     * Write nullable string.
+     * @param value string or null;
+     * @throws IOException on write error;
+     */
+    void writeString(String value) throws IOException;
+    
+    void writeInt(int value) throws IOException;
+    
+    void writeLong(long value) throws IOException;
+    
+    void writeBoolean(boolean value) throws IOException;
+    
+    /**
+     * Write nullable boolean.
+     * @param value boolean or null;
+     * @throws IOException on write error;
+     */
+    default void writeNullableBoolean(Boolean value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeBoolean(value);
+        }
+    }
+    
+    /**
+     * Write nullable date.
+     * @param value date or null;
+     * @throws IOException on write error;
+     */
+    default void writeDate(Date value) throws IOException {
+        writeLong(value != null ? value.getTime() : Long.MIN_VALUE);
+    }
+    
+    /**
+     * Write list of strings, null list written as empty.
+     * @param values list or null;
+     * @throws IOException on write error;
+     */
+    default void writeStringList(List<String> values) throws IOException {
+        writeInt(values != null ? values.size() : 0);
+        if (values != null) {
+            for (String value: values) {
+                writeString(value);
+            }
+        }
+    }
+    
+    /**
+     * Write nullable map of strings.
+     * @param values map or null;
+     * @throws IOException on write error;
+     */
+    default void writeStringMap(Map<String, String> values) throws IOException {
+        writeInt(values != null ? values.size() : -1);
+        if (values != null) {
+            for (Map.Entry<String, String> entry: values.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+    }
+}
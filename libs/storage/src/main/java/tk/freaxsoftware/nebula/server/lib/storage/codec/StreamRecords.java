@@ -0,0 +1,93 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Plain stream records: strings written inline with presence flag.
+ * @author Stanislav Nepochatov
+ */
+public final class StreamRecords {
+    
+    private StreamRecords() {}
+    
+    /**
+     * Wrap data output as record output.
+     * @param out data output;
+     * @return record output;
+     */
+    public static RecordOutput output(DataOutput out) {
+        return new RecordOutput() {
+            @Override
+            public void writeString(String value) throws IOException {
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    out.writeUTF(value);
+                }
+            }
+
+            @Override
+            public void writeInt(int value) throws IOException {
+                out.writeInt(value);
+            }
+
+            @Override
+            public void writeLong(long value) throws IOException {
+                out.writeLong(value);
+            }
+
+            @Override
+            public void writeBoolean(boolean value) throws IOException {
+                out.writeBoolean(value);
+            }
+        };
+    }
+    
+    /**
+     * Wrap data input as record input.
+     * @param in data input;
+     * @return record input;
+     */
+    public static RecordInput input(DataInput in) {
+        return new RecordInput() {
+            @Override
+            public String readString() throws IOException {
+                return in.readBoolean() ? in.readUTF() : null;
+            }
+
+            @Override
+            public int readInt() throws IOException {
+                return in.readInt();
+            }
+
+            @Override
+            public long readLong() throws IOException {
+                return in.readLong();
+            }
+
+            @Override
+            public boolean readBoolean() throws IOException {
+                return in.readBoolean();
+            }
+        };
+    }
+}
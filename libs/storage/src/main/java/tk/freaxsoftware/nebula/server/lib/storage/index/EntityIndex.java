@@ -0,0 +1,127 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Base class of secondary entity index. Index remembers values which were 
+ * extracted from entity during last indexing, so entity may be changed in place 
+ * and reindexed later. Index mutations are serialized, lookups implemented 
+ * by subclasses should not block on writers.
+ * @author Stanislav Nepochatov
+ * @param <E> indexed entity type;
+ * @param <V> index value type;
+ */
+public abstract class EntityIndex<E, V> {
+    
+    /**
+     * Extractor of indexed values from entity.
+     */
+    private final Function<E, Collection<V>> extractor;
+    
+    /**
+     * Values of entities extracted during last indexing.
+     */
+    private final Map<E, List<V>> indexedValues = new IdentityHashMap<>();
+
+    /**
+     * Default constructor.
+     * @param extractor function which returns all indexed values of entity;
+     */
+    protected EntityIndex(Function<E, Collection<V>> extractor) {
+        this.extractor = extractor;
+    }
+    
+    /**
+     * Add entity to index or refresh it's values if entity already indexed.
+     * @param entity entity to index;
+     */
+    public synchronized void index(E entity) {
+        unindex(entity);
+        Collection<V> rawValues = extractor.apply(entity);
+        List<V> values = new ArrayList<>();
+        if (rawValues != null) {
+            for (V value: rawValues) {
+                if (value != null && !values.contains(value)) {
+                    values.add(value);
+                    put(value, entity);
+                }
+            }
+        }
+        indexedValues.put(entity, values);
+    }
+    
+    /**
+     * Remove entity from index.
+     * @param entity entity to remove;
+     */
+    public synchronized void unindex(E entity) {
+        List<V> values = indexedValues.remove(entity);
+        if (values != null) {
+            for (V value: values) {
+                remove(value, entity);
+            }
+        }
+    }
+    
+    /**
+     * Remove all entities from index.
+     */
+    public synchronized void clear() {
+        indexedValues.clear();
+        clearValues();
+    }
+    
+    /**
+     * Add single value of entity to index.
+     * @param value indexed value;
+     * @param entity entity instance;
+     */
+    protected abstract void put(V value, E entity);
+    
+    /**
+     * Remove single value of entity from index.
+     * @param value indexed value;
+     * @param entity entity instance;
+     */
+    protected abstract void remove(V value, E entity);
+    
+    /**
+     * Remove all values from index.
+     */
+    protected abstract void clearValues();
+    
+    /**
+     * Wrap single value extractor into extractor of values collection.
+     * @param <E> entity type;
+     * @param <V> value type;
+     * @param extractor single value extractor;
+     * @return multi value extractor;
+     */
+    protected static <E, V> Function<E, Collection<V>> single(Function<E, V> extractor) {
+        return entity -> Collections.singletonList(extractor.apply(entity));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.index;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.function.Function;
+
+/**
+ * Multi-valued index for enum fields backed by {@link EnumMap}. Buckets of 
+ * all enum constants created during construction and never removed, so 
+ * enum map is only read after construction and lookups need no locking.
+ * @author Stanislav Nepochatov
+ * @param <E> indexed entity type;
+ * @param <V> enum type;
+ */
+public class EnumIndex<E, V extends Enum<V>> extends MultiIndex<E, V> {
+    
+    /**
+     * Constructor for index over multiple enum values of entity.
+     * @param extractor function which returns all indexed values of entity;
+     * @param enumClass class of enum;
+     */
+    protected EnumIndex(Function<E, Collection<V>> extractor, Class<V> enumClass) {
+        super(extractor, new EnumMap<>(enumClass), Arrays.asList(enumClass.getEnumConstants()));
+    }
+
+    /**
+     * Default constructor.
+     * @param enumClass class of enum;
+     * @param extractor function which returns indexed value of entity;
+     */
+    public EnumIndex(Class<V> enumClass, Function<E, V> extractor) {
+        this(single(extractor), enumClass);
+    }
+    
+    /**
+     * Create index over multiple enum values of entity.
+     * @param <E> indexed entity type;
+     * @param <V> enum type;
+     * @param enumClass class of enum;
+     * @param extractor function which returns all indexed values of entity;
+     * @return new index;
+     */
+    public static <E, V extends Enum<V>> EnumIndex<E, V> multiValued(Class<V> enumClass, Function<E, Collection<V>> extractor) {
+        return new EnumIndex<>(extractor, enumClass);
+    }
+}
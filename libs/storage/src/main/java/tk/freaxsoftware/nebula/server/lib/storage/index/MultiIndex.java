@@ -0,0 +1,218 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Multi-valued hash index: many entities per value, entity may have many values.
+ * Entities returned in order of indexing. Writers change buckets in place, 
+ * immutable view of bucket built on first lookup after change, so series 
+ * of changes costs single copy and repeated lookups never copy.
+ * @author Stanislav Nepochatov
+ * @param <E> indexed entity type;
+ * @param <V> index value type;
+ */
+public class MultiIndex<E, V> extends EntityIndex<E, V> {
+    
+    /**
+     * Buckets of entities by value.
+     */
+    private final Map<V, Bucket<E>> buckets;
+    
+    /**
+     * Flag of fixed set of buckets which are never added or removed.
+     */
+    private final boolean fixed;
+    
+    /**
+     * Default constructor.
+     * @param extractor function which returns all indexed values of entity;
+     */
+    protected MultiIndex(Function<E, Collection<V>> extractor) {
+        super(extractor);
+        this.buckets = new ConcurrentHashMap<>();
+        this.fixed = false;
+    }
+    
+    /**
+     * Constructor for index over fixed set of values. Buckets of all values 
+     * created at once and never removed, so map is only read after construction 
+     * and may be not safe for concurrent writes.
+     * @param extractor function which returns all indexed values of entity;
+     * @param buckets empty map of buckets;
+     * @param values all possible values;
+     */
+    protected MultiIndex(Function<E, Collection<V>> extractor, Map<V, Bucket<E>> buckets, Collection<V> values) {
+        super(extractor);
+        for (V value: values) {
+            buckets.put(value, new Bucket<>());
+        }
+        this.buckets = buckets;
+        this.fixed = true;
+    }
+    
+    /**
+     * Create index over single value of entity.
+     * @param <E> indexed entity type;
+     * @param <V> index value type;
+     * @param extractor function which returns indexed value of entity;
+     * @return new index;
+     */
+    public static <E, V> MultiIndex<E, V> of(Function<E, V> extractor) {
+        return new MultiIndex<>(single(extractor));
+    }
+    
+    /**
+     * Create index over multiple values of entity.
+     * @param <E> indexed entity type;
+     * @param <V> index value type;
+     * @param extractor function which returns all indexed values of entity;
+     * @return new index;
+     */
+    public static <E, V> MultiIndex<E, V> multiValued(Function<E, Collection<V>> extractor) {
+        return new MultiIndex<>(extractor);
+    }
+    
+    /**
+     * Get entities by indexed value.
+     * @param value value to search;
+     * @return unmodifiable list of entities (may be empty);
+     */
+    public List<E> get(V value) {
+        Bucket<E> bucket = value != null ? buckets.get(value) : null;
+        return bucket != null ? bucket.view() : Collections.emptyList();
+    }
+    
+    /**
+     * Check if there is any entity with specified value.
+     * @param value value to check;
+     * @return true if at least one entity has specified value;
+     */
+    public boolean contains(V value) {
+        Bucket<E> bucket = value != null ? buckets.get(value) : null;
+        return bucket != null && !bucket.view().isEmpty();
+    }
+
+    @Override
+    protected void put(V value, E entity) {
+        Bucket<E> bucket = buckets.get(value);
+        if (bucket == null) {
+            if (fixed) {
+                return;
+            }
+            bucket = new Bucket<>();
+            buckets.put(value, bucket);
+        }
+        bucket.add(entity);
+    }
+
+    @Override
+    protected void remove(V value, E entity) {
+        Bucket<E> bucket = buckets.get(value);
+        if (bucket != null && bucket.remove(entity) && !fixed) {
+            buckets.remove(value);
+        }
+    }
+
+    @Override
+    protected void clearValues() {
+        if (fixed) {
+            for (Bucket<E> bucket: buckets.values()) {
+                bucket.clear();
+            }
+        } else {
+            buckets.clear();
+        }
+    }
+    
+    /**
+     * Entities of single value. Changed only by serialized writers.
+     * @param <E> indexed entity type;
+     */
+    static final class Bucket<E> {
+        
+        /**
+         * Entities in order of indexing.
+         */
+        private final List<E> entities = new ArrayList<>();
+        
+        /**
+         * Immutable view of entities or null if bucket changed since last lookup.
+         */
+        private volatile List<E> view = Collections.emptyList();
+        
+        /**
+         * Get immutable view of bucket.
+         * @return list of entities;
+         */
+        List<E> view() {
+            List<E> current = view;
+            if (current == null) {
+                synchronized (this) {
+                    current = view;
+                    if (current == null) {
+                        current = Collections.unmodifiableList(new ArrayList<>(entities));
+                        view = current;
+                    }
+                }
+            }
+            return current;
+        }
+        
+        /**
+         * Add entity to the end of bucket.
+         * @param entity entity to add;
+         */
+        synchronized void add(E entity) {
+            entities.add(entity);
+            view = null;
+        }
+        
+        /**
+         * Remove entity from bucket.
+         * @param entity entity to remove;
+         * @return true if bucket became empty;
+         */
+        synchronized boolean remove(E entity) {
+            for (int i = entities.size() - 1; i >= 0; i--) {
+                if (entities.get(i) == entity) {
+                    entities.remove(i);
+                    view = null;
+                    break;
+                }
+            }
+            return entities.isEmpty();
+        }
+        
+        /**
+         * Remove all entities from bucket.
+         */
+        synchronized void clear() {
+            entities.clear();
+            view = Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Text search index over string fields of entity. Every query matches any 
+ * substring of field. Fields are split into grams up to three characters long: 
+ * shorter queries are resolved by single gram posting, longer ones by 
+ * intersection of trigram postings. Search is case insensitive: fields are 
+ * normalized before indexing, so values which differ only in case are 
+ * indexed once. Results 
+ * are ranked: exact match, field prefix, word prefix and substring match. 
+ * Words of fields are split once during indexing, only requested count 
+ * of best matches is kept during search. Searches run in parallel under read lock.
+ * @author Stanislav Nepochatov
+ * @param <E> indexed entity type;
+ */
+public class SearchIndex<E> extends EntityIndex<E, String> {
+    
+    /**
+     * Max length of n-gram used by index.
+     */
+    private static final int GRAM_LENGTH = 3;
+    
+    /**
+     * Separator of words inside field.
+     */
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    
+    /**
+     * Rank of exact field match.
+     */
+    private static final int RANK_EXACT = 0;
+    
+    /**
+     * Rank of field prefix match.
+     */
+    private static final int RANK_PREFIX = 1;
+    
+    /**
+     * Rank of word prefix match.
+     */
+    private static final int RANK_WORD_PREFIX = 2;
+    
+    /**
+     * Rank of substring match.
+     */
+    private static final int RANK_SUBSTRING = 3;
+    
+    /**
+     * Gram postings with count of entity fields which contain gram.
+     */
+    private final Map<String, Map<E, Integer>> grams = new HashMap<>();
+    
+    /**
+     * Normalized fields of every indexed entity.
+     */
+    private final Map<E, List<Field>> fields = new IdentityHashMap<>();
+    
+    /**
+     * Lock which allows parallel searches between index changes.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Default constructor.
+     * @param extractor function which returns all searchable fields of entity;
+     */
+    public SearchIndex(Function<E, Collection<String>> extractor) {
+        super(normalized(extractor));
+    }
+    
+    /**
+     * Get count of distinct grams in index.
+     * @return count of grams;
+     */
+    public int getGramCount() {
+        lock.readLock().lock();
+        try {
+            return grams.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Find entities by query.
+     * @param query search string;
+     * @param limit max count of results;
+     * @return ranked list of entities;
+     */
+    public List<E> find(String query, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Match<E>> best = new PriorityQueue<>(Math.min(limit, 64), Collections.reverseOrder());
+        lock.readLock().lock();
+        try {
+            for (E candidate: candidates(normalized)) {
+                Match<E> match = match(candidate, normalized);
+                if (match == null) {
+                    continue;
+                }
+                if (best.size() < limit) {
+                    best.add(match);
+                } else if (match.compareTo(best.peek()) < 0) {
+                    best.poll();
+                    best.add(match);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Match<E>> matches = new ArrayList<>(best);
+        Collections.sort(matches);
+        List<E> result = new ArrayList<>(matches.size());
+        for (Match<E> match: matches) {
+            result.add(match.entity);
+        }
+        return result;
+    }
+
+    @Override
+    public void index(E entity) {
+        lock.writeLock().lock();
+        try {
+            super.index(entity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void unindex(E entity) {
+        lock.writeLock().lock();
+        try {
+            super.unindex(entity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            super.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void put(String value, E entity) {
+        String normalized = normalize(value);
+        if (normalized.isEmpty()) {
+            return;
+        }
+        fields.computeIfAbsent(entity, key -> new ArrayList<>(2)).add(new Field(normalized));
+        for (String gram: grams(normalized)) {
+            grams.computeIfAbsent(gram, key -> new IdentityHashMap<>()).merge(entity, 1, Integer::sum);
+        }
+    }
+
+    @Override
+    protected void remove(String value, E entity) {
+        String normalized = normalize(value);
+        List<Field> entityFields = fields.get(entity);
+        if (entityFields == null) {
+            return;
+        }
+        Iterator<Field> iterator = entityFields.iterator();
+        boolean removed = false;
+        while (!removed && iterator.hasNext()) {
+            if (iterator.next().text.equals(normalized)) {
+                iterator.remove();
+                removed = true;
+            }
+        }
+        if (!removed) {
+            return;
+        }
+        if (entityFields.isEmpty()) {
+            fields.remove(entity);
+        }
+        for (String gram: grams(normalized)) {
+            Map<E, Integer> posting = grams.get(gram);
+            if (posting != null) {
+                posting.computeIfPresent(entity, (key, count) -> count > 1 ? count - 1 : null);
+                if (posting.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void clearValues() {
+        grams.clear();
+        fields.clear();
+    }
+    
+    /**
+     * Get candidates which contain all grams of query. Short query 
+     * is gram itself, so its posting contains only matching entities.
+     * @param query normalized query;
+     * @return candidates set;
+     */
+    private Collection<E> candidates(String query) {
+        if (query.length() <= GRAM_LENGTH) {
+            Map<E, Integer> posting = grams.get(query);
+            return posting != null ? posting.keySet() : Collections.emptySet();
+        }
+        List<Map<E, Integer>> postings = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+            Map<E, Integer> posting = grams.get(query.substring(i, i + GRAM_LENGTH));
+            if (posting == null) {
+                return Collections.emptySet();
+            }
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(Map::size));
+        List<E> result = new ArrayList<>();
+        for (E entity: postings.get(0).keySet()) {
+            boolean all = true;
+            for (int i = 1; all && i < postings.size(); i++) {
+                all = postings.get(i).containsKey(entity);
+            }
+            if (all) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Check candidate fields against query and rank it.
+     * @param entity candidate entity;
+     * @param query normalized query;
+     * @return match or null if candidate doesn't match;
+     */
+    private Match<E> match(E entity, String query) {
+        Match<E> best = null;
+        for (Field field: fields.getOrDefault(entity, Collections.emptyList())) {
+            int rank;
+            if (field.text.equals(query)) {
+                rank = RANK_EXACT;
+            } else if (field.text.startsWith(query)) {
+                rank = RANK_PREFIX;
+            } else if (field.hasWordPrefix(query)) {
+                rank = RANK_WORD_PREFIX;
+            } else if (field.text.contains(query)) {
+                rank = RANK_SUBSTRING;
+            } else {
+                continue;
+            }
+            Match<E> current = new Match<>(entity, rank, field.text);
+            if (best == null || current.compareTo(best) < 0) {
+                best = current;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Wrap extractor to return distinct normalized values.
+     * @param <E> entity type;
+     * @param extractor raw fields extractor;
+     * @return normalized fields extractor;
+     */
+    private static <E> Function<E, Collection<String>> normalized(Function<E, Collection<String>> extractor) {
+        return entity -> {
+            Collection<String> values = extractor.apply(entity);
+            Set<String> result = new LinkedHashSet<>();
+            if (values != null) {
+                for (String value: values) {
+                    String normalized = normalize(value);
+                    if (!normalized.isEmpty()) {
+                        result.add(normalized);
+                    }
+                }
+            }
+            return result;
+        };
+    }
+    
+    /**
+     * Normalize value for indexing and search.
+     * @param value raw value;
+     * @return lower case trimmed value;
+     */
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Split value into distinct grams of all lengths up to {@link #GRAM_LENGTH}.
+     * @param value normalized value;
+     * @return set of grams;
+     */
+    private static Set<String> grams(String value) {
+        Set<String> result = new LinkedHashSet<>();
+        for (int length = 1; length <= GRAM_LENGTH; length++) {
+            for (int i = 0; i + length <= value.length(); i++) {
+                result.add(value.substring(i, i + length));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Normalized field with words split during indexing.
+     */
+    private static class Field {
+        
+        private final String text;
+        
+        private final String[] words;
+
+        Field(String text) {
+            this.text = text;
+            this.words = WORD_SEPARATOR.split(text);
+        }
+        
+        /**
+         * Check if any word of field starts with query.
+         * @param query normalized query;
+         * @return true if query is prefix of word;
+         */
+        boolean hasWordPrefix(String query) {
+            for (String word: words) {
+                if (word.startsWith(query)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Ranked search match.
+     * @param <E> entity type;
+     */
+    private static class Match<E> implements Comparable<Match<E>> {
+        
+        private final E entity;
+        
+        private final int rank;
+        
+        private final String field;
+
+        Match(E entity, int rank, String field) {
+            this.entity = entity;
+            this.rank = rank;
+            this.field = field;
+        }
+
+        @Override
+        public int compareTo(Match<E> other) {
+            if (rank != other.rank) {
+                return Integer.compare(rank, other.rank);
+            }
+            if (field.length() != other.field.length()) {
+                return Integer.compare(field.length(), other.field.length());
+            }
+            return field.compareTo(other.field);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.index;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Unique hash index: single entity per value. Lookups are lock-free.
+ * @author Stanislav Nepochatov
+ * @param <E> indexed entity type;
+ * @param <V> index value type;
+ */
+public class UniqueIndex<E, V> extends EntityIndex<E, V> {
+    
+    /**
+     * Entities by value.
+     */
+    private final ConcurrentMap<V, E> entities = new ConcurrentHashMap<>();
+
+    /**
+     * Default constructor.
+     * @param extractor function which returns indexed value of entity;
+     */
+    public UniqueIndex(Function<E, V> extractor) {
+        super(single(extractor));
+    }
+    
+    /**
+     * Get entity by indexed value.
+     * @param value value to search;
+     * @return entity or null if not found;
+     */
+    public E get(V value) {
+        return value != null ? entities.get(value) : null;
+    }
+    
+    /**
+     * Get count of indexed values.
+     * @return size of index;
+     */
+    public int size() {
+        return entities.size();
+    }
+
+    @Override
+    protected void put(V value, E entity) {
+        entities.put(value, entity);
+    }
+
+    @Override
+    protected void remove(V value, E entity) {
+        entities.computeIfPresent(value, (key, current) -> current == entity ? null : current);
+    }
+
+    @Override
+    protected void clearValues() {
+        entities.clear();
+    }
+}
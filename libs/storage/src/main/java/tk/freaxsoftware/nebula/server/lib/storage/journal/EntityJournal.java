@@ -0,0 +1,337 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.EntityCodec;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.StreamRecords;
+
+/**
+ * Append-only journal of entity changes stored next to storage file. 
+ * Every record framed by length and CRC32 and synced to disk, so torn 
+ * record at the end of journal after crash is dropped during replay. 
+ * Journal rotated during compaction: current file renamed to {@code .old} 
+ * file, full state of storage written to {@code .base} checkpoint through 
+ * synced temporary file and atomic rename, then rotated file removed. 
+ * Checkpoint removed after storage file rewritten.
+ * @author Stanislav Nepochatov
+ * @param <E> entity type;
+ */
+public class EntityJournal<E> implements Closeable {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityJournal.class);
+    
+    /**
+     * Entity was created or updated.
+     */
+    public static final byte OP_PUT = 1;
+    
+    /**
+     * Entity was deleted.
+     */
+    public static final byte OP_DELETE = 2;
+    
+    /**
+     * Size of record frame: length and checksum.
+     */
+    private static final int FRAME_SIZE = 12;
+    
+    /**
+     * Current journal file.
+     */
+    private final File file;
+    
+    /**
+     * Journal file which is being compacted.
+     */
+    private final File rotatedFile;
+    
+    /**
+     * Checkpoint with full state of storage.
+     */
+    private final File baseFile;
+    
+    /**
+     * Codec of journaled entities.
+     */
+    private final EntityCodec<E> codec;
+    
+    /**
+     * File stream of current journal file.
+     */
+    private FileOutputStream fileOut;
+    
+    /**
+     * Output stream of current journal file.
+     */
+    private DataOutputStream out;
+    
+    /**
+     * Size of current journal file in bytes.
+     */
+    private long size;
+    
+    /**
+     * Journal record consumer.
+     * @param <E> entity type;
+     */
+    public interface Replayer<E> {
+        
+        /**
+         * Apply single journal record.
+         * @param operation journal operation;
+         * @param entity journaled entity;
+         */
+        void apply(byte operation, E entity);
+        
+        /**
+         * Drop all entities since checkpoint with full state of storage follows.
+         */
+        void reset();
+    }
+
+    /**
+     * Default constructor.
+     * @param storagePath path to storage file;
+     * @param codec codec of entities;
+     */
+    public EntityJournal(String storagePath, EntityCodec<E> codec) {
+        this.file = new File(storagePath + ".journal");
+        this.rotatedFile = new File(storagePath + ".journal.old");
+        this.baseFile = new File(storagePath + ".journal.base");
+        this.codec = codec;
+    }
+    
+    /**
+     * Replay checkpoint and journal files and open journal for appending.
+     * @param replayer consumer of journal records;
+     * @return count of replayed records;
+     * @throws IOException on journal reading error;
+     */
+    public synchronized int open(Replayer<E> replayer) throws IOException {
+        int count = 0;
+        if (baseFile.exists()) {
+            replayer.reset();
+            count += replay(baseFile, replayer);
+        }
+        if (rotatedFile.exists()) {
+            count += replay(rotatedFile, replayer);
+        }
+        if (file.exists()) {
+            count += replay(file, replayer);
+        }
+        size = file.length();
+        openOutput();
+        return count;
+    }
+    
+    /**
+     * Append record to journal. Returns after record synced to disk.
+     * @param operation journal operation;
+     * @param entity changed entity;
+     * @throws IOException on write error;
+     */
+    public synchronized void append(byte operation, E entity) throws IOException {
+        size += writeRecord(out, operation, entity);
+        out.flush();
+        fileOut.getFD().sync();
+    }
+    
+    /**
+     * Get size of current journal file.
+     * @return size in bytes;
+     */
+    public synchronized long size() {
+        return size;
+    }
+    
+    /**
+     * Check if there is checkpoint which isn't folded into storage file yet.
+     * @return true if checkpoint exists;
+     */
+    public synchronized boolean hasCheckpoint() {
+        return baseFile.exists();
+    }
+    
+    /**
+     * Start compaction: move current journal aside and continue in new file. 
+     * If previous compaction wasn't finished current file is kept, since 
+     * replay of records already folded into checkpoint is harmless.
+     * @throws IOException on file error;
+     */
+    public synchronized void rotate() throws IOException {
+        if (rotatedFile.exists()) {
+            return;
+        }
+        out.close();
+        if (!file.renameTo(rotatedFile)) {
+            openOutput();
+            throw new IOException("Unable to rotate journal " + file);
+        }
+        size = 0;
+        openOutput();
+    }
+    
+    /**
+     * Write checkpoint with full state of storage. Checkpoint written to 
+     * temporary file, synced and atomically renamed, so crash leaves 
+     * previous checkpoint intact. Should be called after rotation with 
+     * state which includes all rotated records.
+     * @param entities all entities of storage;
+     * @throws IOException on write error;
+     */
+    public synchronized void checkpoint(Collection<E> entities) throws IOException {
+        File temp = new File(baseFile.getPath() + ".tmp");
+        try (FileOutputStream tempOut = new FileOutputStream(temp)) {
+            DataOutputStream checkpointOut = new DataOutputStream(new BufferedOutputStream(tempOut));
+            for (E entity: entities) {
+                writeRecord(checkpointOut, OP_PUT, entity);
+            }
+            checkpointOut.flush();
+            tempOut.getFD().sync();
+        }
+        Files.move(temp.toPath(), baseFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Finish compaction after checkpoint was written.
+     */
+    public synchronized void dropRotated() {
+        if (rotatedFile.exists() && !rotatedFile.delete()) {
+            LOGGER.warn("Unable to remove compacted journal " + rotatedFile);
+        }
+    }
+    
+    /**
+     * Remove checkpoint after storage file was rewritten and synced.
+     */
+    public synchronized void dropCheckpoint() {
+        if (baseFile.exists() && !baseFile.delete()) {
+            LOGGER.warn("Unable to remove journal checkpoint " + baseFile);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            fileOut = null;
+        }
+    }
+    
+    /**
+     * Open current journal file for appending.
+     * @throws IOException on file error;
+     */
+    private void openOutput() throws IOException {
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+    }
+    
+    /**
+     * Write single framed record.
+     * @param target output stream;
+     * @param operation journal operation;
+     * @param entity changed entity;
+     * @return count of written bytes;
+     * @throws IOException on write error;
+     */
+    private int writeRecord(DataOutputStream target, byte operation, E entity) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(buffer);
+        payload.writeByte(operation);
+        codec.write(entity, StreamRecords.output(payload));
+        payload.flush();
+        byte[] bytes = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        target.writeInt(bytes.length);
+        target.write(bytes);
+        target.writeLong(crc.getValue());
+        return bytes.length + FRAME_SIZE;
+    }
+    
+    /**
+     * Replay single journal file. Broken tail of file is truncated: 
+     * record with impossible length, unfinished record or record 
+     * with wrong checksum ends replay.
+     * @param journalFile file to replay;
+     * @param replayer consumer of records;
+     * @return count of records;
+     * @throws IOException on read error;
+     */
+    private int replay(File journalFile, Replayer<E> replayer) throws IOException {
+        int count = 0;
+        long validLength = 0;
+        long fileLength = journalFile.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                byte[] bytes;
+                long checksum;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > fileLength - validLength - FRAME_SIZE) {
+                        break;
+                    }
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    checksum = in.readLong();
+                } catch (EOFException ex) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte operation = payload.readByte();
+                replayer.apply(operation, codec.read(StreamRecords.input(payload)));
+                validLength += bytes.length + FRAME_SIZE;
+                count++;
+            }
+        }
+        if (validLength < fileLength) {
+            LOGGER.warn("Truncating broken tail of journal " + journalFile + " at " + validLength);
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+        return count;
+    }
+}
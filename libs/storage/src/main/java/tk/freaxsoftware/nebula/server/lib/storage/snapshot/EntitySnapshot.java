@@ -0,0 +1,289 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.EntityCodec;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordInput;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordOutput;
+
+/**
+ * Binary snapshot of entity storage stored next to storage file. 
+ * Snapshot consists of header, entity records, interned string table 
+ * and offset index of records. Strings inside records stored as indexes 
+ * in string table. Snapshot file memory-mapped during reading and 
+ * considered stale if storage file was changed after snapshot writing.
+ * @author Stanislav Nepochatov
+ * @param <E> entity type;
+ */
+public final class EntitySnapshot<E> {
+    
+    /**
+     * Snapshot file signature.
+     */
+    private static final int MAGIC = 0x4E425353;
+    
+    /**
+     * Snapshot format version.
+     */
+    private static final int VERSION = 1;
+    
+    /**
+     * Size of snapshot header in bytes.
+     */
+    private static final int HEADER_SIZE = 40;
+    
+    /**
+     * Index of null string.
+     */
+    private static final int NULL_STRING = -1;
+    
+    /**
+     * Mapped snapshot file.
+     */
+    private final ByteBuffer buffer;
+    
+    /**
+     * Codec of entities.
+     */
+    private final EntityCodec<E> codec;
+    
+    /**
+     * Decoded string table.
+     */
+    private final String[] strings;
+    
+    /**
+     * Position of offset index.
+     */
+    private final int indexOffset;
+    
+    /**
+     * Count of entities in snapshot.
+     */
+    private final int count;
+
+    private EntitySnapshot(ByteBuffer buffer, EntityCodec<E> codec, String[] strings, int indexOffset, int count) {
+        this.buffer = buffer;
+        this.codec = codec;
+        this.strings = strings;
+        this.indexOffset = indexOffset;
+        this.count = count;
+    }
+    
+    /**
+     * Get snapshot file of storage.
+     * @param storagePath path to storage file;
+     * @return snapshot file;
+     */
+    public static File snapshotFile(String storagePath) {
+        return new File(storagePath + ".snapshot");
+    }
+    
+    /**
+     * Write snapshot of entities. Snapshot stamped by current state of storage 
+     * file, so it should be written right after storage file.
+     * @param <E> entity type;
+     * @param storagePath path to storage file;
+     * @param codec codec of entities;
+     * @param entities entities to write;
+     * @throws IOException on write error;
+     */
+    public static <E> void write(String storagePath, EntityCodec<E> codec, List<E> entities) throws IOException {
+        File storage = new File(storagePath);
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> stringTable = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsOut = new DataOutputStream(records);
+        RecordOutput output = new RecordOutput() {
+            @Override
+            public void writeString(String value) throws IOException {
+                if (value == null) {
+                    recordsOut.writeInt(NULL_STRING);
+                    return;
+                }
+                Integer index = stringIndex.get(value);
+                if (index == null) {
+                    index = stringTable.size();
+                    stringIndex.put(value, index);
+                    stringTable.add(value);
+                }
+                recordsOut.writeInt(index);
+            }
+
+            @Override
+            public void writeInt(int value) throws IOException {
+                recordsOut.writeInt(value);
+            }
+
+            @Override
+            public void writeLong(long value) throws IOException {
+                recordsOut.writeLong(value);
+            }
+
+            @Override
+            public void writeBoolean(boolean value) throws IOException {
+                recordsOut.writeBoolean(value);
+            }
+        };
+        int[] offsets = new int[entities.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = HEADER_SIZE + recordsOut.size();
+            codec.write(entities.get(i), output);
+        }
+        recordsOut.flush();
+        
+        File target = snapshotFile(storagePath);
+        File temp = new File(target.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            int stringsOffset = HEADER_SIZE + records.size();
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream tableOut = new DataOutputStream(table);
+            for (String value: stringTable) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                tableOut.writeInt(bytes.length);
+                tableOut.write(bytes);
+            }
+            tableOut.flush();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(storage.length());
+            out.writeLong(storage.lastModified());
+            out.writeInt(stringTable.size());
+            out.writeInt(stringsOffset);
+            out.writeInt(offsets.length);
+            out.writeInt(stringsOffset + table.size());
+            records.writeTo(out);
+            table.writeTo(out);
+            for (int offset: offsets) {
+                out.writeInt(offset);
+            }
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Map snapshot of storage file.
+     * @param <E> entity type;
+     * @param storagePath path to storage file;
+     * @param codec codec of entities;
+     * @return snapshot or null if snapshot is missing, broken or stale;
+     * @throws IOException on read error;
+     */
+    public static <E> EntitySnapshot<E> open(String storagePath, EntityCodec<E> codec) throws IOException {
+        File storage = new File(storagePath);
+        File file = snapshotFile(storagePath);
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION 
+                || buffer.getLong(8) != storage.length() || buffer.getLong(16) != storage.lastModified()) {
+            return null;
+        }
+        int stringCount = buffer.getInt(24);
+        int stringsOffset = buffer.getInt(28);
+        int count = buffer.getInt(32);
+        int indexOffset = buffer.getInt(36);
+        if (indexOffset + (long) count * 4 != buffer.capacity()) {
+            return null;
+        }
+        String[] strings = new String[stringCount];
+        ByteBuffer table = buffer.duplicate();
+        table.position(stringsOffset);
+        for (int i = 0; i < stringCount; i++) {
+            byte[] bytes = new byte[table.getInt()];
+            table.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new EntitySnapshot<>(buffer, codec, strings, indexOffset, count);
+    }
+    
+    /**
+     * Get count of entities in snapshot.
+     * @return count of entities;
+     */
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * Read single entity by its position in snapshot.
+     * @param index position of entity;
+     * @return entity;
+     * @throws IOException on decoding error;
+     */
+    public E get(int index) throws IOException {
+        ByteBuffer record = buffer.duplicate();
+        record.position(buffer.getInt(indexOffset + index * 4));
+        return codec.read(new RecordInput() {
+            @Override
+            public String readString() throws IOException {
+                int stringIndex = record.getInt();
+                return stringIndex != NULL_STRING ? strings[stringIndex] : null;
+            }
+
+            @Override
+            public int readInt() throws IOException {
+                return record.getInt();
+            }
+
+            @Override
+            public long readLong() throws IOException {
+                return record.getLong();
+            }
+
+            @Override
+            public boolean readBoolean() throws IOException {
+                return record.get() != 0;
+            }
+        });
+    }
+    
+    /**
+     * Read all entities of snapshot.
+     * @return list of entities;
+     * @throws IOException on decoding error;
+     */
+    public List<E> readAll() throws IOException {
+        List<E> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entities.add(get(i));
+        }
+        return entities;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.EntityCodec;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordInput;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordOutput;
+import tk.freaxsoftware.nebula.server.lib.storage.journal.EntityJournal;
+
+/**
+ * Entity journal unit test.
+ * @author Stanislav Nepochatov
+ */
+public class EntityJournalTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private static class Item {
+        
+        private final String id;
+        
+        private final int value;
+
+        Item(String id, int value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+    
+    private static final EntityCodec<Item> CODEC = new EntityCodec<Item>() {
+        @Override
+        public void write(Item entity, RecordOutput out) throws IOException {
+            out.writeString(entity.id);
+            out.writeInt(entity.value);
+        }
+
+        @Override
+        public Item read(RecordInput in) throws IOException {
+            return new Item(in.readString(), in.readInt());
+        }
+    };
+    
+    /**
+     * Replayer which collects state of storage.
+     */
+    private static class State implements EntityJournal.Replayer<Item> {
+        
+        private final Map<String, Integer> items = new LinkedHashMap<>();
+        
+        private int resets = 0;
+
+        @Override
+        public void apply(byte operation, Item entity) {
+            if (operation == EntityJournal.OP_DELETE) {
+                items.remove(entity.id);
+            } else {
+                items.put(entity.id, entity.value);
+            }
+        }
+
+        @Override
+        public void reset() {
+            items.clear();
+            resets++;
+        }
+    }
+    
+    @Test
+    public void replayTest() throws IOException {
+        String path = new File(folder.getRoot(), "items.ecsv").getPath();
+        EntityJournal<Item> journal = new EntityJournal<>(path, CODEC);
+        assertEquals(0, journal.open(new State()));
+        journal.append(EntityJournal.OP_PUT, new Item("a", 1));
+        journal.append(EntityJournal.OP_PUT, new Item("b", 2));
+        journal.append(EntityJournal.OP_PUT, new Item("a", 3));
+        journal.append(EntityJournal.OP_DELETE, new Item("b", 2));
+        assertEquals(new File(path + ".journal").length(), journal.size());
+        journal.close();
+        
+        State state = new State();
+        EntityJournal<Item> reopened = new EntityJournal<>(path, CODEC);
+        assertEquals(4, reopened.open(state));
+        assertEquals(0, state.resets);
+        assertEquals(1, state.items.size());
+        assertEquals(Integer.valueOf(3), state.items.get("a"));
+        reopened.close();
+    }
+    
+    @Test
+    public void tornTailTest() throws IOException {
+        String path = new File(folder.getRoot(), "items.ecsv").getPath();
+        EntityJournal<Item> journal = new EntityJournal<>(path, CODEC);
+        journal.open(new State());
+        journal.append(EntityJournal.OP_PUT, new Item("a", 1));
+        long valid = journal.size();
+        journal.append(EntityJournal.OP_PUT, new Item("b", 2));
+        journal.close();
+        File file = new File(path + ".journal");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+        
+        State state = new State();
+        EntityJournal<Item> reopened = new EntityJournal<>(path, CODEC);
+        assertEquals(1, reopened.open(state));
+        assertEquals(Arrays.asList("a"), Arrays.asList(state.items.keySet().toArray()));
+        assertEquals(valid, file.length());
+        reopened.append(EntityJournal.OP_PUT, new Item("c", 3));
+        reopened.close();
+        
+        State next = new State();
+        EntityJournal<Item> again = new EntityJournal<>(path, CODEC);
+        assertEquals(2, again.open(next));
+        assertEquals(Integer.valueOf(3), next.items.get("c"));
+        again.close();
+    }
+    
+    @Test
+    public void oversizedLengthTest() throws IOException {
+        String path = new File(folder.getRoot(), "items.ecsv").getPath();
+        EntityJournal<Item> journal = new EntityJournal<>(path, CODEC);
+        journal.open(new State());
+        journal.append(EntityJournal.OP_PUT, new Item("a", 1));
+        long valid = journal.size();
+        journal.close();
+        File file = new File(path + ".journal");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(valid);
+            raf.writeInt(Integer.MAX_VALUE);
+            raf.write(new byte[16]);
+        }
+        
+        State state = new State();
+        EntityJournal<Item> reopened = new EntityJournal<>(path, CODEC);
+        assertEquals(1, reopened.open(state));
+        assertEquals(valid, file.length());
+        reopened.close();
+    }
+    
+    @Test
+    public void compactTest() throws IOException {
+        String path = new File(folder.getRoot(), "items.ecsv").getPath();
+        EntityJournal<Item> journal = new EntityJournal<>(path, CODEC);
+        journal.open(new State());
+        journal.append(EntityJournal.OP_PUT, new Item("a", 1));
+        journal.append(EntityJournal.OP_PUT, new Item("b", 2));
+        journal.rotate();
+        assertEquals(0, journal.size());
+        assertTrue(new File(path + ".journal.old").exists());
+        journal.append(EntityJournal.OP_DELETE, new Item("a", 1));
+        journal.checkpoint(Arrays.asList(new Item("b", 2)));
+        journal.dropRotated();
+        assertFalse(new File(path + ".journal.old").exists());
+        assertTrue(journal.hasCheckpoint());
+        assertFalse(new File(path + ".journal.base.tmp").exists());
+        journal.close();
+        
+        State state = new State();
+        state.items.put("stale", 0);
+        EntityJournal<Item> reopened = new EntityJournal<>(path, CODEC);
+        assertEquals(2, reopened.open(state));
+        assertEquals(1, state.resets);
+        assertEquals(1, state.items.size());
+        assertEquals(Integer.valueOf(2), state.items.get("b"));
+        reopened.dropCheckpoint();
+        assertFalse(reopened.hasCheckpoint());
+        reopened.close();
+    }
+    
+    @Test
+    public void unfinishedCompactionTest() throws IOException {
+        String path = new File(folder.getRoot(), "items.ecsv").getPath();
+        EntityJournal<Item> journal = new EntityJournal<>(path, CODEC);
+        journal.open(new State());
+        journal.append(EntityJournal.OP_PUT, new Item("a", 1));
+        journal.rotate();
+        journal.append(EntityJournal.OP_PUT, new Item("b", 2));
+        journal.close();
+        
+        State state = new State();
+        EntityJournal<Item> reopened = new EntityJournal<>(path, CODEC);
+        assertEquals(2, reopened.open(state));
+        assertEquals(2, state.items.size());
+        reopened.rotate();
+        assertEquals(new File(path + ".journal").length(), reopened.size());
+        reopened.close();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.EntityCodec;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordInput;
+import tk.freaxsoftware.nebula.server.lib.storage.codec.RecordOutput;
+import tk.freaxsoftware.nebula.server.lib.storage.snapshot.EntitySnapshot;
+
+/**
+ * Binary storage snapshot unit test.
+ * @author Stanislav Nepochatov
+ */
+public class EntitySnapshotTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private static final EntityCodec<String[]> CODEC = new EntityCodec<String[]>() {
+        @Override
+        public void write(String[] entity, RecordOutput out) throws IOException {
+            out.writeString(entity[0]);
+            out.writeString(entity[1]);
+        }
+
+        @Override
+        public String[] read(RecordInput in) throws IOException {
+            return new String[] {in.readString(), in.readString()};
+        }
+    };
+    
+    @Test
+    public void readTest() throws IOException {
+        File storage = folder.newFile("items.ecsv");
+        Files.write(storage.toPath(), "items".getBytes(StandardCharsets.UTF_8));
+        EntitySnapshot.write(storage.getPath(), CODEC, Arrays.asList(
+                new String[] {"a", "shared"}, new String[] {"b", null}, new String[] {"c", "shared"}));
+        EntitySnapshot<String[]> snapshot = EntitySnapshot.open(storage.getPath(), CODEC);
+        assertNotNull(snapshot);
+        assertEquals(3, snapshot.size());
+        List<String[]> items = snapshot.readAll();
+        assertArrayEquals(new String[] {"a", "shared"}, items.get(0));
+        assertArrayEquals(new String[] {"b", null}, items.get(1));
+        assertArrayEquals(new String[] {"c", "shared"}, snapshot.get(2));
+    }
+    
+    @Test
+    public void staleTest() throws IOException {
+        File storage = folder.newFile("items.ecsv");
+        assertNull(EntitySnapshot.open(storage.getPath(), CODEC));
+        Files.write(storage.toPath(), "items".getBytes(StandardCharsets.UTF_8));
+        EntitySnapshot.write(storage.getPath(), CODEC, Arrays.asList(new String[][] {{"a", "b"}}));
+        Files.write(storage.toPath(), "changed items".getBytes(StandardCharsets.UTF_8));
+        assertNull(EntitySnapshot.open(storage.getPath(), CODEC));
+    }
+}
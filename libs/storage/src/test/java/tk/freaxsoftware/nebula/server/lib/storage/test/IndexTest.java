@@ -0,0 +1,162 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.storage.index.EnumIndex;
+import tk.freaxsoftware.nebula.server.lib.storage.index.MultiIndex;
+import tk.freaxsoftware.nebula.server.lib.storage.index.SearchIndex;
+import tk.freaxsoftware.nebula.server.lib.storage.index.UniqueIndex;
+
+/**
+ * Secondary indexes unit test.
+ * @author Stanislav Nepochatov
+ */
+public class IndexTest {
+    
+    private enum State {
+        ON, OFF
+    }
+    
+    private static class Item {
+        
+        private final String id;
+        
+        private String group;
+        
+        private State state;
+        
+        private Set<State> tags;
+
+        Item(String id, String group, State state, State... tags) {
+            this.id = id;
+            this.group = group;
+            this.state = state;
+            this.tags = new HashSet<>(Arrays.asList(tags));
+        }
+    }
+    
+    @Test
+    public void uniqueTest() {
+        UniqueIndex<Item, String> index = new UniqueIndex<>(item -> item.id);
+        Item first = new Item("first", "a", State.ON);
+        index.index(first);
+        assertSame(first, index.get("first"));
+        index.unindex(first);
+        assertNull(index.get("first"));
+    }
+    
+    @Test
+    public void reindexTest() {
+        MultiIndex<Item, String> groupIndex = MultiIndex.of(item -> item.group);
+        EnumIndex<Item, State> stateIndex = new EnumIndex<>(State.class, item -> item.state);
+        Item first = new Item("first", "a", State.ON);
+        Item second = new Item("second", "a", State.OFF);
+        groupIndex.index(first);
+        groupIndex.index(second);
+        stateIndex.index(first);
+        stateIndex.index(second);
+        assertEquals(Arrays.asList(first, second), groupIndex.get("a"));
+        
+        first.group = "b";
+        first.state = State.OFF;
+        groupIndex.index(first);
+        stateIndex.index(first);
+        assertEquals(Arrays.asList(second), groupIndex.get("a"));
+        assertEquals(Arrays.asList(first), groupIndex.get("b"));
+        assertTrue(stateIndex.get(State.ON).isEmpty());
+        assertEquals(2, stateIndex.get(State.OFF).size());
+    }
+    
+    @Test
+    public void multiValuedTest() {
+        EnumIndex<Item, State> tagIndex = EnumIndex.multiValued(State.class, item -> item.tags);
+        Item item = new Item("first", "a", State.ON, State.ON, State.OFF);
+        tagIndex.index(item);
+        assertEquals(Arrays.asList(item), tagIndex.get(State.ON));
+        assertEquals(Arrays.asList(item), tagIndex.get(State.OFF));
+        item.tags.remove(State.ON);
+        tagIndex.index(item);
+        assertFalse(tagIndex.contains(State.ON));
+    }
+    
+    @Test
+    public void bucketViewTest() {
+        MultiIndex<Item, String> groupIndex = MultiIndex.of(item -> item.group);
+        Item first = new Item("first", "a", State.ON);
+        Item second = new Item("second", "a", State.ON);
+        groupIndex.index(first);
+        List<Item> view = groupIndex.get("a");
+        assertSame(view, groupIndex.get("a"));
+        groupIndex.index(second);
+        assertEquals(Arrays.asList(first), view);
+        assertEquals(Arrays.asList(first, second), groupIndex.get("a"));
+        groupIndex.unindex(first);
+        groupIndex.unindex(second);
+        assertFalse(groupIndex.contains("a"));
+        assertTrue(groupIndex.get("a").isEmpty());
+        groupIndex.index(first);
+        assertEquals(Arrays.asList(first), groupIndex.get("a"));
+    }
+    
+    @Test
+    public void searchTest() {
+        SearchIndex<Item> index = new SearchIndex<>(item -> Arrays.asList(item.id, item.group));
+        Item john = new Item("jsmith", "John Smith", State.ON);
+        Item smith = new Item("smith", "Agent Smith", State.ON);
+        Item anna = new Item("anna", "Anna Smithson", State.ON);
+        index.index(john);
+        index.index(smith);
+        index.index(anna);
+        assertEquals(Arrays.asList(smith, john, anna), index.find("SMITH", 10));
+        assertEquals(Arrays.asList(smith), index.find("smith", 1));
+        assertEquals(Arrays.asList(anna), index.find("an", 10));
+        assertEquals(Arrays.asList(john), index.find("jo", 10));
+        assertEquals(Arrays.asList(smith, john, anna), index.find("mi", 10));
+        assertEquals(Arrays.asList(smith, john), index.find("mi", 2));
+        assertEquals(Arrays.asList(smith, john, anna), index.find("h", 10));
+        assertTrue(index.find("xyz", 10).isEmpty());
+        
+        john.group = "John Doe";
+        index.index(john);
+        assertEquals(Arrays.asList(smith, anna, john), index.find("smith", 10));
+        index.unindex(anna);
+        assertEquals(Arrays.asList(smith, john), index.find("smith", 10));
+    }
+    
+    @Test
+    public void searchCaseDuplicateTest() {
+        SearchIndex<Item> index = new SearchIndex<>(item -> Arrays.asList(item.id, item.group));
+        Item stored = new Item("root", "Root", State.ON);
+        index.index(stored);
+        Item saved = new Item("root", "ROOT", State.OFF);
+        index.unindex(stored);
+        index.index(saved);
+        assertEquals(Arrays.asList(saved), index.find("roo", 10));
+        index.unindex(saved);
+        assertTrue(index.find("roo", 10).isEmpty());
+        assertTrue(index.find("r", 10).isEmpty());
+        assertEquals(0, index.getGramCount());
+    }
+}
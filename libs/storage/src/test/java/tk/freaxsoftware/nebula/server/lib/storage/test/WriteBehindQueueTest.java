@@ -0,0 +1,90 @@
+/*
+ * This file is part of Nebula storage library.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.lib.storage.test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.lib.storage.WriteBehindQueue;
+
+/**
+ * Write-behind queue unit test.
+ * @author Stanislav Nepochatov
+ */
+public class WriteBehindQueueTest {
+    
+    @Test
+    public void flushTest() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        WriteBehindQueue queue = new WriteBehindQueue("test", 60000, 100, () -> {
+            writes.incrementAndGet();
+            return true;
+        });
+        CompletableFuture<Void> first = queue.markDirty();
+        CompletableFuture<Void> second = queue.markDirty();
+        assertSame(first, second);
+        assertFalse(first.isDone());
+        queue.flush();
+        assertTrue(first.isDone());
+        assertEquals(1, writes.get());
+        assertTrue(queue.whenFlushed().isDone());
+        queue.close();
+        assertEquals(1, writes.get());
+    }
+    
+    @Test
+    public void retryTest() throws Exception {
+        AtomicBoolean broken = new AtomicBoolean(true);
+        AtomicInteger writes = new AtomicInteger();
+        WriteBehindQueue queue = new WriteBehindQueue("test", 50, 100, () -> {
+            writes.incrementAndGet();
+            return !broken.get();
+        });
+        CompletableFuture<Void> change = queue.markDirty();
+        queue.flush();
+        assertFalse(change.isDone());
+        assertFalse(queue.whenFlushed().isDone());
+        broken.set(false);
+        change.get(5, TimeUnit.SECONDS);
+        assertTrue(writes.get() >= 2);
+        assertTrue(queue.whenFlushed().isDone());
+        queue.close();
+    }
+    
+    @Test
+    public void retryOnErrorTest() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        WriteBehindQueue queue = new WriteBehindQueue("test", 60000, 100, () -> {
+            if (writes.incrementAndGet() == 1) {
+                throw new IllegalStateException("disk full");
+            }
+            return true;
+        });
+        CompletableFuture<Void> change = queue.markDirty();
+        queue.flush();
+        assertFalse(change.isDone());
+        queue.flush();
+        assertTrue(change.isDone());
+        assertEquals(2, writes.get());
+        queue.close();
+    }
+}
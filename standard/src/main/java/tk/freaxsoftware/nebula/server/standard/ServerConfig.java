@@ -24,10 +24,13 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tk.freaxsoftware.nebula.server.lib.api.Features;
+import tk.freaxsoftware.nebula.server.lib.loader.FeatureRouter;
 
 /**
  * Server configuration class.
@@ -74,11 +77,41 @@ public class ServerConfig {
          */
         NEBULA_PLUGIN_LOADER_ENABLED("nebula_plugin_loader_enabled", true),
         
+        /**
+         * Enable reload of changed plugin jars without restart.
+         */
+        NEBULA_PLUGIN_HOT_RELOAD("nebula_plugin_hot_reload", true),
+        
+        /**
+         * Max time of single plugin start in seconds.
+         */
+        NEBULA_PLUGIN_START_TIMEOUT("nebula_plugin_start_timeout", 30),
+        
+        /**
+         * Max time of plugin drain before stop in seconds.
+         */
+        NEBULA_PLUGIN_DRAIN_TIMEOUT("nebula_plugin_drain_timeout", 10),
+        
+        /**
+         * Default max count of threads of plugin executor.
+         */
+        NEBULA_PLUGIN_MAX_THREADS("nebula_plugin_max_threads", 2),
+        
+        /**
+         * Default max count of queued tasks of plugin executor.
+         */
+        NEBULA_PLUGIN_MAX_QUEUE("nebula_plugin_max_queue", 256),
+        
         /**
          * Required features which will run automatically.
          */
         NEBULA_PLUGIN_REQUIRED_FEATURES("nebula_plugin_required_features", new Features[] {Features.LOGIN_PROVIDER}, "LOGIN_PROVIDER"),
         
+        /**
+         * Routing strategy of feature providers: default strategy and FEATURE:STRATEGY overrides.
+         */
+        NEBULA_PLUGIN_FEATURE_ROUTING("nebula_plugin_feature_routing", FeatureRouter.Strategy.ROUND_ROBIN),
+        
         /**
          * Default language locale for web ui.
          */
@@ -97,7 +130,17 @@ public class ServerConfig {
         /**
          * JWT token max age in hours.
          */
-        NEBULA_TOKEN_VALID_HOURS("nebula_token_valid_hours", 24 * 30);
+        NEBULA_TOKEN_VALID_HOURS("nebula_token_valid_hours", 24 * 30),
+        
+        /**
+         * Max count of verified tokens in cache.
+         */
+        NEBULA_TOKEN_CACHE_SIZE("nebula_token_cache_size", 10000),
+        
+        /**
+         * Size of users and groups journal in bytes which triggers compaction.
+         */
+        NEBULA_STORAGE_JOURNAL_LIMIT("nebula_storage_journal_limit", 1048576);
         
         /**
          * Option property key.
@@ -171,11 +214,19 @@ public class ServerConfig {
         LOGGER.info("Spark max threads: " + getSparkThreadPoolMax());
         LOGGER.info("Spark min threads: " + getSparkThreadPoolMin());
         LOGGER.info("Plugins enabled: " + isPluginsEnabled());
+        LOGGER.info("Plugins hot reload: " + isPluginsHotReload());
+        LOGGER.info("Plugin start timeout: " + getPluginStartTimeout());
+        LOGGER.info("Plugin drain timeout: " + getPluginDrainTimeout());
+        LOGGER.info("Plugin max threads: " + getPluginMaxThreads());
+        LOGGER.info("Plugin max queue: " + getPluginMaxQueue());
         LOGGER.info("Required features: " + Arrays.toString(getRequiredFeatures()));
+        LOGGER.info("Feature routing: " + getFeatureRouting());
         LOGGER.info("Default locale: " + getDefaultLocale());
         LOGGER.info("Auth cookie name:" + getTokenCookieName());
         LOGGER.info("Auth token secret:" + getTokenSecret());
         LOGGER.info("Auth token max age:" + getTokenValidHours());
+        LOGGER.info("Auth token cache size:" + getTokenCacheSize());
+        LOGGER.info("Storage journal limit:" + getStorageJournalLimit());
         LOGGER.info("===========================================================");
     }
     
@@ -219,6 +270,56 @@ public class ServerConfig {
                 : Integer.valueOf(Options.NEBULA_SPARK_TPOOL_MIN.defaultValue.toString());
     }
     
+    /**
+     * Get flag which enables reload of changed plugin jars.
+     * @return boolean flag;
+     */
+    public Boolean isPluginsHotReload() {
+        return optionsProperties.containsKey(Options.NEBULA_PLUGIN_HOT_RELOAD.propertyKey)
+                ? Boolean.valueOf(optionsProperties.getProperty(Options.NEBULA_PLUGIN_HOT_RELOAD.propertyKey))
+                : Boolean.valueOf(Options.NEBULA_PLUGIN_HOT_RELOAD.defaultValue.toString());
+    }
+    
+    /**
+     * Get max time of single plugin start in seconds.
+     * @return timeout in seconds;
+     */
+    public Integer getPluginStartTimeout() {
+        return optionsProperties.containsKey(Options.NEBULA_PLUGIN_START_TIMEOUT.propertyKey)
+                ? Integer.valueOf(optionsProperties.getProperty(Options.NEBULA_PLUGIN_START_TIMEOUT.propertyKey))
+                : Integer.valueOf(Options.NEBULA_PLUGIN_START_TIMEOUT.defaultValue.toString());
+    }
+    
+    /**
+     * Get max time of plugin drain before stop in seconds.
+     * @return timeout in seconds;
+     */
+    public Integer getPluginDrainTimeout() {
+        return optionsProperties.containsKey(Options.NEBULA_PLUGIN_DRAIN_TIMEOUT.propertyKey)
+                ? Integer.valueOf(optionsProperties.getProperty(Options.NEBULA_PLUGIN_DRAIN_TIMEOUT.propertyKey))
+                : Integer.valueOf(Options.NEBULA_PLUGIN_DRAIN_TIMEOUT.defaultValue.toString());
+    }
+    
+    /**
+     * Get default max count of threads of plugin executor.
+     * @return count of threads;
+     */
+    public Integer getPluginMaxThreads() {
+        return optionsProperties.containsKey(Options.NEBULA_PLUGIN_MAX_THREADS.propertyKey)
+                ? Integer.valueOf(optionsProperties.getProperty(Options.NEBULA_PLUGIN_MAX_THREADS.propertyKey))
+                : Integer.valueOf(Options.NEBULA_PLUGIN_MAX_THREADS.defaultValue.toString());
+    }
+    
+    /**
+     * Get default max count of queued tasks of plugin executor.
+     * @return count of tasks;
+     */
+    public Integer getPluginMaxQueue() {
+        return optionsProperties.containsKey(Options.NEBULA_PLUGIN_MAX_QUEUE.propertyKey)
+                ? Integer.valueOf(optionsProperties.getProperty(Options.NEBULA_PLUGIN_MAX_QUEUE.propertyKey))
+                : Integer.valueOf(Options.NEBULA_PLUGIN_MAX_QUEUE.defaultValue.toString());
+    }
+    
     /**
      * Get flag which enables load of non-core plugins.
      * @return boolean flag;
@@ -246,6 +347,35 @@ public class ServerConfig {
         }
     }
     
+    /**
+     * Get routing strategies of feature providers.
+     * @return map of strategies for all features;
+     */
+    public Map<Features, FeatureRouter.Strategy> getFeatureRouting() {
+        String rawRouting = optionsProperties.containsKey(Options.NEBULA_PLUGIN_FEATURE_ROUTING.propertyKey)
+                ? optionsProperties.getProperty(Options.NEBULA_PLUGIN_FEATURE_ROUTING.propertyKey)
+                : Options.NEBULA_PLUGIN_FEATURE_ROUTING.defaultValue.toString();
+        Map<Features, FeatureRouter.Strategy> routing = new EnumMap<>(Features.class);
+        for (String rawItem: rawRouting.split(",")) {
+            String[] parts = rawItem.trim().split(":");
+            try {
+                if (parts.length == 1) {
+                    FeatureRouter.Strategy strategy = FeatureRouter.Strategy.valueOf(parts[0]);
+                    for (Features feature: Features.values()) {
+                        routing.putIfAbsent(feature, strategy);
+                    }
+                } else if (parts.length == 2) {
+                    routing.put(Features.valueOf(parts[0]), FeatureRouter.Strategy.valueOf(parts[1]));
+                } else {
+                    throw new IllegalArgumentException(rawItem);
+                }
+            } catch (IllegalArgumentException ex) {
+                LOGGER.warn("Wrong feature routing '" + rawItem.trim() + "', default strategy will be used");
+            }
+        }
+        return routing;
+    }
+    
     /**
      * Get default locale for user interface.
      * @return locale string e.g. 'en' or 'ru';
@@ -286,4 +416,24 @@ public class ServerConfig {
                 ? Integer.valueOf(optionsProperties.getProperty(Options.NEBULA_TOKEN_VALID_HOURS.propertyKey))
                 : Integer.valueOf(Options.NEBULA_TOKEN_VALID_HOURS.defaultValue.toString());
     }
+    
+    /**
+     * Get max size of verified tokens cache.
+     * @return amount of cached tokens (integer);
+     */
+    public Integer getTokenCacheSize() {
+        return optionsProperties.containsKey(Options.NEBULA_TOKEN_CACHE_SIZE.propertyKey) 
+                ? Integer.valueOf(optionsProperties.getProperty(Options.NEBULA_TOKEN_CACHE_SIZE.propertyKey))
+                : Integer.valueOf(Options.NEBULA_TOKEN_CACHE_SIZE.defaultValue.toString());
+    }
+    
+    /**
+     * Get size of storage journal which triggers compaction.
+     * @return size in bytes (long);
+     */
+    public Long getStorageJournalLimit() {
+        return optionsProperties.containsKey(Options.NEBULA_STORAGE_JOURNAL_LIMIT.propertyKey) 
+                ? Long.valueOf(optionsProperties.getProperty(Options.NEBULA_STORAGE_JOURNAL_LIMIT.propertyKey))
+                : Long.valueOf(Options.NEBULA_STORAGE_JOURNAL_LIMIT.defaultValue.toString());
+    }
 }
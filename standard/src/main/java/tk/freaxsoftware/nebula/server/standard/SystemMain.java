@@ -19,18 +19,36 @@
 package tk.freaxsoftware.nebula.server.standard;
 
 import freemarker.template.Configuration;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Spark;
 import spark.template.freemarker.FreeMarkerEngine;
 import tk.freaxsoftware.extras.faststorage.exception.EntityProcessingException;
 import tk.freaxsoftware.extras.faststorage.ignition.FastStorageIgnition;
+import tk.freaxsoftware.extras.faststorage.storage.Handlers;
+import tk.freaxsoftware.nebula.server.core.entities.Group;
+import tk.freaxsoftware.nebula.server.core.entities.User;
+import tk.freaxsoftware.nebula.server.core.entities.codecs.GroupCodec;
+import tk.freaxsoftware.nebula.server.core.entities.codecs.UserCodec;
+import tk.freaxsoftware.nebula.server.core.entities.handlers.GroupHandler;
+import tk.freaxsoftware.nebula.server.core.entities.handlers.UserHandler;
+import tk.freaxsoftware.nebula.server.core.messages.MessagesClass;
+import tk.freaxsoftware.nebula.server.lib.api.Features;
 import tk.freaxsoftware.nebula.server.lib.loader.PluginLoader;
 import tk.freaxsoftware.nebula.server.lib.localehandler.LocaleHandler;
 import tk.freaxsoftware.nebula.server.standard.routes.LoginRoutes;
 import tk.freaxsoftware.nebula.server.standard.routes.MainRoutes;
+import tk.freaxsoftware.nebula.server.standard.utils.BootGraph;
+import tk.freaxsoftware.nebula.server.standard.utils.JWTTokenService;
 
 /**
  * Nebula server main class.
@@ -42,15 +60,27 @@ public class SystemMain {
     
     public static ServerConfig config;
     
-    public static PluginLoader loader;
+    public static volatile PluginLoader loader;
     
-    public static FreeMarkerEngine webTemplateEngine;
+    public static volatile FreeMarkerEngine webTemplateEngine;
+    
+    /**
+     * Max count of concurrently running boot phases.
+     */
+    private static final int BOOT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    
+    private static final UserCodec USER_CODEC = new UserCodec();
+    
+    private static final GroupCodec GROUP_CODEC = new GroupCodec();
+    
+    private static volatile UserHandler userHandler;
+    
+    private static volatile GroupHandler groupHandler;
 
     /**
      * @param args the command line arguments
-     * @throws java.io.IOException
      */
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) {
         LOGGER.info("Starting Nebula server instance...");
         
         config = new ServerConfig();
@@ -58,44 +88,171 @@ public class SystemMain {
         Spark.threadPool(config.getSparkThreadPoolMax(), 
                 config.getSparkThreadPoolMin(), 30000);
         LocaleHandler.setDefaultLocale(config.getDefaultLocale());
+        Runtime.getRuntime().addShutdownHook(new Thread(SystemMain::flushStorages, "nebula-shutdown"));
         
-        try {
-            FastStorageIgnition.ignite(SystemMain.class.getClassLoader().getResourceAsStream("Entities.ign"));
-        } catch (EntityProcessingException ex) {
-            LOGGER.error("Error during loading of users or groups", ex);
+        new BootGraph()
+                .phase("storage", SystemMain::igniteStorage)
+                .phase("journal", SystemMain::openJournals, "storage")
+                //Both storage ignitions fill shared handlers registry, so they run in sequence.
+                //Users and groups are fully recovered from journal before any plugin is loaded.
+                .phase("loader", () -> {
+                    File pluginFolder = new File("plugins/");
+                    loader = new PluginLoader(pluginFolder.getAbsolutePath());
+                    config.getFeatureRouting().forEach(loader.getFeatureRouter()::setStrategy);
+                    loader.getFeatureRouter().bindMessage(MessagesClass.NEBULA_INTERNAL_LOGIN_MESSAGE, Features.LOGIN_PROVIDER);
+                    loader.setDrainTimeout(TimeUnit.SECONDS.toMillis(config.getPluginDrainTimeout()));
+                    loader.setExecutorLimits(config.getPluginMaxThreads(), config.getPluginMaxQueue());
+                }, "storage", "journal")
+                .phase("core-plugins", () -> {
+                    LOGGER.info("loading core plugins.");
+                    loader.loadCore();
+                }, "loader")
+                .phase("plugins", () -> {
+                    if (config.isPluginsEnabled()) {
+                        LOGGER.info("loading extra plugins.");
+                        loader.load();
+                    }
+                }, "core-plugins")
+                .phase("features", () -> {
+                    Boolean reuslt = loader.startPluginsByFeatures(config.getRequiredFeatures());
+                    if (reuslt) {
+                        LOGGER.info("All required features started.");
+                    } else {
+                        LOGGER.warn("Not all features started. Please reconfigure system.");
+                    }
+                }, "plugins")
+                .phase("localization", SystemMain::initLocalization)
+                .phase("templates", SystemMain::initTemplates)
+                .phase("routes", () -> {
+                    LoginRoutes.init();
+                    MainRoutes.init();
+                }, "journal", "features", "localization", "templates")
+                .phase("start-plugins", () -> {
+                    loader.startPlugins(TimeUnit.SECONDS.toMillis(config.getPluginStartTimeout()));
+                    if (config.isPluginsEnabled() && config.isPluginsHotReload()) {
+                        loader.startWatching();
+                    }
+                }, "routes")
+                .run(BOOT_THREADS);
+    }
+    
+    /**
+     * Load storages of users and groups. Storage with fresh binary snapshot is 
+     * loaded from snapshot by handler created here, only the rest of storages 
+     * are ignited, so their files are parsed. Handlers loaded from snapshot 
+     * aren't registered in faststorage handlers, use {@link #getUserHandler()} 
+     * and {@link #getGroupHandler()} instead.
+     */
+    private static void igniteStorage() {
+        List<String> ignition = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                SystemMain.class.getClassLoader().getResourceAsStream("Entities.ign"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String type = line.substring(0, line.indexOf(','));
+                String storagePath = line.substring(line.lastIndexOf(',') + 1).trim();
+                if (User.TYPE.equals(type)) {
+                    UserHandler handler = new UserHandler(storagePath);
+                    if (handler.loadBinarySnapshot(USER_CODEC)) {
+                        userHandler = handler;
+                        continue;
+                    }
+                } else if (Group.TYPE.equals(type)) {
+                    GroupHandler handler = new GroupHandler(storagePath);
+                    if (handler.loadBinarySnapshot(GROUP_CODEC)) {
+                        groupHandler = handler;
+                        continue;
+                    }
+                }
+                ignition.add(line);
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Unable to read storage ignition file", ex);
             throw new RuntimeException("Unable to proceed");
         }
-
-        File pluginFolder = new File("plugins/");
-        loader = new PluginLoader(pluginFolder.getAbsolutePath());
-        LOGGER.info("loading core plugins.");
-        loader.loadCore();
-        
-        if (config.isPluginsEnabled()) {
-            LOGGER.info("loading extra plugins.");
-            loader.load();
+        if (!ignition.isEmpty()) {
+            try {
+                FastStorageIgnition.ignite(new ByteArrayInputStream(String.join("\n", ignition).getBytes(StandardCharsets.UTF_8)));
+            } catch (EntityProcessingException ex) {
+                LOGGER.error("Error during loading of users or groups", ex);
+                throw new RuntimeException("Unable to proceed");
+            }
         }
-        Boolean reuslt = loader.startPluginsByFeatures(config.getRequiredFeatures());
-        if (reuslt) {
-            LOGGER.info("All required features started.");
-        } else {
-            LOGGER.warn("Not all features started. Please reconfigure system.");
+        if (userHandler == null) {
+            userHandler = (UserHandler) Handlers.getHandlerByClass(User.class);
         }
-        
-        initLocalization();
+        if (groupHandler == null) {
+            groupHandler = (GroupHandler) Handlers.getHandlerByClass(Group.class);
+        }
+        userHandler.addChangeListener(login -> JWTTokenService.getInstance().getTokenCache().invalidate(login));
+    }
+    
+    /**
+     * Get handler of users.
+     * @return user handler;
+     */
+    public static UserHandler getUserHandler() {
+        return userHandler;
+    }
+    
+    /**
+     * Get handler of groups.
+     * @return group handler;
+     */
+    public static GroupHandler getGroupHandler() {
+        return groupHandler;
+    }
+    
+    /**
+     * Replay journals of users and groups.
+     */
+    private static void openJournals() {
+        try {
+            userHandler.enableJournal(USER_CODEC, config.getStorageJournalLimit());
+            groupHandler.enableJournal(GROUP_CODEC, config.getStorageJournalLimit());
+        } catch (IOException ex) {
+            LOGGER.error("Error during replay of users or groups journal", ex);
+            throw new RuntimeException("Unable to proceed");
+        }
+    }
+    
+    /**
+     * Init static files and FreeMarker templates.
+     */
+    private static void initTemplates() {
         Spark.externalStaticFileLocation("web");
-        
-        webTemplateEngine = new FreeMarkerEngine();
+        FreeMarkerEngine engine = new FreeMarkerEngine();
         Configuration freeExternalConfig = new Configuration();
-        freeExternalConfig.setDirectoryForTemplateLoading(new File("web"));
-        webTemplateEngine.setConfiguration(freeExternalConfig);
-        
-        //Init routes
-        LoginRoutes.init();
-        MainRoutes.init();
-        
-        //Plugin intt
-        loader.startPlugins();
+        try {
+            freeExternalConfig.setDirectoryForTemplateLoading(new File("web"));
+        } catch (IOException ex) {
+            LOGGER.error("Unable to init web templates", ex);
+            throw new RuntimeException("Unable to proceed");
+        }
+        engine.setConfiguration(freeExternalConfig);
+        webTemplateEngine = engine;
+    }
+    
+    /**
+     * Write pending changes of storages on shutdown.
+     */
+    private static void flushStorages() {
+        LOGGER.info("Flushing storages...");
+        LOGGER.info("Auth token cache: " + JWTTokenService.getInstance().getTokenCache());
+        if (loader != null) {
+            loader.stopWatching();
+            loader.stopPlugins();
+            loader.flush();
+        }
+        if (userHandler != null && groupHandler != null) {
+            userHandler.disableJournal();
+            groupHandler.disableJournal();
+            userHandler.writeBinarySnapshot(USER_CODEC);
+            groupHandler.writeBinarySnapshot(GROUP_CODEC);
+        }
     }
     
     /**
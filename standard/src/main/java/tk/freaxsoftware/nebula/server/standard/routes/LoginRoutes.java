@@ -18,7 +18,6 @@
  */
 package tk.freaxsoftware.nebula.server.standard.routes;
 
-import io.jsonwebtoken.Claims;
 import java.util.HashMap;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -26,10 +25,9 @@ import org.slf4j.LoggerFactory;
 import spark.ModelAndView;
 import spark.QueryParamsMap;
 import static spark.Spark.*;
-import tk.freaxsoftware.extras.bus.ArgHelper;
 import tk.freaxsoftware.extras.bus.GlobalIds;
 import tk.freaxsoftware.extras.bus.MessageBus;
-import tk.freaxsoftware.extras.faststorage.storage.Handlers;
+import tk.freaxsoftware.nebula.server.lib.api.Features;
 import tk.freaxsoftware.nebula.server.lib.localehandler.LocaleHandler;
 import tk.freaxsoftware.nebula.server.standard.SystemMain;
 import static tk.freaxsoftware.nebula.server.standard.SystemMain.webTemplateEngine;
@@ -48,7 +46,7 @@ public class LoginRoutes {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(LoginRoutes.class);
     
-    private static final UserHandler userHandler = (UserHandler) Handlers.getHandlerByClass(User.class);
+    private static final UserHandler userHandler = SystemMain.getUserHandler();
     
     public static void init() {
         before("/*", (request, response) -> {
@@ -57,8 +55,8 @@ public class LoginRoutes {
                 loginedUser = userHandler.getUserByLogin(request.session().attribute("user"));
             } else if (request.cookies().containsKey(SystemMain.config.getTokenCookieName())) {
                 try {
-                    Claims userClaims = JWTTokenService.getInstance().decryptToken(request.cookie(SystemMain.config.getTokenCookieName()));
-                    loginedUser = userHandler.getUserByLogin(userClaims.getId());
+                    String tokenLogin = JWTTokenService.getInstance().getLoginFromToken(request.cookie(SystemMain.config.getTokenCookieName()));
+                    loginedUser = userHandler.getUserByLogin(tokenLogin);
                 } catch (Exception ex) {
                     LOGGER.error("Unable to finish JWT auth", ex);
                 }
@@ -93,30 +91,37 @@ public class LoginRoutes {
         
         post("/login", (request, response) -> {
             QueryParamsMap map = request.queryMap();
-            ArgHelper argHelper = ArgHelper.newInstance()
-                    .putArg(MessagesClass.NEBULA_INTERNAL_LOGIN_ARG_LOGIN, map.value("login"))
-                    .putArg(MessagesClass.NEBULA_INTERNAL_LOGIN_ARG_PASSWORD, map.value("password"));
+            Map<String, Object> arguments = new HashMap<>();
+            arguments.put(MessagesClass.NEBULA_INTERNAL_LOGIN_ARG_LOGIN, map.value("login"));
+            arguments.put(MessagesClass.NEBULA_INTERNAL_LOGIN_ARG_PASSWORD, map.value("password"));
             
-            MessageBus.fireMessageSyncCheckedHelped(MessagesClass.NEBULA_INTERNAL_LOGIN_MESSAGE, argHelper, (res) -> {
-                if (MessageBus.isSuccessful(res)) {
-                    User user = (User) res.get(MessagesClass.NEBULA_INTERNAL_LOGIN_RES_USER);
-                    if (map.get("remember").value() != null && map.get("remember").value().equals("rememberTrue")) {
-                        LOGGER.debug("Proceed JWT auth: " + user.getLogin());
-                        JWTTokenService tokenService = JWTTokenService.getInstance();
-                        response.cookie(SystemMain.config.getTokenCookieName(), tokenService.encryptToken(user), SystemMain.config.getTokenValidHours() * 3600);
-                    } else {
-                        LOGGER.debug("Proceed session auth: " + user.getLogin());
-                        request.session(true);
-                        request.session().attribute("user", user.getLogin());
-                    }
-                    response.redirect("/");
+            Map<String, Object> res;
+            try {
+                res = SystemMain.loader.getFeatureRouter().send(Features.LOGIN_PROVIDER, 
+                        MessagesClass.NEBULA_INTERNAL_LOGIN_MESSAGE, arguments, false);
+            } catch (Exception ex) {
+                LOGGER.error("Unable to reach login provider", ex);
+                res = new HashMap<>();
+                res.put(GlobalIds.GLOBAL_ERROR_MESSAGE, ex.getMessage());
+            }
+            if (MessageBus.isSuccessful(res)) {
+                User user = (User) res.get(MessagesClass.NEBULA_INTERNAL_LOGIN_RES_USER);
+                if (map.get("remember").value() != null && map.get("remember").value().equals("rememberTrue")) {
+                    LOGGER.debug("Proceed JWT auth: " + user.getLogin());
+                    JWTTokenService tokenService = JWTTokenService.getInstance();
+                    response.cookie(SystemMain.config.getTokenCookieName(), tokenService.encryptToken(user), SystemMain.config.getTokenValidHours() * 3600);
                 } else {
-                    LOGGER.error("Handler returned error: " + res.get(GlobalIds.GLOBAL_ERROR_MESSAGE));
+                    LOGGER.debug("Proceed session auth: " + user.getLogin());
                     request.session(true);
-                    request.session().attribute("error", "server_login_error_message");
-                    response.redirect("/login");
+                    request.session().attribute("user", user.getLogin());
                 }
-            });
+                response.redirect("/");
+            } else {
+                LOGGER.error("Handler returned error: " + res.get(GlobalIds.GLOBAL_ERROR_MESSAGE));
+                request.session(true);
+                request.session().attribute("error", "server_login_error_message");
+                response.redirect("/login");
+            }
             
 //            User user = userHandler.getUserByLogin(map.value("login"));
 //            if (user != null && user.getPassword().equals(SHAHash.hashPassword(map.value("password")))) {
@@ -19,13 +19,26 @@
 package tk.freaxsoftware.nebula.server.standard.routes;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import spark.ModelAndView;
 import spark.QueryParamsMap;
 import static spark.Spark.*;
+import tk.freaxsoftware.nebula.server.core.entities.Group;
+import tk.freaxsoftware.nebula.server.core.entities.User;
+import tk.freaxsoftware.nebula.server.core.entities.handlers.GroupHandler;
+import tk.freaxsoftware.nebula.server.core.entities.handlers.UserHandler;
+import tk.freaxsoftware.nebula.server.lib.loader.LifecycleJob;
+import tk.freaxsoftware.nebula.server.lib.loader.LifecycleProfiler;
+import tk.freaxsoftware.nebula.server.lib.loader.PluginExecutor;
+import tk.freaxsoftware.nebula.server.lib.loader.PluginRecord;
 import tk.freaxsoftware.nebula.server.lib.localehandler.LocaleHandler;
 import tk.freaxsoftware.nebula.server.standard.SystemMain;
 import static tk.freaxsoftware.nebula.server.standard.SystemMain.webTemplateEngine;
+import tk.freaxsoftware.nebula.server.standard.utils.JWTTokenService;
+import tk.freaxsoftware.nebula.server.standard.utils.Json;
+import tk.freaxsoftware.nebula.server.standard.utils.TokenCache;
 import tk.freaxsoftware.nebula.server.standard.utils.UserHolder;
 
 /**
@@ -34,6 +47,16 @@ import tk.freaxsoftware.nebula.server.standard.utils.UserHolder;
  */
 public class MainRoutes {
     
+    /**
+     * Count of search results returned if limit isn't specified.
+     */
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    
+    /**
+     * Max count of search results.
+     */
+    private static final int MAX_SEARCH_LIMIT = 100;
+    
     public static void init() {
         get("/", (req, res) -> {
             LocaleHandler.Accesser lc = LocaleHandler
@@ -41,16 +64,185 @@ public class MainRoutes {
             Map<String, Object> attributes = new HashMap<>();
             attributes.put("lc", lc);
             attributes.put("records", SystemMain.loader.getRecords());
+            attributes.put("profiles", lastRuns(SystemMain.loader.getProfiler()));
+            attributes.put("resources", resources(SystemMain.loader.getExecutors()));
             attributes.put("user", UserHolder.getUser());
             return new ModelAndView(attributes, "plugin.html");
         }, webTemplateEngine);
         
         post("/install", (req, res) -> {
             QueryParamsMap map = req.queryMap();
-            SystemMain.loader.installAndStart(map.value("recordId"));
+            SystemMain.loader.submit(map.value("recordId"), LifecycleJob.Action.INSTALL_AND_START);
+            res.redirect("/");
+            return null;
+        });
+        
+        post("/stop", (req, res) -> {
+            QueryParamsMap map = req.queryMap();
+            SystemMain.loader.submit(map.value("recordId"), LifecycleJob.Action.STOP);
             res.redirect("/");
             return null;
         });
+        
+        get("/plugins/status", (req, res) -> {
+            res.type("application/json");
+            StringBuilder json = new StringBuilder("{\"records\":[");
+            List<PluginRecord> records = SystemMain.loader.getRecords();
+            for (int i = 0; i < records.size(); i++) {
+                PluginRecord record = records.get(i);
+                json.append(i > 0 ? "," : "")
+                        .append("{\"id\":").append(Json.quote(record.getId()))
+                        .append(",\"status\":").append(Json.quote(record.getStatus())).append("}");
+            }
+            json.append("],\"jobs\":[");
+            List<LifecycleJob> jobs = SystemMain.loader.getJobs();
+            for (int i = 0; i < jobs.size(); i++) {
+                LifecycleJob job = jobs.get(i);
+                json.append(i > 0 ? "," : "")
+                        .append("{\"id\":").append(job.getId())
+                        .append(",\"pluginId\":").append(Json.quote(job.getPluginId()))
+                        .append(",\"action\":").append(Json.quote(job.getAction()))
+                        .append(",\"state\":").append(Json.quote(job.getState()))
+                        .append(",\"resultStatus\":").append(Json.quote(job.getResultStatus())).append("}");
+            }
+            return json.append("]}").toString();
+        });
+        
+        get("/plugins/resources", (req, res) -> {
+            res.type("application/json");
+            StringBuilder json = new StringBuilder("{\"executors\":[");
+            List<PluginExecutor> executors = SystemMain.loader.getExecutors();
+            for (int i = 0; i < executors.size(); i++) {
+                PluginExecutor executor = executors.get(i);
+                json.append(i > 0 ? "," : "")
+                        .append("{\"id\":").append(Json.quote(executor.getPluginId()))
+                        .append(",\"maxThreads\":").append(executor.getMaxThreads())
+                        .append(",\"maxQueue\":").append(executor.getMaxQueue())
+                        .append(",\"activeTasks\":").append(executor.getActiveTasks())
+                        .append(",\"queuedTasks\":").append(executor.getQueuedTasks())
+                        .append(",\"rejected\":").append(executor.getRejected())
+                        .append(",\"cpuNanos\":").append(executor.getCpuNanos())
+                        .append(",\"allocatedBytes\":").append(executor.getAllocatedBytes()).append("}");
+            }
+            return json.append("]}").toString();
+        });
+        
+        get("/plugins/profile", (req, res) -> {
+            res.type("application/json");
+            LifecycleProfiler profiler = SystemMain.loader.getProfiler();
+            StringBuilder json = new StringBuilder("{\"runs\":").append(profiler.getRuns()).append(",\"plugins\":[");
+            boolean firstProfile = true;
+            for (LifecycleProfiler.PluginProfile profile: profiler.getProfiles().values()) {
+                json.append(firstProfile ? "" : ",").append("{\"id\":").append(Json.quote(profile.getPluginId())).append(",\"phases\":{");
+                firstProfile = false;
+                boolean firstPhase = true;
+                for (LifecycleProfiler.Phase phase: LifecycleProfiler.Phase.values()) {
+                    List<LifecycleProfiler.Run> runs = profile.getRuns(phase);
+                    if (runs.isEmpty()) {
+                        continue;
+                    }
+                    json.append(firstPhase ? "" : ",").append(Json.quote(phase))
+                            .append(":{\"averageMillis\":").append(String.format(Locale.ROOT, "%.3f", profile.getAverageMillis(phase)))
+                            .append(",\"runs\":[");
+                    firstPhase = false;
+                    for (int i = 0; i < runs.size(); i++) {
+                        LifecycleProfiler.Run run = runs.get(i);
+                        json.append(i > 0 ? "," : "")
+                                .append("{\"finished\":").append(run.getFinished())
+                                .append(",\"millis\":").append(String.format(Locale.ROOT, "%.3f", run.getMillis()))
+                                .append(",\"success\":").append(run.isSuccess()).append("}");
+                    }
+                    json.append("]}");
+                }
+                json.append("}}");
+            }
+            return json.append("]}").toString();
+        });
+        
+        get("/auth/cache", (req, res) -> {
+            res.type("application/json");
+            TokenCache cache = JWTTokenService.getInstance().getTokenCache();
+            return "{\"size\":" + cache.getSize() + ",\"maxSize\":" + cache.getMaxSize() 
+                    + ",\"hits\":" + cache.getHits() + ",\"misses\":" + cache.getMisses() + "}";
+        });
+        
+        get("/users/search", (req, res) -> {
+            res.type("application/json");
+            UserHandler userHandler = SystemMain.getUserHandler();
+            List<User> users = userHandler.find(req.queryParams("q"), searchLimit(req.queryParams("limit")));
+            StringBuilder json = new StringBuilder("{\"users\":[");
+            for (int i = 0; i < users.size(); i++) {
+                User user = users.get(i);
+                json.append(i > 0 ? "," : "")
+                        .append("{\"login\":").append(Json.quote(user.getLogin()))
+                        .append(",\"username\":").append(Json.quote(user.getUsername()))
+                        .append(",\"email\":").append(Json.quote(user.getEmail())).append("}");
+            }
+            return json.append("]}").toString();
+        });
+        
+        get("/groups/search", (req, res) -> {
+            res.type("application/json");
+            GroupHandler groupHandler = SystemMain.getGroupHandler();
+            List<Group> groups = groupHandler.find(req.queryParams("q"), searchLimit(req.queryParams("limit")));
+            StringBuilder json = new StringBuilder("{\"groups\":[");
+            for (int i = 0; i < groups.size(); i++) {
+                Group group = groups.get(i);
+                json.append(i > 0 ? "," : "")
+                        .append("{\"name\":").append(Json.quote(group.getName()))
+                        .append(",\"description\":").append(Json.quote(group.getDescription())).append("}");
+            }
+            return json.append("]}").toString();
+        });
+    }
+    
+    /**
+     * Parse limit of search results.
+     * @param raw limit parameter or null;
+     * @return limit between 1 and {@link #MAX_SEARCH_LIMIT};
+     */
+    private static int searchLimit(String raw) {
+        try {
+            return raw != null ? Math.max(1, Math.min(MAX_SEARCH_LIMIT, Integer.parseInt(raw))) : DEFAULT_SEARCH_LIMIT;
+        } catch (NumberFormatException ex) {
+            return DEFAULT_SEARCH_LIMIT;
+        }
+    }
+    
+    /**
+     * Get resource usage of plugin executors for plugin page.
+     * @param executors plugin executors;
+     * @return map of plugin ids to formatted CPU time and allocated memory;
+     */
+    private static Map<String, Map<String, String>> resources(List<PluginExecutor> executors) {
+        Map<String, Map<String, String>> resources = new HashMap<>();
+        for (PluginExecutor executor: executors) {
+            Map<String, String> usage = new HashMap<>();
+            usage.put("cpu", String.format(Locale.ROOT, "%.1f", executor.getCpuNanos() / 1000000.0));
+            usage.put("memory", String.valueOf(executor.getAllocatedBytes() / 1024));
+            resources.put(executor.getPluginId(), usage);
+        }
+        return resources;
+    }
+    
+    /**
+     * Get durations of last lifecycle runs for plugin page.
+     * @param profiler lifecycle profiler;
+     * @return map of plugin ids to phase names with formatted durations;
+     */
+    private static Map<String, Map<String, String>> lastRuns(LifecycleProfiler profiler) {
+        Map<String, Map<String, String>> lastRuns = new HashMap<>();
+        for (LifecycleProfiler.PluginProfile profile: profiler.getProfiles().values()) {
+            Map<String, String> phases = new HashMap<>();
+            for (LifecycleProfiler.Phase phase: LifecycleProfiler.Phase.values()) {
+                LifecycleProfiler.Run run = profile.getLast(phase);
+                if (run != null) {
+                    phases.put(phase.name(), String.format(Locale.ROOT, "%.1f", run.getMillis()) + (run.isSuccess() ? "" : " !"));
+                }
+            }
+            lastRuns.put(profile.getPluginId(), phases);
+        }
+        return lastRuns;
     }
     
 }
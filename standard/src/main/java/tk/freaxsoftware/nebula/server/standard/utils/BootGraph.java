@@ -0,0 +1,145 @@
+/*
+ * This file is part of Nebula Server application.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.standard.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Graph of server boot phases. Phases without dependencies between each 
+ * other run concurrently on bounded executor. Timing of every phase logged 
+ * after boot.
+ * @author Stanislav Nepochatov
+ */
+public class BootGraph {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(BootGraph.class);
+    
+    /**
+     * Declared phases in declaration order.
+     */
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    
+    /**
+     * Single boot phase.
+     */
+    private static class Phase {
+        
+        /**
+         * Phase name.
+         */
+        private final String name;
+        
+        /**
+         * Phase action.
+         */
+        private final Runnable action;
+        
+        /**
+         * Names of phases which should be completed before this phase.
+         */
+        private final String[] dependencies;
+        
+        /**
+         * Start time offset from boot start in milliseconds.
+         */
+        private volatile long startOffset;
+        
+        /**
+         * Duration of phase in milliseconds.
+         */
+        private volatile long duration;
+
+        Phase(String name, Runnable action, String[] dependencies) {
+            this.name = name;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+    }
+    
+    /**
+     * Declare boot phase. Dependencies should be declared before phase.
+     * @param name unique phase name;
+     * @param action phase action;
+     * @param dependencies names of phases to wait for;
+     * @return this graph;
+     */
+    public BootGraph phase(String name, Runnable action, String... dependencies) {
+        if (phases.containsKey(name)) {
+            throw new IllegalArgumentException("Boot phase " + name + " already declared");
+        }
+        for (String dependency: dependencies) {
+            if (!phases.containsKey(dependency)) {
+                throw new IllegalArgumentException("Boot phase " + name + " depends on undeclared phase " + dependency);
+            }
+        }
+        phases.put(name, new Phase(name, action, dependencies));
+        return this;
+    }
+    
+    /**
+     * Run all phases and wait for completion. Failure of any phase stops boot.
+     * @param threads max count of concurrent phases;
+     */
+    public void run(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "nebula-boot-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long bootStart = System.currentTimeMillis();
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        try {
+            for (Phase phase: phases.values()) {
+                List<CompletableFuture<Void>> waitFor = new ArrayList<>();
+                for (String dependency: phase.dependencies) {
+                    waitFor.add(futures.get(dependency));
+                }
+                futures.put(phase.name, CompletableFuture.allOf(waitFor.toArray(new CompletableFuture[waitFor.size()]))
+                        .thenRunAsync(() -> {
+                            long start = System.currentTimeMillis();
+                            phase.startOffset = start - bootStart;
+                            phase.action.run();
+                            phase.duration = System.currentTimeMillis() - start;
+                        }, executor));
+            }
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[futures.size()])).join();
+        } catch (CompletionException ex) {
+            LOGGER.error("Server boot failed", ex.getCause());
+            throw new RuntimeException("Unable to proceed", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        LOGGER.info("Boot phases timing:");
+        for (Phase phase: phases.values()) {
+            LOGGER.info(String.format("  %-16s start +%6d ms, took %6d ms", phase.name, phase.startOffset, phase.duration));
+        }
+        LOGGER.info("Server booted in " + (System.currentTimeMillis() - bootStart) + " ms");
+    }
+}
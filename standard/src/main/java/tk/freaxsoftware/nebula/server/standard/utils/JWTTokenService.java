@@ -48,15 +48,22 @@ public class JWTTokenService {
      */
     private final Integer validHours;
     
+    /**
+     * Cache of verified tokens.
+     */
+    private final TokenCache tokenCache;
+    
     /**
      * Private controller.
      * @param secret JWT secret;
      * @param validHours valid hours value;
+     * @param cacheSize max size of verified tokens cache;
      */
-    private JWTTokenService(String secret, Integer validHours) {
+    private JWTTokenService(String secret, Integer validHours, Integer cacheSize) {
         byte[] jwtSecret = DatatypeConverter.parseBase64Binary(DatatypeConverter.printBase64Binary(secret.getBytes()));
         jwtKey = new SecretKeySpec(jwtSecret, SignatureAlgorithm.HS256.getJcaName());
         this.validHours = validHours;
+        this.tokenCache = new TokenCache(cacheSize);
     }
     
     /**
@@ -77,13 +84,38 @@ public class JWTTokenService {
         return Jwts.parser().setSigningKey(jwtKey).parseClaimsJws(tokenValue).getBody();
     }
     
+    /**
+     * Get user login from token. Token signature checked only once, 
+     * after that login resolved from cache until token expiration. May throws unchecked exceptions.
+     * @param tokenValue raw token value;
+     * @return user login;
+     */
+    public String getLoginFromToken(String tokenValue) {
+        String login = tokenCache.getLogin(tokenValue);
+        if (login == null) {
+            Claims claims = decryptToken(tokenValue);
+            login = claims.getId();
+            tokenCache.put(tokenValue, login, claims.getExpiration());
+        }
+        return login;
+    }
+    
+    /**
+     * Get cache of verified tokens.
+     * @return token cache instance;
+     */
+    public TokenCache getTokenCache() {
+        return tokenCache;
+    }
+    
     /**
      * Get instance of JWT token service.
      * @return initiated service instance;
      */
     public static JWTTokenService getInstance() {
         if (instance == null) {
-            instance = new JWTTokenService(SystemMain.config.getTokenSecret(), SystemMain.config.getTokenValidHours());
+            instance = new JWTTokenService(SystemMain.config.getTokenSecret(), SystemMain.config.getTokenValidHours(), 
+                    SystemMain.config.getTokenCacheSize());
         }
         return instance;
     }
@@ -0,0 +1,68 @@
+/*
+ * This file is part of Nebula Server application.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.standard.utils;
+
+/**
+ * Minimal JSON helpers for status endpoints.
+ * @author Stanislav Nepochatov
+ */
+public final class Json {
+    
+    private Json() {}
+    
+    /**
+     * Quote value as JSON string.
+     * @param value value to quote;
+     * @return quoted string or null literal;
+     */
+    public static String quote(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        String raw = value.toString();
+        StringBuilder builder = new StringBuilder(raw.length() + 2).append('"');
+        for (int i = 0; i < raw.length(); i++) {
+            char current = raw.charAt(i);
+            switch (current) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (current < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) current));
+                    } else {
+                        builder.append(current);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
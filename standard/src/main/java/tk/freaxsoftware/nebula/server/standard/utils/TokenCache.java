@@ -0,0 +1,212 @@
+/*
+ * This file is part of Nebula Server application.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package tk.freaxsoftware.nebula.server.standard.utils;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import tk.freaxsoftware.nebula.server.core.utils.SHAHash;
+
+/**
+ * Bounded cache of already verified JWT tokens. Entries are keyed by 
+ * SHA-256 digest of raw token and hold resolved user login until token 
+ * expiration time. Least recently used entries are evicted when cache is full. 
+ * Digests are also indexed by login, so invalidation of user touches only 
+ * entries of this user.
+ * @author Stanislav Nepochatov
+ */
+public class TokenCache {
+    
+    /**
+     * Maximum count of cached tokens.
+     */
+    private final int maxSize;
+    
+    /**
+     * Cached entries in access order.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+    
+    /**
+     * Digests of cached tokens by login, guarded by lock of entries.
+     */
+    private final Map<String, Set<String>> byLogin = new HashMap<>();
+    
+    /**
+     * Counter of requests served from cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    
+    /**
+     * Counter of requests which required full token verification.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    
+    /**
+     * Default constructor.
+     * @param maxSize maximum count of cached tokens;
+     */
+    public TokenCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > TokenCache.this.maxSize) {
+                    unindex(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * Get login for previously verified token.
+     * @param tokenValue raw token value;
+     * @return user login or null if token wasn't cached or already expired;
+     */
+    public String getLogin(String tokenValue) {
+        String digest = SHAHash.hashPassword(tokenValue);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(digest);
+            if (entry != null && entry.expireTime <= System.currentTimeMillis()) {
+                entries.remove(digest);
+                unindex(digest, entry);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.login;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+    
+    /**
+     * Put verified token into cache.
+     * @param tokenValue raw token value;
+     * @param login login resolved from token;
+     * @param expiration token expiration date, tokens without expiration won't be cached;
+     */
+    public void put(String tokenValue, String login, Date expiration) {
+        if (maxSize <= 0 || expiration == null || login == null) {
+            return;
+        }
+        String digest = SHAHash.hashPassword(tokenValue);
+        synchronized (entries) {
+            Entry previous = entries.put(digest, new Entry(login, expiration.getTime()));
+            if (previous != null) {
+                unindex(digest, previous);
+            }
+            byLogin.computeIfAbsent(login, key -> new HashSet<>()).add(digest);
+        }
+    }
+    
+    /**
+     * Remove all cached tokens of certain user.
+     * @param login user login;
+     */
+    public void invalidate(String login) {
+        synchronized (entries) {
+            Set<String> digests = byLogin.remove(login);
+            if (digests != null) {
+                entries.keySet().removeAll(digests);
+            }
+        }
+    }
+    
+    /**
+     * Remove digest of removed entry from login index. Called under lock of entries.
+     * @param digest token digest;
+     * @param entry removed entry;
+     */
+    private void unindex(String digest, Entry entry) {
+        Set<String> digests = byLogin.get(entry.login);
+        if (digests != null && digests.remove(digest) && digests.isEmpty()) {
+            byLogin.remove(entry.login);
+        }
+    }
+    
+    /**
+     * Get count of cache hits.
+     * @return hits count;
+     */
+    public long getHits() {
+        return hits.get();
+    }
+    
+    /**
+     * Get count of cache misses.
+     * @return misses count;
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * Get current count of cached tokens.
+     * @return cache size;
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    
+    /**
+     * Get maximum count of cached tokens.
+     * @return cache capacity;
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenCache{" + "size=" + getSize() + ", maxSize=" + maxSize + ", hits=" + hits.get() + ", misses=" + misses.get() + '}';
+    }
+    
+    /**
+     * Single cached token entry.
+     */
+    private static class Entry {
+        
+        /**
+         * Resolved user login.
+         */
+        private final String login;
+        
+        /**
+         * Token expiration time in milliseconds.
+         */
+        private final long expireTime;
+
+        Entry(String login, long expireTime) {
+            this.login = login;
+            this.expireTime = expireTime;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of Nebula Server application.
+ * 
+ * Copyright (C) 2015 Freax Software
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package tk.freaxsoftware.nebula.server.standard.test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import tk.freaxsoftware.nebula.server.standard.utils.TokenCache;
+
+/**
+ * Verified tokens cache unit test.
+ * @author Stanislav Nepochatov
+ */
+public class TokenCacheTest {
+    
+    private static Date inFuture() {
+        return new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+    }
+    
+    @Test
+    public void hitMissTest() {
+        TokenCache cache = new TokenCache(10);
+        assertNull(cache.getLogin("token"));
+        cache.put("token", "root", inFuture());
+        assertEquals("root", cache.getLogin("token"));
+        assertEquals("root", cache.getLogin("token"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+    
+    @Test
+    public void expirationTest() {
+        TokenCache cache = new TokenCache(10);
+        cache.put("expired", "root", new Date(System.currentTimeMillis() - 1));
+        cache.put("endless", "root", null);
+        assertEquals(1, cache.getSize());
+        assertNull(cache.getLogin("expired"));
+        assertNull(cache.getLogin("endless"));
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getMisses());
+    }
+    
+    @Test
+    public void evictionTest() {
+        TokenCache cache = new TokenCache(2);
+        cache.put("first", "root", inFuture());
+        cache.put("second", "user", inFuture());
+        assertEquals("root", cache.getLogin("first"));
+        cache.put("third", "user", inFuture());
+        assertEquals(2, cache.getSize());
+        assertEquals("root", cache.getLogin("first"));
+        assertNull(cache.getLogin("second"));
+        assertEquals("user", cache.getLogin("third"));
+        
+        TokenCache disabled = new TokenCache(0);
+        disabled.put("first", "root", inFuture());
+        assertEquals(0, disabled.getSize());
+    }
+    
+    @Test
+    public void invalidateTest() {
+        TokenCache cache = new TokenCache(10);
+        cache.put("first", "root", inFuture());
+        cache.put("second", "root", inFuture());
+        cache.put("third", "user", inFuture());
+        cache.invalidate("root");
+        assertNull(cache.getLogin("first"));
+        assertNull(cache.getLogin("second"));
+        assertEquals("user", cache.getLogin("third"));
+        assertEquals(1, cache.getSize());
+        
+        cache.put("third", "root", inFuture());
+        cache.invalidate("user");
+        assertEquals("root", cache.getLogin("third"));
+        cache.invalidate("root");
+        assertEquals(0, cache.getSize());
+    }
+}